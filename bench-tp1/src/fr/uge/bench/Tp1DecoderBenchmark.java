@@ -0,0 +1,96 @@
+package fr.uge.bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.uge.exo4.DecoderOnTheFly;
+
+/**
+ * Streaming decoding of tp1 (fr.uge.exo4), on a file of sizeMB megabytes of
+ * mixed text (ASCII, accents, CJK and emojis, so that characters of 1 to 4
+ * bytes are split by the reads).
+ *
+ * One operation decodes the whole file to a Writer that drops the characters,
+ * so the throughput is sizeMB divided by the time per operation. The reference
+ * is the decoding of a BufferedReader, InputStreamReader being the usual
+ * streaming decoder of the JDK.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Thread)
+public class Tp1DecoderBenchmark {
+	private static final String TEXT = "Le réseau, c'est simple : ネットワーク 🌐 — 12345 ascii only text.\n";
+
+	@Param({ "UTF-8", "UTF-16" })
+	public String charset;
+
+	@Param({ "1024" })
+	public int sizeMB;
+
+	@Param({ "4096", "65536" })
+	public int bufferCapacity;
+
+	private Path file;
+	private DecoderOnTheFly decoder;
+	private final char[] chars = new char[8_192];
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		var cs = Charset.forName(charset);
+		file = Files.createTempFile("decoder", ".txt");
+		var size = (long) sizeMB << 20;
+		try (var writer = new BufferedWriter(Files.newBufferedWriter(file, cs), 1 << 16)) {
+			var written = 0L;
+			var bytesPerText = TEXT.getBytes(cs).length;
+			while (written < size) {
+				writer.write(TEXT);
+				written += bytesPerText;
+			}
+		}
+		decoder = new DecoderOnTheFly(cs, bufferCapacity);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(file);
+	}
+
+	@Benchmark
+	public void decoderOnTheFly() throws IOException {
+		decoder.decode(file, Writer.nullWriter());
+	}
+
+	@Benchmark
+	public long bufferedReader() throws IOException {
+		var total = 0L;
+		try (var reader = Files.newBufferedReader(file, Charset.forName(charset))) {
+			int read;
+			while ((read = reader.read(chars)) != -1) {
+				total += read;
+			}
+		}
+		return total;
+	}
+}
@@ -0,0 +1,63 @@
+package fr.uge.bench;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The encoded frames fed to the readers by the benchmarks. Public because the
+ * code generated by JMH uses the parameter types.
+ */
+public final class Frames {
+	private Frames() {
+		throw new AssertionError();
+	}
+
+	public enum Payload {
+		ASCII("login", "The quick brown fox jumps over the lazy dog. ".repeat(4)),
+		MULTIBYTE("lögïn", "Été € 日本語 😀 ".repeat(8));
+
+		private final String login;
+		private final String message;
+
+		private Payload(String login, String message) {
+			this.login = login;
+			this.message = message;
+		}
+	}
+
+	/**
+	 * @return an int frame in read-mode
+	 */
+	static ByteBuffer intFrame() {
+		return ByteBuffer.allocate(Integer.BYTES).putInt(0x1234_5678).flip();
+	}
+
+	/**
+	 * @return a string frame (int size, UTF-8 bytes) of the message of payload in
+	 *         read-mode
+	 */
+	static ByteBuffer stringFrame(Payload payload) {
+		var bytes = StandardCharsets.UTF_8.encode(payload.message);
+		return ByteBuffer.allocate(Integer.BYTES + bytes.remaining()).putInt(bytes.remaining()).put(bytes).flip();
+	}
+
+	/**
+	 * @return a message frame (login string, message string) of payload in
+	 *         read-mode
+	 */
+	static ByteBuffer messageFrame(Payload payload) {
+		var login = StandardCharsets.UTF_8.encode(payload.login);
+		var message = StandardCharsets.UTF_8.encode(payload.message);
+		return ByteBuffer.allocate(2 * Integer.BYTES + login.remaining() + message.remaining())
+				.putInt(login.remaining()).put(login)
+				.putInt(message.remaining()).put(message)
+				.flip();
+	}
+
+	/**
+	 * @return the buffer given to the readers, in write-mode
+	 */
+	static ByteBuffer receiveBuffer(boolean direct) {
+		return direct ? ByteBuffer.allocateDirect(4_096) : ByteBuffer.allocate(4_096);
+	}
+}
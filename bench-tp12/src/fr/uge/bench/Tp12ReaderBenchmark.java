@@ -0,0 +1,102 @@
+package fr.uge.bench;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.uge.exo3.IntReader;
+import fr.uge.exo3.Message;
+import fr.uge.exo3.MessageReader;
+import fr.uge.exo3.Reader;
+import fr.uge.exo3.StringReader;
+
+/**
+ * Readers of tp12 (fr.uge.exo3).
+ *
+ * One operation parses one frame. With SPLIT, the frame arrives in two reads
+ * and the split offset moves by one byte at each operation, so that every
+ * offset is measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class Tp12ReaderBenchmark {
+	public enum Arrival {
+		WHOLE, SPLIT
+	}
+
+	@Param
+	public Arrival arrival;
+
+	@Param({ "false", "true" })
+	public boolean direct;
+
+	@Param
+	public Frames.Payload payload;
+
+	private final IntReader intReader = new IntReader();
+	private final StringReader stringReader = new StringReader();
+	private final MessageReader messageReader = new MessageReader();
+	private ByteBuffer intFrame;
+	private ByteBuffer stringFrame;
+	private ByteBuffer messageFrame;
+	private ByteBuffer buffer;
+	private int split;
+
+	@Setup
+	public void setup() {
+		intFrame = Frames.intFrame();
+		stringFrame = Frames.stringFrame(payload);
+		messageFrame = Frames.messageFrame(payload);
+		buffer = Frames.receiveBuffer(direct);
+	}
+
+	private <T> T parse(Reader<T> reader, ByteBuffer frame) {
+		reader.reset();
+		buffer.clear();
+		var size = frame.limit();
+		if (arrival == Arrival.WHOLE) {
+			buffer.put(frame.position(0));
+		} else {
+			split = split % (size - 1) + 1; // from 1 to size - 1
+			buffer.put(frame.position(0).limit(split));
+			if (reader.process(buffer) != Reader.ProcessStatus.REFILL) {
+				throw new AssertionError();
+			}
+			buffer.put(frame.limit(size));
+		}
+		if (reader.process(buffer) != Reader.ProcessStatus.DONE) {
+			throw new AssertionError();
+		}
+		return reader.get();
+	}
+
+	@Benchmark
+	public Integer intReader() {
+		return parse(intReader, intFrame);
+	}
+
+	@Benchmark
+	public String stringReader() {
+		return parse(stringReader, stringFrame);
+	}
+
+	@Benchmark
+	public Message messageReader() {
+		return parse(messageReader, messageFrame);
+	}
+}
@@ -0,0 +1,26 @@
+package fr.uge.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, which adds the bytes allocated per
+ * operation (gc.alloc.rate.norm) next to the ns/op. The optional argument is a
+ * regexp selecting the benchmarks, all of them by default.
+ *
+ * Needs the JMH user library (jmh-core, jmh-generator-annprocess and their
+ * dependencies) and JMH_HOME pointing to the folder containing the jars for
+ * the annotation processor.
+ */
+public class BenchmarkMain {
+	public static void main(String[] args) throws RunnerException {
+		var include = args.length == 0 ? BenchmarkMain.class.getPackageName() + ".*" : args[0];
+		var options = new OptionsBuilder()
+				.include(include)
+				.addProfiler(GCProfiler.class)
+				.build();
+		new Runner(options).run();
+	}
+}
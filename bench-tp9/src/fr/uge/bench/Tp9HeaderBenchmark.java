@@ -0,0 +1,91 @@
+package fr.uge.bench;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.upem.net.tcp.http.HTTPHeader;
+import fr.upem.net.tcp.http.HTTPRawHeader;
+import fr.upem.net.tcp.http.HTTPReader;
+
+/**
+ * Header parsing of tp9 (fr.upem.net.tcp.http).
+ *
+ * One operation parses one response header already in the buffer of the
+ * reader, so no socket is needed: readHeader builds the Strings and the map of
+ * HTTPHeader, readRawHeader fills a reused HTTPRawHeader and only reads the
+ * fields a client needs to find the body.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class Tp9HeaderBenchmark {
+	public enum Response {
+		SHORT("HTTP/1.1 204 No Content\r\nDate: Sun, 18 Oct 2026 04:00:00 GMT\r\nContent-Length: 0\r\n\r\n"),
+		TYPICAL("HTTP/1.1 200 OK\r\nDate: Sun, 18 Oct 2026 04:00:00 GMT\r\nServer: Apache/2.4.57 (Debian)\r\n"
+				+ "Last-Modified: Tue, 13 Oct 2026 10:21:07 GMT\r\nETag: \"2aa6-5f7c0a0e1b7c0\"\r\n"
+				+ "Accept-Ranges: bytes\r\nContent-Length: 10918\r\nVary: Accept-Encoding\r\n"
+				+ "Cache-Control: max-age=3600\r\nContent-Type: text/html; charset=UTF-8\r\n\r\n");
+
+		private final byte[] bytes;
+
+		Response(String header) {
+			this.bytes = header.getBytes(StandardCharsets.US_ASCII);
+		}
+	}
+
+	@Param
+	public Response response;
+
+	@Param({ "false", "true" })
+	public boolean direct;
+
+	private final HTTPRawHeader rawHeader = new HTTPRawHeader();
+	private ByteBuffer buffer;
+	private HTTPReader reader;
+
+	@Setup
+	public void setup() {
+		buffer = direct ? ByteBuffer.allocateDirect(1_024) : ByteBuffer.allocate(1_024);
+		reader = new HTTPReader(null, buffer);
+	}
+
+	private void fill() {
+		buffer.clear();
+		buffer.put(response.bytes);
+	}
+
+	@Benchmark
+	public HTTPHeader readHeader() throws Exception {
+		fill();
+		return reader.readHeader();
+	}
+
+	@Benchmark
+	public long readRawHeader() throws Exception {
+		fill();
+		var header = reader.readRawHeader(rawHeader);
+		return header.getContentLength() + (header.isChunkedTransfer() ? 1 : 0);
+	}
+
+	@Benchmark
+	public HTTPHeader readRawHeaderToHTTPHeader() throws Exception {
+		fill();
+		return reader.readRawHeader(rawHeader).toHTTPHeader();
+	}
+}
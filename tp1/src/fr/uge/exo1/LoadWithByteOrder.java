@@ -0,0 +1,103 @@
+package fr.uge.exo1;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.LongStream;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Reads back the files written by {@link StoreWithByteOrder}, through
+ * memory-mapped LongBuffer views in the byte order of the file. A file is
+ * mapped in windows of at most 1 GB, since a mapping is limited to 2 GB.
+ */
+public class LoadWithByteOrder {
+	private static final long WINDOW_SIZE = 1 << 30;
+
+	public static void usage() {
+		System.out.println("LoadWithByteOrder [LE|BE] filename");
+	}
+
+	/**
+	 * @param path
+	 * @param order
+	 * @return the longs of the file, lazily read from the mapped windows
+	 * @throws IOException if the file cannot be mapped or its size is not a
+	 *                     multiple of 8
+	 */
+	static LongStream longs(Path path, ByteOrder order) throws IOException {
+		var windows = map(path, order);
+		return windows.stream().flatMapToLong(window -> LongStream.range(0, window.limit())
+				.map(i -> window.get((int) i)));
+	}
+
+	/**
+	 * @param path
+	 * @param order
+	 * @return the longs of the file
+	 * @throws IOException if the file cannot be mapped, its size is not a
+	 *                     multiple of 8, or it has too many longs for an array
+	 */
+	static long[] readAll(Path path, ByteOrder order) throws IOException {
+		var windows = map(path, order);
+		var count = 0L;
+		for (var window : windows) {
+			count += window.limit();
+		}
+		if (count > Integer.MAX_VALUE - 8) {
+			throw new IOException("Too many longs for an array: " + count);
+		}
+		var longs = new long[(int) count];
+		var offset = 0;
+		for (var window : windows) {
+			var length = window.limit();
+			window.get(0, longs, offset, length);
+			offset += length;
+		}
+		return longs;
+	}
+
+	private static List<LongBuffer> map(Path path, ByteOrder order) throws IOException {
+		try (var channel = FileChannel.open(path, READ)) {
+			var size = channel.size();
+			if (size % Long.BYTES != 0) {
+				throw new IOException("The size of " + path + " is not a multiple of " + Long.BYTES + ": " + size);
+			}
+			var windows = new ArrayList<LongBuffer>();
+			for (var position = 0L; position < size; position += WINDOW_SIZE) {
+				var length = Math.min(WINDOW_SIZE, size - position);
+				windows.add(channel.map(MapMode.READ_ONLY, position, length).order(order).asLongBuffer());
+			}
+			return windows; // the mappings stay valid once the channel is closed
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			usage();
+			return;
+		}
+		var path = Path.of(args[1]);
+		var order = StoreWithByteOrder.byteOrder(args[0]);
+		if (order == null) {
+			System.out.println("Unrecognized option : " + args[0]);
+			usage();
+			return;
+		}
+		var writer = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+		var iterator = longs(path, order).iterator();
+		while (iterator.hasNext()) {
+			writer.write(Long.toString(iterator.nextLong()));
+			writer.newLine();
+		}
+		writer.flush();
+	}
+}
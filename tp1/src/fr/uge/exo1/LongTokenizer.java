@@ -0,0 +1,122 @@
+package fr.uge.exo1;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Objects;
+
+/**
+ * Reads whitespace separated decimal longs from an InputStream, like
+ * Scanner.hasNextLong() and Scanner.nextLong() but without regex nor String:
+ * the bytes are parsed as they are read in a byte array, and a token can span
+ * two reads.
+ *
+ * A token is an optional sign followed by ASCII digits, and the bytes up to
+ * the space (0x20) are whitespace. As with Scanner, reading stops at the first
+ * token that is not a long, including a long that overflows. Unlike Scanner,
+ * the locale is ignored so grouping separators are not accepted.
+ */
+final class LongTokenizer {
+	private final InputStream in;
+	private final byte[] buffer;
+	private int position;
+	private int limit;
+	private long value;
+
+	LongTokenizer(InputStream in, int bufferSize) {
+		this.in = Objects.requireNonNull(in);
+		if (bufferSize <= 0) {
+			throw new IllegalArgumentException("bufferSize must be positive");
+		}
+		buffer = new byte[bufferSize];
+	}
+
+	/**
+	 * Parses the next token
+	 *
+	 * @return true if the next token is a long, its value is then given by
+	 *         {@link #value()}, false at the end of the stream or if the token is
+	 *         not a long
+	 * @throws IOException
+	 */
+	boolean next() throws IOException {
+		var buffer = this.buffer;
+		var position = this.position;
+		var limit = this.limit;
+		int b;
+		do {
+			if (position == limit) {
+				if (!fill()) {
+					return false;
+				}
+				position = 0;
+				limit = this.limit;
+			}
+			b = buffer[position++] & 0xFF;
+		} while (b <= ' ');
+		var negative = b == '-';
+		if (negative || b == '+') {
+			b = -1; // no digit yet
+		}
+		// accumulated negatively, since Long.MIN_VALUE has no positive counterpart,
+		// 18 digits cannot overflow so only the longer tokens are checked
+		var result = 0L;
+		var digits = 0;
+		while (true) {
+			if (b >= 0) {
+				var digit = b - '0';
+				if (digit < 0 || digit > 9) {
+					this.position = position;
+					return false;
+				}
+				if (digits >= 18 && (result < Long.MIN_VALUE / 10 || result * 10 < Long.MIN_VALUE + digit)) {
+					this.position = position;
+					return false;
+				}
+				result = result * 10 - digit;
+				digits++;
+			}
+			if (position == limit) {
+				if (!fill()) {
+					position = 0;
+					break;
+				}
+				position = 0;
+				limit = this.limit;
+			}
+			b = buffer[position++] & 0xFF;
+			if (b <= ' ') {
+				break;
+			}
+		}
+		this.position = position;
+		if (digits == 0 || (!negative && result == Long.MIN_VALUE)) {
+			return false;
+		}
+		value = negative ? result : -result;
+		return true;
+	}
+
+	/**
+	 * @return the value of the last token for which {@link #next()} returned true
+	 */
+	long value() {
+		return value;
+	}
+
+	/**
+	 * Reads the next bytes at the start of the buffer
+	 *
+	 * @return false at the end of the stream
+	 */
+	private boolean fill() throws IOException {
+		var read = in.read(buffer);
+		if (read <= 0) {
+			position = 0;
+			limit = 0;
+			return false;
+		}
+		position = 0;
+		limit = read;
+		return true;
+	}
+}
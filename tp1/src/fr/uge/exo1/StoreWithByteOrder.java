@@ -1,55 +1,76 @@
 package fr.uge.exo1;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
 import java.nio.file.Path;
-import java.util.Scanner;
 
 import static java.nio.file.StandardOpenOption.*;
 
 public class StoreWithByteOrder {
+	private static final int BUFFER_SIZE = 1 << 20;
 
 	public static void usage() {
 		System.out.println("StoreWithByteOrder [LE|BE] filename");
 	}
 
+	/**
+	 * Writes the longs read in decimal from in to the file, in the given byte
+	 * order, until the end of in or the first token that is not a long
+	 *
+	 * @param in
+	 * @param path
+	 * @param order
+	 * @throws IOException
+	 */
+	static void store(InputStream in, Path path, ByteOrder order) throws IOException {
+		var buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(order);
+		var tokenizer = new LongTokenizer(in, BUFFER_SIZE);
+		try (var outChannel = FileChannel.open(path, WRITE, CREATE, TRUNCATE_EXISTING)) {
+			while (tokenizer.next()) {
+				if (buffer.remaining() < Long.BYTES) {
+					write(outChannel, buffer);
+				}
+				buffer.putLong(tokenizer.value());
+			}
+			write(outChannel, buffer);
+		}
+	}
+
+	private static void write(FileChannel outChannel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			outChannel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * @param option LE or BE, in any case
+	 * @return the byte order, or null if the option is not recognized
+	 */
+	static ByteOrder byteOrder(String option) {
+		return switch (option.toUpperCase()) {
+		case "LE" -> ByteOrder.LITTLE_ENDIAN;
+		case "BE" -> ByteOrder.BIG_ENDIAN;
+		default -> null;
+		};
+	}
+
 	public static void main(String[] args) throws IOException {
 		if (args.length != 2) {
 			usage();
 			return;
 		}
 		var path = Path.of(args[1]);
-
-		// TODO
-		var buffer = ByteBuffer.allocate(1024);
-
-		switch (args[0].toUpperCase()) {
-		case "LE":
-			buffer.order(ByteOrder.LITTLE_ENDIAN);
-			break;
-		case "BE":
-			break;
-		default:
+		var order = byteOrder(args[0]);
+		if (order == null) {
 			System.out.println("Unrecognized option : " + args[0]);
 			usage();
 			return;
 		}
-
-		try (var outChannel = FileChannel.open(path, WRITE, CREATE, TRUNCATE_EXISTING);
-				var scanner = new Scanner(System.in)) {
-			while (scanner.hasNextLong()) {
-				var l = scanner.nextLong();
-				if(buffer.remaining() < Long.BYTES) {
-					buffer.flip();
-					outChannel.write(buffer);
-					buffer.clear();
-				}
-				buffer.putLong(l);
-			}
-			buffer.flip();
-			outChannel.write(buffer);
-		}
+		store(System.in, path, order);
 	}
-}
\ No newline at end of file
+}
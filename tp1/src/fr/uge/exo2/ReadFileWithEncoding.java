@@ -1,16 +1,37 @@
 package fr.uge.exo2;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class ReadFileWithEncoding {
+	private static final long WINDOW_SIZE = 16 << 20;
+	private static final long PARALLEL_REGION_SIZE = 4 << 20;
+	static final long MAX_DECODED_BYTES = 32 << 20; // heap held by the decoded regions not yet written
+	private static final int MIN_WINDOW_SIZE = 16;
+	private static final int CHAR_BUFFER_SIZE = 8_192;
 	
 	private static void usage() {
-		System.out.println("Usage: ReadFileWithEncoding charset filename");
+		System.out.println("Usage: ReadFileWithEncoding [-mapped|-parallel] charset filename");
 	}
 
 	private static String stringFromFile(Charset cs, Path path) throws IOException {
@@ -24,13 +45,220 @@ public class ReadFileWithEncoding {
 
 	}
 
+	/**
+	 * Decodes the file window by window, each window being mapped with
+	 * FileChannel.map, so the file can be larger than 2 GB and only the chars
+	 * buffer lives in the heap. The bytes of a character that straddles the end
+	 * of a window are not consumed by the decoder, and the next window is mapped
+	 * from the first unconsumed byte.
+	 *
+	 * Malformed and unmappable input is replaced, as in Charset.decode.
+	 *
+	 * @param cs
+	 * @param path
+	 * @param windowSize the number of bytes mapped at once, at least 16
+	 * @param out        receives the decoded chars
+	 * @throws IOException
+	 */
+	static void decodeMapped(Charset cs, Path path, long windowSize, Appendable out) throws IOException {
+		Objects.requireNonNull(out);
+		checkWindowSize(windowSize);
+		var decoder = newDecoder(cs);
+		var chars = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+		try (var fc = FileChannel.open(path, StandardOpenOption.READ)) {
+			var size = fc.size();
+			var position = 0L;
+			var last = false;
+			while (!last) {
+				var length = Math.min(windowSize, size - position);
+				last = position + length == size;
+				var window = fc.map(MapMode.READ_ONLY, position, length);
+				decode(decoder, window, chars, last, out);
+				position += window.position();
+			}
+			while (decoder.flush(chars).isOverflow()) {
+				writeChars(chars, out);
+			}
+			writeChars(chars, out);
+		}
+	}
+
+	/**
+	 * Decodes the file in regions of regionSize bytes, mapped and decoded in
+	 * parallel, and appends them to out in the order of the file. Each region is
+	 * decoded into a single CharBuffer sized for the region, and the CharBuffers
+	 * of the regions submitted but not yet written total at most
+	 * MAX_DECODED_BYTES (or one region if it is larger), whatever the number of
+	 * threads and the speed of out, which bounds the heap used.
+	 *
+	 * The regions are decoded independently, so the charset has to be
+	 * self-synchronizing: UTF-8, whose region boundaries are moved past the
+	 * continuation bytes to the start of a character, or a single-byte charset.
+	 *
+	 * @param cs
+	 * @param path
+	 * @param regionSize the number of bytes of a region, at least 16
+	 * @param nbThreads
+	 * @param out        receives the decoded chars
+	 * @throws IOException
+	 */
+	static void decodeMappedParallel(Charset cs, Path path, long regionSize, int nbThreads, Appendable out)
+			throws IOException {
+		Objects.requireNonNull(out);
+		checkWindowSize(regionSize);
+		if (nbThreads <= 0) {
+			throw new IllegalArgumentException("nbThreads must be positive");
+		}
+		var utf8 = cs.equals(StandardCharsets.UTF_8);
+		if (!utf8 && (!cs.canEncode() || cs.newEncoder().maxBytesPerChar() != 1)) {
+			throw new IllegalArgumentException(cs + " is not self-synchronizing");
+		}
+		try (var fc = FileChannel.open(path, StandardOpenOption.READ);
+				var executor = Executors.newFixedThreadPool(nbThreads)) {
+			var size = fc.size();
+			var maxCharsPerByte = (double) cs.newDecoder().maxCharsPerByte();
+			var pending = new ArrayDeque<Region>();
+			var inFlight = 0L; // decoded bytes held by the pending regions
+			var start = 0L;
+			while (start < size) {
+				var end = Math.min(start + regionSize, size);
+				if (utf8) {
+					end = utf8Boundary(fc, end, size);
+				}
+				var length = end - start;
+				var decodedBytes = (long) Math.ceil(length * maxCharsPerByte) * Character.BYTES;
+				while (!pending.isEmpty() && inFlight + decodedBytes > MAX_DECODED_BYTES) {
+					inFlight -= writeRegion(pending.poll(), out);
+				}
+				var mapped = fc.map(MapMode.READ_ONLY, start, length);
+				pending.add(new Region(decodedBytes, executor.submit(() -> decodeRegion(cs, mapped))));
+				inFlight += decodedBytes;
+				start = end;
+			}
+			while (!pending.isEmpty()) {
+				writeRegion(pending.poll(), out);
+			}
+		}
+	}
+
+	/**
+	 * @return the first offset from position that is not a UTF-8 continuation
+	 *         byte (10xxxxxx), looking at most 3 bytes ahead since a character
+	 *         has at most 4 bytes
+	 */
+	private static long utf8Boundary(FileChannel fc, long position, long size) throws IOException {
+		var bytes = ByteBuffer.allocate(3);
+		var read = 0;
+		while (bytes.hasRemaining() && read != -1) {
+			read = fc.read(bytes, position + bytes.position());
+		}
+		bytes.flip();
+		var offset = 0;
+		while (offset < bytes.limit() && (bytes.get(offset) & 0xC0) == 0x80) {
+			offset++;
+		}
+		return Math.min(position + offset, size);
+	}
+
+	private record Region(long decodedBytes, Future<CharBuffer> chars) {}
+
+	/**
+	 * @return the decoded bytes of the region, now written to out and released
+	 */
+	private static long writeRegion(Region region, Appendable out) throws IOException {
+		writeChars(join(region.chars()), out);
+		return region.decodedBytes();
+	}
+
+	/**
+	 * Decodes the region into one CharBuffer of maxCharsPerByte chars per byte,
+	 * so the decoder never overflows and the chars are neither regrown nor copied
+	 * into a String.
+	 *
+	 * @return the chars in write mode, as expected by writeChars
+	 */
+	private static CharBuffer decodeRegion(Charset cs, MappedByteBuffer region) throws CharacterCodingException {
+		var decoder = newDecoder(cs);
+		var chars = CharBuffer.allocate((int) Math.ceil(region.remaining() * (double) decoder.maxCharsPerByte()));
+		var result = decoder.decode(region, chars, true);
+		if (!result.isUnderflow()) {
+			result.throwException();
+		}
+		result = decoder.flush(chars);
+		if (!result.isUnderflow()) {
+			result.throwException();
+		}
+		return chars;
+	}
+
+	private static <T> T join(Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			var cause = e.getCause();
+			if (cause instanceof IOException ioe) {
+				throw ioe;
+			}
+			if (cause instanceof UncheckedIOException uioe) {
+				throw uioe.getCause();
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	private static void decode(CharsetDecoder decoder, ByteBuffer window, CharBuffer chars, boolean endOfInput,
+			Appendable out) throws IOException {
+		while (decoder.decode(window, chars, endOfInput).isOverflow()) {
+			writeChars(chars, out);
+		}
+		writeChars(chars, out);
+	}
+
+	private static void writeChars(CharBuffer chars, Appendable out) throws IOException {
+		chars.flip();
+		if (out instanceof Writer writer) {
+			writer.write(chars.array(), 0, chars.limit());
+		} else {
+			out.append(chars);
+		}
+		chars.clear();
+	}
+
+	private static CharsetDecoder newDecoder(Charset cs) {
+		return cs.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	private static void checkWindowSize(long windowSize) {
+		if (windowSize < MIN_WINDOW_SIZE) {
+			throw new IllegalArgumentException("window size must be at least " + MIN_WINDOW_SIZE);
+		}
+	}
+
 	public static void main(String[] args) throws IOException {
-		if (args.length != 2) {
+		if (args.length != 2 && args.length != 3) {
 			usage();
 			return;
 		}
-		var cs = Charset.forName(args[0]);
-		var path = Path.of(args[1]);
-		System.out.print(stringFromFile(cs, path));
+		var mode = args.length == 3 ? args[0] : "";
+		var cs = Charset.forName(args[args.length - 2]);
+		var path = Path.of(args[args.length - 1]);
+		switch (mode) {
+		case "" -> System.out.print(stringFromFile(cs, path));
+		case "-mapped", "-parallel" -> {
+			var out = new BufferedWriter(new OutputStreamWriter(System.out));
+			if (mode.equals("-mapped")) {
+				decodeMapped(cs, path, WINDOW_SIZE, out);
+			} else {
+				decodeMappedParallel(cs, path, PARALLEL_REGION_SIZE, Runtime.getRuntime().availableProcessors(), out);
+			}
+			out.flush();
+		}
+		default -> usage();
+		}
 	}
 }
@@ -0,0 +1,148 @@
+package fr.uge.exo2;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReadFileWithEncodingTest {
+
+    /**
+     * ISO-8859-1 counting the regions whose decoding has started
+     */
+    private static final class CountingLatin1 extends Charset {
+        private final AtomicInteger decodings = new AtomicInteger();
+
+        private CountingLatin1() {
+            super("X-COUNTING-LATIN1", null);
+        }
+
+        @Override
+        public boolean contains(Charset cs) {
+            return cs == this;
+        }
+
+        @Override
+        public CharsetDecoder newDecoder() {
+            return new CharsetDecoder(this, 1, 1) {
+                private boolean started;
+
+                @Override
+                protected CoderResult decodeLoop(ByteBuffer in, CharBuffer out) {
+                    if (!started) {
+                        started = true;
+                        decodings.incrementAndGet();
+                    }
+                    while (in.hasRemaining()) {
+                        if (!out.hasRemaining()) {
+                            return CoderResult.OVERFLOW;
+                        }
+                        out.put((char) (in.get() & 0xFF));
+                    }
+                    return CoderResult.UNDERFLOW;
+                }
+            };
+        }
+
+        @Override
+        public CharsetEncoder newEncoder() {
+            return StandardCharsets.ISO_8859_1.newEncoder();
+        }
+    }
+
+    private static byte expected(long offset) {
+        return (byte) (offset % 251);
+    }
+
+    @Test
+    public void decodedRegionsNotWrittenAreBounded() throws IOException {
+        var maxRegions = 32;
+        var regionSize = ReadFileWithEncoding.MAX_DECODED_BYTES / (Character.BYTES * maxRegions);
+        var bytes = new byte[(int) (regionSize * (maxRegions + 16))];
+        for (var i = 0; i < bytes.length; i++) {
+            bytes[i] = expected(i);
+        }
+        var path = Files.createTempFile("regions", ".bin");
+        try {
+            Files.write(path, bytes);
+            var cs = new CountingLatin1();
+            var maxPending = new AtomicInteger();
+            // a slow sink, checking the chars and how many regions are decoded ahead
+            var out = new Appendable() {
+                private long offset;
+                private int written;
+
+                @Override
+                public Appendable append(CharSequence csq) {
+                    if (written == 0) {
+                        try {
+                            Thread.sleep(50); // lets the threads decode every region already submitted
+                        } catch (InterruptedException e) {
+                            throw new AssertionError(e);
+                        }
+                    }
+                    maxPending.accumulateAndGet(cs.decodings.get() - written, Math::max);
+                    for (var i = 0; i < csq.length(); i++) {
+                        assertEquals(expected(offset++), (byte) csq.charAt(i));
+                    }
+                    written++;
+                    return this;
+                }
+
+                @Override
+                public Appendable append(CharSequence csq, int start, int end) {
+                    return append(csq.subSequence(start, end));
+                }
+
+                @Override
+                public Appendable append(char c) {
+                    return append(String.valueOf(c));
+                }
+            };
+            ReadFileWithEncoding.decodeMappedParallel(cs, path, regionSize, 2, out);
+            assertEquals(bytes.length, out.offset);
+            assertTrue(maxPending.get() <= maxRegions, maxPending.get() + " regions decoded ahead");
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void utf8SplitAcrossRegions() throws IOException {
+        var text = "Le réseau ネットワーク 🌐 ascii\n".repeat(100);
+        var path = Files.createTempFile("utf8", ".txt");
+        try {
+            Files.writeString(path, text);
+            for (var regionSize = 16; regionSize < 40; regionSize++) {
+                var out = new StringWriter();
+                ReadFileWithEncoding.decodeMappedParallel(StandardCharsets.UTF_8, path, regionSize, 3, out);
+                assertEquals(text, out.toString());
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void decodeOnlyCharsetIsRejected() throws IOException {
+        var path = Files.createTempFile("empty", ".txt");
+        try {
+            var cs = Charset.forName("ISO-2022-CN");
+            assertThrows(IllegalArgumentException.class,
+                    () -> ReadFileWithEncoding.decodeMappedParallel(cs, path, 1_024, 1, new StringWriter()));
+        } finally {
+            Files.delete(path);
+        }
+    }
+}
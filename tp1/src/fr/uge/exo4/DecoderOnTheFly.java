@@ -1,15 +1,19 @@
 package fr.uge.exo4;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CoderResult;
 import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
 
 import static java.nio.file.StandardOpenOption.READ;
 
@@ -27,11 +31,14 @@ public class DecoderOnTheFly {
     }
 
     public DecoderOnTheFly(Charset charset, int inputBufferCapacity) {
-        if (inputBufferCapacity < Math.ceil(charset.newEncoder().maxBytesPerChar())) {
+        // maxBytesPerChar is per UTF-16 char: 3 for UTF-8, whose supplementary characters take 4 bytes
+        var minCapacity = charset.equals(StandardCharsets.UTF_8) ? 4 : Math.ceil(charset.newEncoder().maxBytesPerChar());
+        if (inputBufferCapacity < minCapacity) {
             throw new IllegalArgumentException(
                     "The input buffer must be able to contain at least largest encoded character for this charset");
         }
-        this.charsetDecoder = charset.newDecoder();
+        this.charsetDecoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
         this.inputBufferCapacity = inputBufferCapacity;
         // largest size needed for the output buffer, for this we need maxCharsPerByte
         this.outputBufferCapacity = (int) Math.ceil(inputBufferCapacity * charsetDecoder.maxCharsPerByte());
@@ -40,23 +47,86 @@ public class DecoderOnTheFly {
     }
 
     public String stringFromFile(Path path) throws IOException {
-    	var string = new StringBuilder();
-    	FileChannel fc = FileChannel.open(path, StandardOpenOption.READ);
-    	while(fc.read(byteBuffer)!=-1) {
-    		if(!byteBuffer.hasRemaining()) {
-    			byteBuffer.flip();
-    			charBuffer.append(charsetDecoder.onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE).decode(byteBuffer));
-    			charBuffer.flip();
-    			string.append(charBuffer).append("\n");
-       			byteBuffer.clear();
-       			charBuffer.clear();
-    		}
-    		
-    	}
-    	byteBuffer.flip();
-    	charBuffer.append(charsetDecoder.onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE).decode(byteBuffer));
-    	charBuffer.flip();
-        return string.toString()+"\n"+charBuffer.toString();
+        var string = new StringBuilder();
+        decode(path, string);
+        return string.toString();
+    }
+
+    /**
+     * Decodes the file to out, through the input and output buffers only: the
+     * memory used does not depend on the size of the file
+     *
+     * @param path
+     * @param out
+     * @throws IOException
+     */
+    public void decode(Path path, Appendable out) throws IOException {
+        try (var fc = FileChannel.open(path, READ)) {
+            decode(fc, out);
+        }
+    }
+
+    /**
+     * Decodes the bytes of in until its end to out. A character whose bytes are
+     * split between two reads is kept at the beginning of the input buffer and
+     * completed by the next read, the decoder keeping its state between the calls
+     * to {@link CharsetDecoder#decode(ByteBuffer, CharBuffer, boolean)}.
+     * Malformed input and unmappable characters are replaced.
+     * Throws IllegalStateException if a character does not fit in the input
+     * buffer.
+     *
+     * @param in
+     * @param out
+     * @throws IOException
+     */
+    public void decode(ReadableByteChannel in, Appendable out) throws IOException {
+        charsetDecoder.reset();
+        byteBuffer.clear();
+        charBuffer.clear();
+        var endOfInput = false;
+        while (!endOfInput) {
+            endOfInput = in.read(byteBuffer) == -1;
+            byteBuffer.flip();
+            for (;;) {
+                var result = charsetDecoder.decode(byteBuffer, charBuffer, endOfInput);
+                if (result.isError()) {
+                    result.throwException(); // not with REPLACE, kept if the actions change
+                }
+                writeChars(out);
+                if (result.isUnderflow()) {
+                    break;
+                }
+            }
+            byteBuffer.compact(); // the beginning of a split character, if any
+            if (!endOfInput && !byteBuffer.hasRemaining()) {
+                // the next read would return 0 forever
+                throw new IllegalStateException("input buffer of " + inputBufferCapacity
+                        + " bytes too small for a character of " + charsetDecoder.charset());
+            }
+        }
+        while (charsetDecoder.flush(charBuffer) == CoderResult.OVERFLOW) {
+            writeChars(out);
+        }
+        writeChars(out);
+    }
+
+    /**
+     * Moves the decoded characters to out, without building a String for the
+     * usual Appendables
+     */
+    private void writeChars(Appendable out) throws IOException {
+        charBuffer.flip();
+        if (charBuffer.hasRemaining()) {
+            var offset = charBuffer.arrayOffset() + charBuffer.position();
+            if (out instanceof Writer writer) {
+                writer.write(charBuffer.array(), offset, charBuffer.remaining());
+            } else if (out instanceof StringBuilder builder) {
+                builder.append(charBuffer.array(), offset, charBuffer.remaining());
+            } else {
+                out.append(charBuffer);
+            }
+        }
+        charBuffer.clear();
     }
 
     public static void main(String[] args) throws IOException {
@@ -69,6 +139,8 @@ public class DecoderOnTheFly {
         var decoderOnTheFly = new DecoderOnTheFly(charset, inputBufferCapacity);
 
         var path = Path.of(args[1]);
-        System.out.println(decoderOnTheFly.stringFromFile(path));
+        var out = new BufferedWriter(new OutputStreamWriter(System.out, Charset.defaultCharset()));
+        decoderOnTheFly.decode(path, out);
+        out.flush();
     }
 }
\ No newline at end of file
@@ -3,7 +3,6 @@ package fr.uge.exo1;
 import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.logging.Level;
@@ -12,8 +11,8 @@ import java.util.logging.Logger;
 public class IterativeLongSumServer {
 
     private static final Logger logger = Logger.getLogger(IterativeLongSumServer.class.getName());
-    private static final int BUFFER_SIZE = 1024;
     private final ServerSocketChannel serverSocketChannel;
+    private final BulkLongSum bulkLongSum = new BulkLongSum();
 
     public IterativeLongSumServer(int port) throws IOException {
         serverSocketChannel = ServerSocketChannel.open();
@@ -49,32 +48,15 @@ public class IterativeLongSumServer {
      * @throws IOException
      */
     private void serve(SocketChannel sc) throws IOException {
-
-        // TODO
-    	while(true) {
-    		ByteBuffer buffInt = ByteBuffer.allocate(Integer.BYTES);
-    		if(!readFully(sc, buffInt)) {
-    			logger.info("Channel Closed");
-    			return;
-    		}
-    		
-    		var size = buffInt.flip().getInt();
-    		long sum =0;
-    		ByteBuffer buffLong = ByteBuffer.allocate(Long.BYTES);
-    		while(size!=0) {
-    			buffLong.clear();
-    			if(!readFully(sc, buffLong)) {
-    				logger.info("Channel Closed");
-    				return;
-    			}
-    			sum += buffLong.flip().getLong();
-    			size--;
-    		}
-    		buffLong.clear();
-    		buffLong.putLong(sum);
-    		sc.write(buffLong.flip());
-    	}
-
+        bulkLongSum.reset();
+        for (;;) {
+            var sum = bulkLongSum.readSum(sc);
+            if (sum.isEmpty()) {
+                logger.info("Channel Closed");
+                return;
+            }
+            bulkLongSum.writeSum(sc, sum.getAsLong());
+        }
     }
 
     /**
@@ -93,16 +75,6 @@ public class IterativeLongSumServer {
         }
     }
 
-    static boolean readFully(SocketChannel sc, ByteBuffer buffer) throws IOException {
-        while (buffer.hasRemaining()) {
-            if (sc.read(buffer) == -1) {
-                logger.info("Input stream closed");
-                return false;
-            }
-        }
-        return true;
-    }
-
     public static void main(String[] args) throws NumberFormatException, IOException {
         var server = new IterativeLongSumServer(Integer.parseInt(args[0]));
         server.launch();
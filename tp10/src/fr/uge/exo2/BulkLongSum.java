@@ -0,0 +1,122 @@
+package fr.uge.exo2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.OptionalLong;
+
+/**
+ * Serves the LongSum requests of a connection in bulk: the operands are read
+ * into one large buffer reused for every request (and every connection of a
+ * worker) and summed through a LongBuffer view, instead of one 8-byte read per
+ * long.
+ *
+ * Bytes read ahead (operands split across reads, or the beginning of the next
+ * request of a pipelining client) stay in the buffer for the next call, so an
+ * instance must be reset between two connections.
+ */
+final class BulkLongSum {
+	private static final int BUFFER_SIZE = 64 * 1_024;
+
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).limit(0); // read-mode
+	private final ByteBuffer reply = ByteBuffer.allocateDirect(Long.BYTES);
+	private final Runnable onRead;
+
+	/**
+	 * @param onRead called after every successful read, e.g. to tick an idle timer
+	 */
+	BulkLongSum(Runnable onRead) {
+		this.onRead = onRead;
+	}
+
+	BulkLongSum() {
+		this(() -> {});
+	}
+
+	/**
+	 * Forgets the bytes read ahead on the previous connection
+	 */
+	void reset() {
+		buffer.clear().limit(0);
+	}
+
+	/**
+	 * Reads one request on sc and sums its operands
+	 *
+	 * @param sc
+	 * @return the sum, or empty if the connection was closed before the end of the
+	 *         request or the request is malformed
+	 * @throws IOException
+	 */
+	OptionalLong readSum(SocketChannel sc) throws IOException {
+		if (!fill(sc, Integer.BYTES)) {
+			return OptionalLong.empty();
+		}
+		var size = buffer.getInt();
+		if (size < 0) {
+			return OptionalLong.empty();
+		}
+		var sum = 0L;
+		while (size > 0) {
+			if (!fill(sc, Long.BYTES)) {
+				return OptionalLong.empty();
+			}
+			var count = Math.min(size, buffer.remaining() / Long.BYTES);
+			sum += sum(count);
+			size -= count;
+		}
+		return OptionalLong.of(sum);
+	}
+
+	/**
+	 * Sums the next count longs of buffer through a LongBuffer view, the JIT can
+	 * unroll and vectorize this loop
+	 */
+	private long sum(int count) {
+		var longs = buffer.asLongBuffer();
+		var sum = 0L;
+		for (var i = 0; i < count; i++) {
+			sum += longs.get(i);
+		}
+		buffer.position(buffer.position() + count * Long.BYTES);
+		return sum;
+	}
+
+	/**
+	 * Reads on sc until buffer holds at least min bytes, as many as possible in one
+	 * read
+	 *
+	 * @return false if the connection was closed before
+	 */
+	private boolean fill(SocketChannel sc, int min) throws IOException {
+		if (buffer.remaining() >= min) {
+			return true;
+		}
+		buffer.compact();
+		try {
+			while (buffer.position() < min) {
+				if (sc.read(buffer) == -1) {
+					return false;
+				}
+				onRead.run();
+			}
+			return true;
+		} finally {
+			buffer.flip();
+		}
+	}
+
+	/**
+	 * Writes the reply to a request
+	 *
+	 * @param sc
+	 * @param sum
+	 * @throws IOException
+	 */
+	void writeSum(SocketChannel sc, long sum) throws IOException {
+		reply.clear().putLong(sum).flip();
+		while (reply.hasRemaining()) {
+			sc.write(reply);
+		}
+	}
+}
@@ -3,7 +3,6 @@ package fr.uge.exo2;
 import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.logging.Level;
@@ -12,7 +11,6 @@ import java.util.logging.Logger;
 public class OnDemandConcurrentLongSumServer {
 
     private static final Logger logger = Logger.getLogger(OnDemandConcurrentLongSumServer.class.getName());
-    private static final int BUFFER_SIZE = 1024;
     private final ServerSocketChannel serverSocketChannel;
 
     public OnDemandConcurrentLongSumServer(int port) throws IOException {
@@ -52,32 +50,15 @@ public class OnDemandConcurrentLongSumServer {
      * @throws IOException
      */
     private void serve(SocketChannel sc) throws IOException {
-
-        // TODO
-    	while(true) {
-    		ByteBuffer buffInt = ByteBuffer.allocate(Integer.BYTES);
-    		if(!readFully(sc, buffInt)) {
-    			logger.info("Channel Closed");
-    			return;
-    		}
-    		
-    		var size = buffInt.flip().getInt();
-    		long sum =0;
-    		ByteBuffer buffLong = ByteBuffer.allocate(Long.BYTES);
-    		while(size!=0) {
-    			buffLong.clear();
-    			if(!readFully(sc, buffLong)) {
-    				logger.info("Channel Closed");
-    				return;
-    			}
-    			sum += buffLong.flip().getLong();
-    			size--;
-    		}
-    		buffLong.clear();
-    		buffLong.putLong(sum);
-    		sc.write(buffLong.flip());
-    	}
-
+        var bulkLongSum = new BulkLongSum();
+        for (;;) {
+            var sum = bulkLongSum.readSum(sc);
+            if (sum.isEmpty()) {
+                logger.info("Channel Closed");
+                return;
+            }
+            bulkLongSum.writeSum(sc, sum.getAsLong());
+        }
     }
 
     /**
@@ -96,16 +77,6 @@ public class OnDemandConcurrentLongSumServer {
         }
     }
 
-    static boolean readFully(SocketChannel sc, ByteBuffer buffer) throws IOException {
-        while (buffer.hasRemaining()) {
-            if (sc.read(buffer) == -1) {
-                logger.info("Input stream closed");
-                return false;
-            }
-        }
-        return true;
-    }
-
     public static void main(String[] args) throws NumberFormatException, IOException {
         var server = new OnDemandConcurrentLongSumServer(Integer.parseInt(args[0]));
         server.launch();
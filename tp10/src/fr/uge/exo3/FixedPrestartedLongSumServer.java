@@ -3,7 +3,6 @@ package fr.uge.exo3;
 import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.Arrays;
@@ -14,7 +13,6 @@ import java.util.logging.Logger;
 public class FixedPrestartedLongSumServer {
 
 	private static final Logger logger = Logger.getLogger(FixedPrestartedLongSumServer.class.getName());
-	private static final int BUFFER_SIZE = 1024;
 	private final ServerSocketChannel serverSocketChannel;
 	private final Thread[] threads;
 	private final int nbPermits;
@@ -28,12 +26,13 @@ public class FixedPrestartedLongSumServer {
 	}
 
 	private void worker(){
+		var bulkLongSum = new BulkLongSum(); // reused for every client of this worker
 		try {
 			for(;;) {
 				SocketChannel client = serverSocketChannel.accept();
 				try {
 					logger.info("Connection accepted from " + client.getRemoteAddress());
-					serve(client);
+					serve(client, bulkLongSum);
 				} catch (IOException ioe) {
 					//
 				} finally {
@@ -66,33 +65,16 @@ public class FixedPrestartedLongSumServer {
 	 * @param sc
 	 * @throws IOException
 	 */
-	private void serve(SocketChannel sc) throws IOException {
-
-		// TODO
-		while(true) {
-			ByteBuffer buffInt = ByteBuffer.allocate(Integer.BYTES);
-			if(!readFully(sc, buffInt)) {
+	private void serve(SocketChannel sc, BulkLongSum bulkLongSum) throws IOException {
+		bulkLongSum.reset();
+		for (;;) {
+			var sum = bulkLongSum.readSum(sc);
+			if (sum.isEmpty()) {
 				logger.info("Channel Closed");
 				return;
 			}
-
-			var size = buffInt.flip().getInt();
-			long sum =0;
-			ByteBuffer buffLong = ByteBuffer.allocate(Long.BYTES);
-			while(size!=0) {
-				buffLong.clear();
-				if(!readFully(sc, buffLong)) {
-					logger.info("Channel Closed");
-					return;
-				}
-				sum += buffLong.flip().getLong();
-				size--;
-			}
-			buffLong.clear();
-			buffLong.putLong(sum);
-			sc.write(buffLong.flip());
+			bulkLongSum.writeSum(sc, sum.getAsLong());
 		}
-
 	}
 
 	/**
@@ -111,16 +93,6 @@ public class FixedPrestartedLongSumServer {
 		}
 	}
 
-	static boolean readFully(SocketChannel sc, ByteBuffer buffer) throws IOException {
-		while (buffer.hasRemaining()) {
-			if (sc.read(buffer) == -1) {
-				logger.info("Input stream closed");
-				return false;
-			}
-		}
-		return true;
-	}
-
 	public static void main(String[] args) throws NumberFormatException, IOException {
 		var server = new FixedPrestartedLongSumServer(Integer.parseInt(args[0]),Integer.parseInt(args[1]));
 		server.launch();
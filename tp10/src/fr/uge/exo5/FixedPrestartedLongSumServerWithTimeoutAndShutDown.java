@@ -3,23 +3,23 @@ package fr.uge.exo5;
 import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.Scanner;
-import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class FixedPrestartedLongSumServerWithTimeoutAndShutDown {
 
 	private static final Logger logger = Logger.getLogger(FixedPrestartedLongSumServerWithTimeoutAndShutDown.class.getName());
-	private static final int BUFFER_SIZE = 1024;
+	private static final int WHEEL_TICKS_PER_TIMEOUT = 8;
+	private static final int WHEEL_SIZE = 512;
 	private final ServerSocketChannel serverSocketChannel;
 	private final Thread[] threads;
 	private final int nbPermits;
 	private final ThreadData[] threadDatas;
 	private final long TIMEOUT;
+	private final TimingWheel<SocketChannel> wheel;
 	private int connected;
 
 	public FixedPrestartedLongSumServerWithTimeoutAndShutDown(int port, int nbPermit,int timeout) throws IOException {
@@ -30,53 +30,38 @@ public class FixedPrestartedLongSumServerWithTimeoutAndShutDown {
 		threads = new Thread[nbPermit];
 		threadDatas = new ThreadData[nbPermits];
 		TIMEOUT = timeout;
+		wheel = new TimingWheel<>(Math.max(1, TIMEOUT / WHEEL_TICKS_PER_TIMEOUT), WHEEL_SIZE, this::silentlyClose,
+				System.currentTimeMillis());
 	}
 
+	/**
+	 * The client served by a worker and its idle timeout in the wheel. tick is
+	 * called on every read, it is lock-free and does not read the clock.
+	 */
 	class ThreadData{
-		private SocketChannel client;
-		private long lastRead;
-		private static long TIMEOUT;
-		private final ReentrantLock lock = new ReentrantLock();
-
-		ThreadData(long timeout){
-			TIMEOUT=timeout;
-		}
+		private volatile SocketChannel client;
+		private volatile TimingWheel<SocketChannel>.Timeout timeout;
 
 		void setSocketChannel(SocketChannel newClient){
 			this.client = newClient;
+			this.timeout = wheel.schedule(newClient, TIMEOUT);
 		}
 
 		void tick() {
-			lock.lock();
-			try {
-				lastRead = System.currentTimeMillis();
-			}finally {
-				lock.unlock();
-			}
-		}
-
-		void closeIfInactive() {
-			lock.lock();
-			try {
-				if(System.currentTimeMillis()-lastRead >= TIMEOUT){
-					silentlyClose(client);
-				}
-			}finally {
-				lock.unlock();
-			}
+			timeout.touch();
 		}
 
 		void close() {
-			lock.lock();
-			try {
-				silentlyClose(client);
-			}finally {
-				lock.unlock();
+			var current = timeout;
+			if (current != null) {
+				current.cancel();
 			}
-		}	
+			silentlyClose(client);
+		}
 	}
 
 	private void worker(int current){
+		var bulkLongSum = new BulkLongSum(threadDatas[current]::tick); // reused for every client of this worker
 		try {
 			for(;;) {
 				SocketChannel client = serverSocketChannel.accept();
@@ -85,7 +70,7 @@ public class FixedPrestartedLongSumServerWithTimeoutAndShutDown {
 				connected++;
 				try {
 					logger.info("Connection accepted from " + client.getRemoteAddress());
-					serve(client,current);
+					serve(client, current, bulkLongSum);
 				} catch (IOException ioe) {
 					logger.log(Level.INFO, "Connection terminated with client by IOException", ioe.getCause());
 				} finally {
@@ -145,14 +130,17 @@ public class FixedPrestartedLongSumServerWithTimeoutAndShutDown {
 		logger.info("Server started");
 		for(var i=0; i < nbPermits; i++) {
 			var current=i;
-			threadDatas[current] = new ThreadData(TIMEOUT);
+			threadDatas[current] = new ThreadData();
 			threads[current] = Thread.ofPlatform().start(()-> worker(current));
 		}
-		Thread.ofPlatform().name("supervisor").start(()->{
-			for(;;) {
-				for(var i=0; i < nbPermits;i++) {
-					threadDatas[i].closeIfInactive();
+		Thread.ofPlatform().name("supervisor").daemon().start(()->{
+			try {
+				for(;;) {
+					Thread.sleep(wheel.tickMillis());
+					wheel.advance(System.currentTimeMillis());
 				}
+			} catch (InterruptedException e) {
+				// stopped
 			}
 		});
 		Thread.ofPlatform().name("console").start(()->{
@@ -170,35 +158,18 @@ public class FixedPrestartedLongSumServerWithTimeoutAndShutDown {
 	 * @param sc
 	 * @throws IOException
 	 */
-	private void serve(SocketChannel sc,int current) throws IOException {
-
-		// TODO
-		while(true) {
-			ByteBuffer buffInt = ByteBuffer.allocate(Integer.BYTES);
+	private void serve(SocketChannel sc, int current, BulkLongSum bulkLongSum) throws IOException {
+		bulkLongSum.reset();
+		for (;;) {
 			threadDatas[current].tick();
-			if(!readFully(sc, buffInt)) {
+			var sum = bulkLongSum.readSum(sc);
+			if (sum.isEmpty()) {
 				logger.info("Channel Closed");
 				return;
 			}
-			var size = buffInt.flip().getInt();
-			long sum =0;
-			ByteBuffer buffLong = ByteBuffer.allocate(Long.BYTES);
-			threadDatas[current].tick();
-			while(size!=0) {
-				buffLong.clear();
-				if(!readFully(sc, buffLong)) {
-					logger.info("Channel Closed");
-					return;
-				}
-				sum += buffLong.flip().getLong();
-				size--;
-			}
-			buffLong.clear();
-			buffLong.putLong(sum);
 			threadDatas[current].tick();
-			sc.write(buffLong.flip());
+			bulkLongSum.writeSum(sc, sum.getAsLong());
 		}
-
 	}
 
 	/**
@@ -217,16 +188,6 @@ public class FixedPrestartedLongSumServerWithTimeoutAndShutDown {
 		}
 	}
 
-	static boolean readFully(SocketChannel sc, ByteBuffer buffer) throws IOException {
-		while (buffer.hasRemaining()) {
-			if (sc.read(buffer) == -1) {
-				logger.info("Input stream closed");
-				return false;
-			}
-		}
-		return true;
-	}
-
 	public static void main(String[] args) throws NumberFormatException, IOException {
 		var server = new FixedPrestartedLongSumServerWithTimeoutAndShutDown(Integer.parseInt(args[0]),Integer.parseInt(args[1]),Integer.parseInt(args[2]));
 		server.launch();
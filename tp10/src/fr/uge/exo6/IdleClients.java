@@ -0,0 +1,68 @@
+package fr.uge.exo6;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.logging.Logger;
+
+/**
+ * Load client for the LongSum servers: opens nbClients connections, keeps them
+ * idle for idleSeconds, then checks that every connection still gets an answer
+ * to a request.
+ *
+ * Run it against the different servers with the same nbClients to compare
+ * them, watching the threads and the memory of the server (e.g. with jcmd or
+ * /proc/pid/status). Each client needs a file descriptor on both sides.
+ */
+public class IdleClients {
+	private static final Logger logger = Logger.getLogger(IdleClients.class.getName());
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length != 4) {
+			System.out.println("usage: java fr.uge.exo6.IdleClients host port nbClients idleSeconds");
+			return;
+		}
+		var server = new InetSocketAddress(args[0], Integer.parseInt(args[1]));
+		var nbClients = Integer.parseInt(args[2]);
+		var idleSeconds = Integer.parseInt(args[3]);
+
+		var clients = new ArrayList<SocketChannel>(nbClients);
+		var start = System.nanoTime();
+		try {
+			for (var i = 0; i < nbClients; i++) {
+				clients.add(SocketChannel.open(server));
+			}
+			logger.info(nbClients + " clients connected in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+			Thread.sleep(idleSeconds * 1_000L);
+
+			var request = ByteBuffer.allocate(Integer.BYTES + 2 * Long.BYTES);
+			var answer = ByteBuffer.allocate(Long.BYTES);
+			var alive = 0;
+			start = System.nanoTime();
+			for (var i = 0; i < nbClients; i++) {
+				var sc = clients.get(i);
+				request.clear().putInt(2).putLong(i).putLong(1).flip();
+				answer.clear();
+				try {
+					sc.write(request);
+					while (answer.hasRemaining() && sc.read(answer) != -1) {
+						// wait for the answer
+					}
+					if (!answer.hasRemaining() && answer.flip().getLong() == i + 1) {
+						alive++;
+					}
+				} catch (IOException e) {
+					// closed by the server
+				}
+			}
+			logger.info(alive + "/" + nbClients + " clients answered after " + idleSeconds + " s idle, in "
+					+ (System.nanoTime() - start) / 1_000_000 + " ms");
+		} finally {
+			for (var sc : clients) {
+				sc.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,220 @@
+package fr.uge.exo6;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * LongSum server with one virtual thread per connection.
+ *
+ * The code of serve is the same blocking code as with platform threads, a
+ * virtual thread blocked in a read only costs its stack on the heap, so the
+ * number of concurrent sessions is only bounded by nbSessions (and by the
+ * number of file descriptors). Inactive clients are closed after timeout
+ * milliseconds and the console accepts INFO, SHUTDOWN and SHUTDOWNNOW as in
+ * FixedPrestartedLongSumServerWithTimeoutAndShutDown.
+ */
+public class VirtualThreadLongSumServer {
+
+	private static final Logger logger = Logger.getLogger(VirtualThreadLongSumServer.class.getName());
+	private static final int BUFFER_SIZE = 1024; // per session, there may be 100k of them
+	private static final int WHEEL_TICKS_PER_TIMEOUT = 8;
+	private static final int WHEEL_SIZE = 512;
+	private final ServerSocketChannel serverSocketChannel;
+	private final Semaphore semaphore;
+	private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+	private final long timeout;
+	private final TimingWheel<SocketChannel> wheel;
+	private volatile boolean shutdownNow;
+
+	public VirtualThreadLongSumServer(int port, int nbSessions, int timeout) throws IOException {
+		if (nbSessions <= 0 || timeout <= 0) {
+			throw new IllegalArgumentException();
+		}
+		serverSocketChannel = ServerSocketChannel.open();
+		serverSocketChannel.bind(new InetSocketAddress(port), nbSessions);
+		logger.info(this.getClass().getName() + " starts on port " + port);
+		semaphore = new Semaphore(nbSessions);
+		this.timeout = timeout;
+		wheel = new TimingWheel<>(Math.max(1, timeout / WHEEL_TICKS_PER_TIMEOUT), WHEEL_SIZE, this::silentlyClose,
+				System.currentTimeMillis());
+	}
+
+	/**
+	 * A connected client and its idle timeout in the wheel. tick is called by the
+	 * virtual thread of the session on every read, it is lock-free and does not
+	 * read the clock.
+	 */
+	private class Session {
+		private final SocketChannel client;
+		private final TimingWheel<SocketChannel>.Timeout idleTimeout;
+
+		Session(SocketChannel client) {
+			this.client = client;
+			this.idleTimeout = wheel.schedule(client, timeout);
+		}
+
+		void tick() {
+			idleTimeout.touch();
+		}
+
+		void close() {
+			idleTimeout.cancel();
+			silentlyClose(client);
+		}
+	}
+
+	/**
+	 * Registers the session of a client just accepted, before it is given to a
+	 * virtual thread. SHUTDOWNNOW sets shutdownNow before closing the registered
+	 * sessions, so a session registered too late to be seen by the console sees
+	 * the flag and is closed here.
+	 *
+	 * @param client
+	 * @return the session
+	 */
+	private Session register(SocketChannel client) {
+		var session = new Session(client);
+		sessions.add(session);
+		if (shutdownNow) {
+			session.close();
+		}
+		return session;
+	}
+
+	private void session(Session session) {
+		var client = session.client;
+		try {
+			logger.info("Connection accepted from " + client.getRemoteAddress());
+			serve(client, new BulkLongSum(BUFFER_SIZE, session::tick));
+		} catch (IOException ioe) {
+			logger.log(Level.INFO, "Connection terminated with client by IOException", ioe.getCause());
+		} finally {
+			sessions.remove(session);
+			session.close();
+			semaphore.release();
+		}
+	}
+
+	/**
+	 * Advances the wheel every tick, which closes the inactive sessions without
+	 * looking at the others
+	 */
+	private void supervisor() {
+		try {
+			for (;;) {
+				Thread.sleep(wheel.tickMillis());
+				wheel.advance(System.currentTimeMillis());
+			}
+		} catch (InterruptedException e) {
+			// the server is stopped
+		}
+	}
+
+	private void console() {
+		try (Scanner scanner = new Scanner(System.in)) {
+			while (scanner.hasNextLine()) {
+				var line = scanner.nextLine();
+				switch (line) {
+				case "INFO" -> {
+					logger.info("Connected Clients : " + sessions.size());
+				}
+				case "SHUTDOWN" -> {
+					silentlyClose(serverSocketChannel);
+					logger.info("Refusing all new connexions");
+				}
+				case "SHUTDOWNNOW" -> {
+					shutdownNow = true;
+					silentlyClose(serverSocketChannel);
+					for (var session : sessions) {
+						session.close();
+					}
+					logger.info("Shuting down the server");
+				}
+				default -> {
+					logger.info("Wrong input");
+				}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Accepts the clients until the server socket is closed by SHUTDOWN or
+	 * SHUTDOWNNOW, then waits for the end of the running sessions
+	 *
+	 * @throws InterruptedException
+	 */
+	public void launch() throws InterruptedException {
+		logger.info("Server started");
+		var supervisor = Thread.ofVirtual().name("supervisor").start(this::supervisor);
+		Thread.ofPlatform().name("console").daemon().start(this::console);
+		try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (;;) {
+				semaphore.acquire();
+				SocketChannel client;
+				try {
+					client = serverSocketChannel.accept();
+				} catch (IOException e) {
+					logger.info("Server socket closed, waiting for " + sessions.size() + " sessions");
+					return;
+				}
+				var session = register(client);
+				executor.execute(() -> session(session));
+			}
+		} finally {
+			supervisor.interrupt();
+			logger.info("Server stopped");
+		}
+	}
+
+	/**
+	 * Treat the connection sc applying the protocol. All IOException are thrown
+	 *
+	 * @param sc
+	 * @throws IOException
+	 */
+	private void serve(SocketChannel sc, BulkLongSum bulkLongSum) throws IOException {
+		for (;;) {
+			var sum = bulkLongSum.readSum(sc);
+			if (sum.isEmpty()) {
+				logger.info("Channel Closed");
+				return;
+			}
+			bulkLongSum.writeSum(sc, sum.getAsLong());
+		}
+	}
+
+	/**
+	 * Close a SocketChannel while ignoring IOExecption
+	 *
+	 * @param sc
+	 */
+	private void silentlyClose(Closeable sc) {
+		if (sc != null) {
+			try {
+				sc.close();
+			} catch (IOException e) {
+				// Do nothing
+			}
+		}
+	}
+
+	public static void main(String[] args) throws NumberFormatException, IOException, InterruptedException {
+		if (args.length != 3) {
+			System.out.println("usage: java fr.uge.exo6.VirtualThreadLongSumServer port nbSessions timeout");
+			return;
+		}
+		var server = new VirtualThreadLongSumServer(Integer.parseInt(args[0]), Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+		server.launch();
+	}
+}
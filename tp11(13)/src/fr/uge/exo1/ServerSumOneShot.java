@@ -5,31 +5,62 @@ import java.io.UncheckedIOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.*;
+import java.util.Objects;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class ServerSumOneShot {
+	static private class Context {
+		private final SelectionKey key;
+		private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		private final Deadlines deadlines;
+
+		private Context(SelectionKey key, Deadlines deadlines) {
+			this.key = key;
+			this.deadlines = deadlines;
+		}
+	}
 
 	private static final int BUFFER_SIZE = 2 * Integer.BYTES;
+	private static final long TICK_MILLIS = 100;
+	private static final int WHEEL_SIZE = 512;
 	private static final Logger logger = Logger.getLogger(ServerSumOneShot.class.getName());
 
 	private final ServerSocketChannel serverSocketChannel;
 	private final Selector selector;
+	private volatile SelectorEventListener listener = SelectorEventListener.NONE;
+	private final Deadlines.Timeouts timeouts;
+	private final TimingWheel<Deadlines> wheel = new TimingWheel<>(TICK_MILLIS, WHEEL_SIZE, Deadlines::check,
+			System.currentTimeMillis());
 
 	public ServerSumOneShot(int port) throws IOException {
+		this(port, Deadlines.Timeouts.DEFAULT);
+	}
+
+	ServerSumOneShot(int port, Deadlines.Timeouts timeouts) throws IOException {
+		this.timeouts = Objects.requireNonNull(timeouts);
 		serverSocketChannel = ServerSocketChannel.open();
 		serverSocketChannel.bind(new InetSocketAddress(port));
 		selector = Selector.open();
 	}
 
+	/**
+	 * Replaces the listener of the selector loop, e.g. to turn the diagnostics on
+	 * at runtime
+	 *
+	 * @param listener
+	 */
+	public void setSelectorEventListener(SelectorEventListener listener) {
+		this.listener = Objects.requireNonNull(listener);
+	}
+
 	public void launch() throws IOException {
 		serverSocketChannel.configureBlocking(false);
 		serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
 		while (!Thread.interrupted()) {
-			Helpers.printKeys(selector); // for debug
-			System.out.println("Starting select");
+			listener.beforeSelect(selector);
 			try {	
-				selector.select(this::treatKey);
+				listener.afterSelect(selector, selector.select(this::treatKey, wheel.delayToNextExpiration(System.currentTimeMillis())));
 			}catch(AsynchronousCloseException e) {
 				logger.info("Closed channel");
 				return;
@@ -37,12 +68,12 @@ public class ServerSumOneShot {
 				logger.severe("IOException : " + e);
 				return;
 			}
-			System.out.println("Select finished");
+			wheel.advance(System.currentTimeMillis());
 		}
 	}
 
 	private void treatKey(SelectionKey key) {
-		Helpers.printSelectedKey(key); // for debug
+		listener.onSelectedKey(key);
 		try {
 			if (key.isValid() && key.isAcceptable()) {
 
@@ -78,15 +109,22 @@ public class ServerSumOneShot {
 		}
 		sc.configureBlocking(false);
 		var sKey = sc.register(selector, SelectionKey.OP_READ);
-		sKey.attach(ByteBuffer.allocate(BUFFER_SIZE));
-
+		var deadlines = new Deadlines(wheel, timeouts, expired -> {
+			logger.info("Connection closed with client due to " + expired + " timeout");
+			silentlyClose(sKey);
+		}, System.currentTimeMillis());
+		sKey.attach(new Context(sKey, deadlines));
 	}
 
 	private void doRead(SelectionKey key) throws IOException {
 		// TODO
-		var buffer = (ByteBuffer) key.attachment();
+		var context = (Context) key.attachment();
+		var buffer = context.buffer;
 		var client = (SocketChannel) key.channel();
-		if(client.read(buffer)==-1) {
+		var count = client.read(buffer);
+		var now = System.currentTimeMillis();
+		context.deadlines.onRead(now, count, buffer.position() != 0 && buffer.hasRemaining());
+		if(count==-1) {
 			logger.info("closed channel");
 			silentlyClose(key);
 			return;
@@ -100,15 +138,18 @@ public class ServerSumOneShot {
 		var sum = buffer.getInt()+buffer.getInt();
 		buffer.clear();
 		buffer.putInt(sum);
+		context.deadlines.onQueued(now);
 		key.interestOps(SelectionKey.OP_WRITE);
 	}
 
 	private void doWrite(SelectionKey key) throws IOException {
 		// TODO
-		var buffer = (ByteBuffer) key.attachment();
+		var context = (Context) key.attachment();
+		var buffer = context.buffer;
 		var client = (SocketChannel) key.channel();
 		buffer.flip();
-		client.write(buffer);
+		var written = client.write(buffer);
+		context.deadlines.onWrite(System.currentTimeMillis(), written, buffer.hasRemaining());
 		if(buffer.hasRemaining()) {
 			logger.info("Not all sended");
 			return;
@@ -119,6 +160,9 @@ public class ServerSumOneShot {
 	}
 
 	private void silentlyClose(SelectionKey key) {
+		if (key.attachment() instanceof Context context) {
+			context.deadlines.cancel();
+		}
 		var sc = (Channel) key.channel();
 		try {
 			sc.close();
@@ -128,14 +172,17 @@ public class ServerSumOneShot {
 	}
 
 	public static void main(String[] args) throws NumberFormatException, IOException {
-		if (args.length != 1) {
+		if (args.length != 1 && args.length != 4) {
 			usage();
 			return;
 		}
-		new ServerSumOneShot(Integer.parseInt(args[0])).launch();
+		var timeouts = args.length == 4
+				? new Deadlines.Timeouts(Long.parseLong(args[1]), Long.parseLong(args[2]), Long.parseLong(args[3]))
+				: Deadlines.Timeouts.DEFAULT;
+		new ServerSumOneShot(Integer.parseInt(args[0]), timeouts).launch();
 	}
 
 	private static void usage() {
-		System.out.println("Usage : ServerSumOneShot port");
+		System.out.println("Usage : ServerSumOneShot port [idleMillis readMillis writeMillis]");
 	}
 }
\ No newline at end of file
@@ -5,6 +5,7 @@ import java.io.UncheckedIOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.*;
+import java.util.Objects;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -13,11 +14,13 @@ public class ServerEcho {
 		private final SelectionKey key;
 		private final SocketChannel sc;
 		private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		private final Deadlines deadlines;
 		private boolean closed = false;
 
-		private Context(SelectionKey key) {
+		private Context(SelectionKey key, Deadlines deadlines) {
 			this.key = key;
 			this.sc = (SocketChannel) key.channel();
+			this.deadlines = deadlines;
 		}
 
 		/**
@@ -52,12 +55,18 @@ public class ServerEcho {
 		 */
 		private void doRead() throws IOException {
 			// TODO
-			if(sc.read(buffer)==-1) {
+			var count = sc.read(buffer);
+			var now = System.currentTimeMillis();
+			deadlines.onRead(now, count, false);
+			if(count==-1) {
 				logger.info("not all received");
 				closed=true;
 				updateInterestOps();
 				return;
 			}
+			if(buffer.position()!=0) {
+				deadlines.onQueued(now);
+			}
 			updateInterestOps();
 		}
 
@@ -72,12 +81,14 @@ public class ServerEcho {
 		private void doWrite() throws IOException {
 			// TODO
 			buffer.flip();
-			sc.write(buffer);
+			var written = sc.write(buffer);
 			buffer.compact();
+			deadlines.onWrite(System.currentTimeMillis(), written, buffer.position()!=0);
 			updateInterestOps();
 		}
 
 		private void silentlyClose() {
+			deadlines.cancel();
 			try {
 				sc.close();
 			} catch (IOException e) {
@@ -87,34 +98,54 @@ public class ServerEcho {
 	}
 
 	private static final int BUFFER_SIZE = 1_024;
+	private static final long TICK_MILLIS = 100;
+	private static final int WHEEL_SIZE = 512;
 	private static final Logger logger = Logger.getLogger(ServerEcho.class.getName());
 
 	private final ServerSocketChannel serverSocketChannel;
 	private final Selector selector;
+	private volatile SelectorEventListener listener = SelectorEventListener.NONE;
+	private final Deadlines.Timeouts timeouts;
+	private final TimingWheel<Deadlines> wheel = new TimingWheel<>(TICK_MILLIS, WHEEL_SIZE, Deadlines::check,
+			System.currentTimeMillis());
 
 	public ServerEcho(int port) throws IOException {
+		this(port, Deadlines.Timeouts.DEFAULT);
+	}
+
+	ServerEcho(int port, Deadlines.Timeouts timeouts) throws IOException {
+		this.timeouts = Objects.requireNonNull(timeouts);
 		serverSocketChannel = ServerSocketChannel.open();
 		serverSocketChannel.bind(new InetSocketAddress(port));
 		selector = Selector.open();
 	}
 
+	/**
+	 * Replaces the listener of the selector loop, e.g. to turn the diagnostics on
+	 * at runtime
+	 *
+	 * @param listener
+	 */
+	public void setSelectorEventListener(SelectorEventListener listener) {
+		this.listener = Objects.requireNonNull(listener);
+	}
+
 	public void launch() throws IOException {
 		serverSocketChannel.configureBlocking(false);
 		serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
 		while (!Thread.interrupted()) {
-			Helpers.printKeys(selector); // for debug
-			System.out.println("Starting select");
+			listener.beforeSelect(selector);
 			try {
-				selector.select(this::treatKey);
+				listener.afterSelect(selector, selector.select(this::treatKey, wheel.delayToNextExpiration(System.currentTimeMillis())));
 			} catch (UncheckedIOException tunneled) {
 				throw tunneled.getCause();
 			}
-			System.out.println("Select finished");
+			wheel.advance(System.currentTimeMillis());
 		}
 	}
 
 	private void treatKey(SelectionKey key) {
-		Helpers.printSelectedKey(key); // for debug
+		listener.onSelectedKey(key);
 		try {
 			if (key.isValid() && key.isAcceptable()) {
 				doAccept(key);
@@ -146,10 +177,17 @@ public class ServerEcho {
 		}
 		sc.configureBlocking(false);
 		var sKey = sc.register(selector, SelectionKey.OP_READ | SelectionKey.OP_WRITE);
-		sKey.attach(new Context(sKey));
+		var deadlines = new Deadlines(wheel, timeouts, expired -> {
+			logger.info("Connection closed with client due to " + expired + " timeout");
+			silentlyClose(sKey);
+		}, System.currentTimeMillis());
+		sKey.attach(new Context(sKey, deadlines));
 	}
 
 	private void silentlyClose(SelectionKey key) {
+		if (key.attachment() instanceof Context context) {
+			context.deadlines.cancel();
+		}
 		var sc = (Channel) key.channel();
 		try {
 			sc.close();
@@ -159,14 +197,17 @@ public class ServerEcho {
 	}
 
 	public static void main(String[] args) throws NumberFormatException, IOException {
-		if (args.length != 1) {
+		if (args.length != 1 && args.length != 4) {
 			usage();
 			return;
 		}
-		new ServerEcho(Integer.parseInt(args[0])).launch();
+		var timeouts = args.length == 4
+				? new Deadlines.Timeouts(Long.parseLong(args[1]), Long.parseLong(args[2]), Long.parseLong(args[3]))
+				: Deadlines.Timeouts.DEFAULT;
+		new ServerEcho(Integer.parseInt(args[0]), timeouts).launch();
 	}
 
 	private static void usage() {
-		System.out.println("Usage : ServerEcho port");
+		System.out.println("Usage : ServerEcho port [idleMillis readMillis writeMillis]");
 	}
 }
\ No newline at end of file
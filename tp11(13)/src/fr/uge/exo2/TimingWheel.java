@@ -0,0 +1,250 @@
+package fr.uge.exo2;
+
+import java.util.ArrayList;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Hashed timing wheel for idle timeouts.
+ *
+ * Time is cut in ticks of tickMillis and each tick maps to one of wheelSize
+ * buckets, a bucket being a doubly linked list of timeouts. Scheduling and
+ * cancelling a timeout are O(1) and {@link #advance(long)} only looks at the
+ * buckets of the elapsed ticks, never at all the timeouts.
+ *
+ * {@link Timeout#touch()} is lock-free: it only writes the current tick of the
+ * wheel in a volatile field, without calling the clock. The timeout is moved to
+ * its new bucket lazily, when its old bucket is reached by advance. A timeout
+ * expires between timeoutMillis and timeoutMillis + 2 * tickMillis after its
+ * last touch.
+ *
+ * advance is either called periodically by a supervisor thread (blocking
+ * servers) or by the selector loop with {@link #delayToNextExpiration(long)} as
+ * select timeout (non-blocking servers). The expired items are given to
+ * onExpire by the thread calling advance, outside of the lock.
+ *
+ * @param <T> the type of the items, typically a channel or a context
+ */
+final class TimingWheel<T> {
+	private final long tickMillis;
+	private final Timeout[] buckets; // sentinel of each bucket list
+	private final int mask;
+	private final long startMillis;
+	private final Consumer<? super T> onExpire;
+	private final ReentrantLock lock = new ReentrantLock();
+	private volatile long currentTick; // last tick processed by advance
+	private int size;
+
+	/**
+	 * @param tickMillis the resolution of the wheel
+	 * @param wheelSize  the number of buckets, rounded up to a power of 2
+	 * @param onExpire   called with the item of each expired timeout
+	 * @param nowMillis  the current time
+	 */
+	@SuppressWarnings("unchecked")
+	TimingWheel(long tickMillis, int wheelSize, Consumer<? super T> onExpire, long nowMillis) {
+		if (tickMillis <= 0 || wheelSize <= 0 || wheelSize > 1 << 30) {
+			throw new IllegalArgumentException();
+		}
+		this.tickMillis = tickMillis;
+		var length = Integer.highestOneBit(wheelSize);
+		length = length < wheelSize ? length << 1 : length;
+		this.buckets = (Timeout[]) new TimingWheel<?>.Timeout[length];
+		for (var i = 0; i < length; i++) {
+			var sentinel = new Timeout(null, 0);
+			sentinel.prev = sentinel;
+			sentinel.next = sentinel;
+			buckets[i] = sentinel;
+		}
+		this.mask = length - 1;
+		this.onExpire = Objects.requireNonNull(onExpire);
+		this.startMillis = nowMillis;
+	}
+
+	/**
+	 * The idle timeout of an item, handle returned by
+	 * {@link TimingWheel#schedule(Object, long)}.
+	 */
+	final class Timeout {
+		private final T item;
+		private final long timeoutTicks;
+		private volatile long lastTouch; // tick of the last activity
+		private Timeout prev; // null if not in a bucket, guarded by lock
+		private Timeout next;
+
+		private Timeout(T item, long timeoutTicks) {
+			this.item = item;
+			this.timeoutTicks = timeoutTicks;
+		}
+
+		/**
+		 * Records an activity on the item, lock-free
+		 */
+		void touch() {
+			lastTouch = currentTick;
+		}
+
+		/**
+		 * Removes the timeout from the wheel, does nothing if it already expired
+		 */
+		void cancel() {
+			lock.lock();
+			try {
+				if (prev != null) {
+					unlink(this);
+					size--;
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		T item() {
+			return item;
+		}
+
+		private long deadline() {
+			return lastTouch + timeoutTicks;
+		}
+	}
+
+	/**
+	 * Schedules the expiration of item after timeoutMillis without touch
+	 *
+	 * @param item
+	 * @param timeoutMillis
+	 * @return the handle to touch or cancel the timeout
+	 */
+	Timeout schedule(T item, long timeoutMillis) {
+		Objects.requireNonNull(item);
+		if (timeoutMillis <= 0) {
+			throw new IllegalArgumentException();
+		}
+		// one more tick since currentTick may be late by up to one tick
+		var timeout = new Timeout(item, (timeoutMillis + tickMillis - 1) / tickMillis + 1);
+		lock.lock();
+		try {
+			timeout.lastTouch = currentTick;
+			link(timeout, timeout.deadline());
+			size++;
+		} finally {
+			lock.unlock();
+		}
+		return timeout;
+	}
+
+	/**
+	 * Processes all the ticks elapsed until nowMillis and gives the items of the
+	 * expired timeouts to onExpire
+	 *
+	 * @param nowMillis
+	 */
+	void advance(long nowMillis) {
+		var targetTick = (nowMillis - startMillis) / tickMillis;
+		ArrayList<T> expired = null;
+		lock.lock();
+		try {
+			for (var tick = currentTick + 1; tick <= targetTick; tick++) {
+				currentTick = tick;
+				if (size == 0) {
+					currentTick = targetTick;
+					break;
+				}
+				var sentinel = buckets[(int) (tick & mask)];
+				var timeout = sentinel.next;
+				sentinel.prev = sentinel;
+				sentinel.next = sentinel;
+				while (timeout != sentinel) {
+					var next = timeout.next;
+					var deadline = timeout.deadline();
+					if (deadline <= tick) {
+						timeout.prev = null;
+						timeout.next = null;
+						size--;
+						if (expired == null) {
+							expired = new ArrayList<>();
+						}
+						expired.add(timeout.item);
+					} else {
+						link(timeout, deadline); // touched since scheduled, or not in this round
+					}
+					timeout = next;
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+		if (expired != null) {
+			for (var item : expired) {
+				onExpire.accept(item);
+			}
+		}
+	}
+
+	/**
+	 * @param nowMillis
+	 * @return the number of milliseconds before the next tick, at least 1
+	 */
+	long delayToNextTick(long nowMillis) {
+		var elapsed = nowMillis - startMillis;
+		return Math.max(1, (elapsed / tickMillis + 1) * tickMillis - elapsed);
+	}
+
+	/**
+	 * Gives the select timeout of a selector loop driving the wheel: the delay
+	 * until the tick of the first non-empty bucket. This bucket may only hold
+	 * timeouts of a later round or touched since, advance then just moves them.
+	 *
+	 * @param nowMillis
+	 * @return the number of milliseconds before the next tick that may expire a
+	 *         timeout, at least 1, or 0 if the wheel is empty
+	 */
+	long delayToNextExpiration(long nowMillis) {
+		lock.lock();
+		try {
+			if (size == 0) {
+				return 0;
+			}
+			var tick = currentTick + 1;
+			while (buckets[(int) (tick & mask)].next == buckets[(int) (tick & mask)]) {
+				tick++; // stops within one round since size > 0
+			}
+			return Math.max(1, startMillis + tick * tickMillis - nowMillis);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of scheduled timeouts
+	 */
+	int size() {
+		lock.lock();
+		try {
+			return size;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	long tickMillis() {
+		return tickMillis;
+	}
+
+	private void link(Timeout timeout, long deadline) {
+		// never in the bucket being processed, it would be seen again in the same pass
+		var sentinel = buckets[(int) (Math.max(deadline, currentTick + 1) & mask)];
+		timeout.prev = sentinel.prev;
+		timeout.next = sentinel;
+		sentinel.prev.next = timeout;
+		sentinel.prev = timeout;
+	}
+
+	private void unlink(Timeout timeout) {
+		timeout.prev.next = timeout.next;
+		timeout.next.prev = timeout.prev;
+		timeout.prev = null;
+		timeout.next = null;
+	}
+}
@@ -0,0 +1,174 @@
+package fr.uge.exo1;
+
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * The deadlines of a connection of a selector server, all in milliseconds since
+ * the epoch:
+ * <ul>
+ * <li>idle: nothing was read or written for idleMillis,</li>
+ * <li>read progress: an incomplete request has been buffered for readMillis,
+ * the client sends too slowly or stopped in the middle,</li>
+ * <li>write progress: pending output made no progress for writeMillis, the
+ * client does not read its answers.</li>
+ * </ul>
+ * The context updates them after each read and write. The nearest deadline is
+ * scheduled in the timing wheel of the selector, whose loop uses
+ * {@link TimingWheel#delayToNextExpiration(long)} as select timeout, so no
+ * thread scans the connections. When a deadline expires, onExpired is called
+ * with its name and is expected to close the connection.
+ */
+final class Deadlines {
+	private static final long NONE = Long.MAX_VALUE;
+
+	record Timeouts(long idleMillis, long readMillis, long writeMillis) {
+		static final Timeouts DEFAULT = new Timeouts(300_000, 30_000, 30_000);
+
+		Timeouts {
+			if (idleMillis <= 0 || readMillis <= 0 || writeMillis <= 0) {
+				throw new IllegalArgumentException("timeouts must be positive");
+			}
+		}
+	}
+
+	private final TimingWheel<Deadlines> wheel;
+	private final Timeouts timeouts;
+	private final Consumer<String> onExpired;
+	private long lastActivity;
+	private long readDeadline = NONE;
+	private long writeDeadline = NONE;
+	private TimingWheel<Deadlines>.Timeout check; // null once cancelled
+	private long checkAt;
+
+	/**
+	 * @param wheel     a wheel built with Deadlines::check as onExpire, advanced
+	 *                  by the selector loop
+	 * @param timeouts
+	 * @param onExpired called with the name of the expired deadline
+	 * @param now
+	 */
+	Deadlines(TimingWheel<Deadlines> wheel, Timeouts timeouts, Consumer<String> onExpired, long now) {
+		this.wheel = Objects.requireNonNull(wheel);
+		this.timeouts = Objects.requireNonNull(timeouts);
+		this.onExpired = Objects.requireNonNull(onExpired);
+		this.lastActivity = now;
+		schedule(now);
+	}
+
+	/**
+	 * Called after a read
+	 *
+	 * @param now
+	 * @param count   the result of the read
+	 * @param partial true if an incomplete request is buffered
+	 */
+	void onRead(long now, int count, boolean partial) {
+		if (count > 0) {
+			lastActivity = now;
+		}
+		if (!partial) {
+			readDeadline = NONE;
+		} else if (readDeadline == NONE) {
+			readDeadline = now + timeouts.readMillis();
+			scheduleEarlier(now);
+		}
+	}
+
+	/**
+	 * Called when output is queued while nothing was pending
+	 *
+	 * @param now
+	 */
+	void onQueued(long now) {
+		if (writeDeadline == NONE) {
+			writeDeadline = now + timeouts.writeMillis();
+			scheduleEarlier(now);
+		}
+	}
+
+	/**
+	 * Called after a write
+	 *
+	 * @param now
+	 * @param written the result of the write
+	 * @param pending true if output is still waiting to be written
+	 */
+	void onWrite(long now, long written, boolean pending) {
+		if (written > 0) {
+			lastActivity = now;
+		}
+		if (!pending) {
+			writeDeadline = NONE;
+		} else if (written > 0 || writeDeadline == NONE) {
+			writeDeadline = now + timeouts.writeMillis();
+			scheduleEarlier(now);
+		}
+	}
+
+	/**
+	 * Removes the deadlines from the wheel, to be called when the connection is
+	 * closed
+	 */
+	void cancel() {
+		if (check != null) {
+			check.cancel();
+			check = null;
+		}
+	}
+
+	/**
+	 * Called by the wheel when the nearest deadline may have passed. Deadlines
+	 * pushed back since they were scheduled are only rescheduled here, so an
+	 * activity costs no wheel operation.
+	 */
+	void check() {
+		if (check == null) {
+			return;
+		}
+		var now = System.currentTimeMillis();
+		var expired = expired(now);
+		if (expired != null) {
+			check = null;
+			onExpired.accept(expired);
+			return;
+		}
+		schedule(now);
+	}
+
+	/**
+	 * @return the nearest deadline
+	 */
+	long next() {
+		return Math.min(lastActivity + timeouts.idleMillis(), Math.min(readDeadline, writeDeadline));
+	}
+
+	/**
+	 * @param now
+	 * @return the name of an expired deadline, or null if none expired
+	 */
+	String expired(long now) {
+		if (now >= writeDeadline) {
+			return "write progress";
+		}
+		if (now >= readDeadline) {
+			return "read progress";
+		}
+		if (now >= lastActivity + timeouts.idleMillis()) {
+			return "idle";
+		}
+		return null;
+	}
+
+	private void scheduleEarlier(long now) {
+		if (check != null && next() < checkAt) {
+			check.cancel();
+			schedule(now);
+		}
+	}
+
+	private void schedule(long now) {
+		checkAt = next();
+		check = wheel.schedule(this, Math.max(1, checkAt - now));
+	}
+}
@@ -5,6 +5,7 @@ import java.io.UncheckedIOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.*;
+import java.util.Objects;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -13,41 +14,57 @@ public class ServerSumBetter {
 		private final SelectionKey key;
 		private final SocketChannel sc;
 		private final ByteBuffer bufferIn = ByteBuffer.allocate(BUFFER_SIZE);
-		private final ByteBuffer bufferOut = ByteBuffer.allocate(BUFFER_SIZE);
+		private final ByteBuffer bufferOut = ByteBuffer.allocate(BUFFER_SIZE); // the only segment of queueOut
+		private final OutputQueue queueOut = new OutputQueue(MAX_GATHER, BUFFER_SIZE);
+		private final Deadlines deadlines;
+		private final SelectorMetrics metrics;
+		private final SelectorMetrics.Connection connection;
 		private boolean closed = false;
 
-		private Context(SelectionKey key) {
+		private Context(SelectionKey key, Deadlines deadlines, SelectorMetrics metrics) {
 			this.key = key;
 			this.sc = (SocketChannel) key.channel();
+			this.deadlines = deadlines;
+			this.metrics = metrics;
+			this.connection = metrics.newConnection(remoteToString(sc), sc);
 		}
 
 		/**
-		 * Process the content of bufferIn into bufferOut
+		 * Process the content of bufferIn into bufferOut, queued in queueOut once
+		 * filled. The sums are tiny and fixed-size, so they are written in one
+		 * reused segment of up to BUFFER_SIZE bytes rather than one segment per
+		 * sum, and nothing is processed until the previous segment is written.
 		 *
-		 * The convention is that both buffers are in write-mode before the call to
+		 * The convention is that bufferIn is in write-mode before the call to
 		 * process and after the call
 		 *
 		 */
 
 		private void process() {
-			// TODO
+			if (!queueOut.isEmpty()) {
+				return;
+			}
+			bufferOut.clear();
 			try {
 				bufferIn.flip();
-				if(bufferIn.remaining()< Integer.BYTES*2) {
-					logger.info("not enought value received");
-					return;
+				while (bufferIn.remaining() >= Integer.BYTES * 2 && bufferOut.remaining() >= Integer.BYTES) {
+					bufferOut.putInt(bufferIn.getInt() + bufferIn.getInt());
 				}
-				bufferOut.putInt(bufferIn.getInt()+bufferIn.getInt());
 			}finally {
 				bufferIn.compact();
 			}
+			bufferOut.flip();
+			if (bufferOut.hasRemaining()) {
+				queueOut.add(bufferOut);
+				deadlines.onQueued(System.currentTimeMillis());
+			}
 		}
 
 		/**
 		 * Update the interestOps of the key looking only at values of the boolean
-		 * closed and of both ByteBuffers.
+		 * closed, of bufferIn and of queueOut.
 		 *
-		 * The convention is that both buffers are in write-mode before the call to
+		 * The convention is that bufferIn is in write-mode before the call to
 		 * updateInterestOps and after the call. Also it is assumed that process has
 		 * been be called just before updateInterestOps.
 		 */
@@ -55,7 +72,7 @@ public class ServerSumBetter {
 		private void updateInterestOps() {
 			// TODO
 			var interestOps =0;
-			if(bufferOut.position()!=0) {
+			if(!queueOut.isEmpty()) {
 				interestOps |= SelectionKey.OP_WRITE;
 			}
 			if(bufferIn.hasRemaining() && !closed ) {
@@ -69,6 +86,7 @@ public class ServerSumBetter {
 		}
 
 		private void silentlyClose() {
+			deadlines.cancel();
 			try {
 				sc.close();
 			} catch (IOException e) {
@@ -87,7 +105,11 @@ public class ServerSumBetter {
 
 		private void doRead() throws IOException {
 			// TODO
-			if(sc.read(bufferIn)==-1) {
+			var count = sc.read(bufferIn);
+			connection.recordRead(count);
+			// a pair of ints cut in the middle, not the pairs waiting for room in queueOut
+			deadlines.onRead(System.currentTimeMillis(), count, bufferIn.position() % (2 * Integer.BYTES) != 0);
+			if(count==-1) {
 				logger.info("Channel Closed");
 				closed=true;
 				process();
@@ -103,16 +125,17 @@ public class ServerSumBetter {
 		/**
 		 * Performs the write action on sc
 		 *
-		 * The convention is that both buffers are in write-mode before the call to
+		 * The convention is that bufferIn is in write-mode before the call to
 		 * doWrite and after the call
 		 *
 		 * @throws IOException
 		 */
 
 		private void doWrite() throws IOException {
-			// TODO
-			sc.write(bufferOut.flip());
-			bufferOut.compact();
+			metrics.recordQueueDepth(queueOut.size());
+			var written = queueOut.flush(sc);
+			connection.recordWrite(written);
+			deadlines.onWrite(System.currentTimeMillis(), written, !queueOut.isEmpty());
 			process();
 			updateInterestOps();
 		}
@@ -120,34 +143,68 @@ public class ServerSumBetter {
 	}
 
 	private static final int BUFFER_SIZE = 1024;
+	private static final int MAX_GATHER = 64;
+	private static final long TICK_MILLIS = 100;
+	private static final int WHEEL_SIZE = 512;
 	private static final Logger logger = Logger.getLogger(ServerSumBetter.class.getName());
 
 	private final ServerSocketChannel serverSocketChannel;
 	private final Selector selector;
+	private volatile SelectorEventListener listener = SelectorEventListener.NONE;
+	private final SelectorMetrics metrics = new SelectorMetrics();
+	private final SelectorMetrics.Loop loop = metrics.newLoop();
+	private final Deadlines.Timeouts timeouts;
+	private final TimingWheel<Deadlines> wheel = new TimingWheel<>(TICK_MILLIS, WHEEL_SIZE, Deadlines::check,
+			System.currentTimeMillis());
 
 	public ServerSumBetter(int port) throws IOException {
+		this(port, Deadlines.Timeouts.DEFAULT);
+	}
+
+	ServerSumBetter(int port, Deadlines.Timeouts timeouts) throws IOException {
+		this.timeouts = Objects.requireNonNull(timeouts);
 		serverSocketChannel = ServerSocketChannel.open();
 		serverSocketChannel.bind(new InetSocketAddress(port));
 		selector = Selector.open();
 	}
 
+	/**
+	 * Replaces the listener of the selector loop, e.g. to turn the diagnostics on
+	 * at runtime
+	 *
+	 * @param listener
+	 */
+	public void setSelectorEventListener(SelectorEventListener listener) {
+		this.listener = Objects.requireNonNull(listener);
+	}
+
+	/**
+	 * @return the metrics of the selector loop, also registered in JMX by launch
+	 */
+	public SelectorMetrics metrics() {
+		return metrics;
+	}
+
 	public void launch() throws IOException {
 		serverSocketChannel.configureBlocking(false);
 		serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
+		metrics.register("ServerSumBetter-" + ((InetSocketAddress) serverSocketChannel.getLocalAddress()).getPort());
 		while (!Thread.interrupted()) {
-			Helpers.printKeys(selector); // for debug
-			System.out.println("Starting select");
+			loop.beforeSelect();
+			listener.beforeSelect(selector);
 			try {
-				selector.select(this::treatKey);
+				listener.afterSelect(selector, selector.select(this::treatKey, wheel.delayToNextExpiration(System.currentTimeMillis())));
 			} catch (UncheckedIOException tunneled) {
 				throw tunneled.getCause();
 			}
-			System.out.println("Select finished");
+			loop.afterSelect();
+			wheel.advance(System.currentTimeMillis());
 		}
 	}
 
 	private void treatKey(SelectionKey key) {
-		Helpers.printSelectedKey(key); // for debug
+		loop.onSelectedKey();
+		listener.onSelectedKey(key);
 		try {
 			if (key.isValid() && key.isAcceptable()) {
 				doAccept(key);
@@ -178,11 +235,27 @@ public class ServerSumBetter {
 			return;
 		}
 		sc.configureBlocking(false);
+		metrics.recordAccept();
 		var sKey =sc.register(selector, SelectionKey.OP_READ | SelectionKey.OP_WRITE);
-		sKey.attach(new Context(sKey));
+		var deadlines = new Deadlines(wheel, timeouts, expired -> {
+			logger.info("Connection closed with client due to " + expired + " timeout");
+			silentlyClose(sKey);
+		}, System.currentTimeMillis());
+		sKey.attach(new Context(sKey, deadlines, metrics));
+	}
+
+	private static String remoteToString(SocketChannel sc) {
+		try {
+			return sc.getRemoteAddress().toString();
+		} catch (IOException e) {
+			return "???";
+		}
 	}
 
 	private void silentlyClose(SelectionKey key) {
+		if (key.attachment() instanceof Context context) {
+			context.deadlines.cancel();
+		}
 		Channel sc = (Channel) key.channel();
 		try {
 			sc.close();
@@ -192,14 +265,17 @@ public class ServerSumBetter {
 	}
 
 	public static void main(String[] args) throws NumberFormatException, IOException {
-		if (args.length != 1) {
+		if (args.length != 1 && args.length != 4) {
 			usage();
 			return;
 		}
-		new ServerSumBetter(Integer.parseInt(args[0])).launch();
+		var timeouts = args.length == 4
+				? new Deadlines.Timeouts(Long.parseLong(args[1]), Long.parseLong(args[2]), Long.parseLong(args[3]))
+				: Deadlines.Timeouts.DEFAULT;
+		new ServerSumBetter(Integer.parseInt(args[0]), timeouts).launch();
 	}
 
 	private static void usage() {
-		System.out.println("Usage : ServerSumBetter port");
+		System.out.println("Usage : ServerSumBetter port [idleMillis readMillis writeMillis]");
 	}
 }
\ No newline at end of file
@@ -0,0 +1,136 @@
+package fr.uge.exo2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Outbound bytes of a connection, kept as a queue of segments instead of being
+ * copied into a single bufferOut.
+ *
+ * Segments are in read-mode and are not copied: the queue owns them until they
+ * are completely written. {@link #flush(GatheringByteChannel)} hands as many
+ * segments as possible to a single gathering write, bounded by a byte budget so
+ * that one connection cannot monopolize the selector thread.
+ *
+ * A segment may come with a callback run exactly once, when the segment has
+ * been completely written or when it is discarded by {@link #clear()}.
+ */
+final class OutputQueue {
+	private static final Runnable NOTHING = () -> {};
+
+	private final ArrayDeque<ByteBuffer> segments = new ArrayDeque<>();
+	private final ArrayDeque<Runnable> callbacks = new ArrayDeque<>(); // callbacks.get(i) goes with segments.get(i)
+	private final ByteBuffer[] gather;
+	private final int writeBudget;
+	private long pendingBytes;
+
+	/**
+	 * @param maxSegmentsPerWrite the maximum number of segments gathered in one write
+	 * @param writeBudget         the maximum number of bytes offered to one write
+	 */
+	OutputQueue(int maxSegmentsPerWrite, int writeBudget) {
+		if (maxSegmentsPerWrite <= 0 || writeBudget <= 0) {
+			throw new IllegalArgumentException();
+		}
+		this.gather = new ByteBuffer[maxSegmentsPerWrite];
+		this.writeBudget = writeBudget;
+	}
+
+	/**
+	 * Queues segment, which must be in read-mode.
+	 *
+	 * @param segment
+	 */
+	void add(ByteBuffer segment) {
+		add(segment, null);
+	}
+
+	/**
+	 * Queues segment, which must be in read-mode. onDone (may be null) is run
+	 * once the segment has been written or discarded.
+	 *
+	 * @param segment
+	 * @param onDone
+	 */
+	void add(ByteBuffer segment, Runnable onDone) {
+		segments.add(segment);
+		callbacks.add(onDone == null ? NOTHING : onDone);
+		pendingBytes += segment.remaining();
+	}
+
+	boolean isEmpty() {
+		return segments.isEmpty();
+	}
+
+	/**
+	 * @return the number of queued segments, including a partially written one
+	 */
+	int size() {
+		return segments.size();
+	}
+
+	/**
+	 * @return the number of bytes still to be written
+	 */
+	long pendingBytes() {
+		return pendingBytes;
+	}
+
+	/**
+	 * Performs one gathering write of the head of the queue on channel.
+	 *
+	 * @param channel
+	 * @return the number of bytes written
+	 * @throws IOException
+	 */
+	long flush(GatheringByteChannel channel) throws IOException {
+		if (segments.isEmpty()) {
+			return 0;
+		}
+		var count = 0;
+		var budget = writeBudget;
+		ByteBuffer truncated = null;
+		var truncatedLimit = 0;
+		for (var segment : segments) {
+			if (count == gather.length || budget == 0) {
+				break;
+			}
+			if (segment.remaining() > budget) {
+				truncated = segment;
+				truncatedLimit = segment.limit();
+				segment.limit(segment.position() + budget);
+			}
+			budget -= segment.remaining();
+			gather[count++] = segment;
+		}
+		long written;
+		try {
+			written = channel.write(gather, 0, count);
+		} finally {
+			if (truncated != null) {
+				truncated.limit(truncatedLimit);
+			}
+			Arrays.fill(gather, 0, count, null);
+		}
+		pendingBytes -= written;
+		while (!segments.isEmpty() && !segments.peek().hasRemaining()) {
+			segments.poll();
+			callbacks.poll().run();
+		}
+		return written;
+	}
+
+	/**
+	 * Discards every pending segment, running their callbacks.
+	 */
+	void clear() {
+		segments.clear();
+		pendingBytes = 0;
+		for (var callback = callbacks.poll(); callback != null; callback = callbacks.poll()) {
+			callback.run();
+		}
+	}
+}
@@ -5,7 +5,7 @@ import java.io.UncheckedIOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.*;
-import java.util.ArrayDeque;
+import java.util.Objects;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -16,8 +16,7 @@ public class ServerChatInt {
 		private final SelectionKey key;
 		private final SocketChannel sc;
 		private final ByteBuffer bufferIn = ByteBuffer.allocate(BUFFER_SIZE);
-		private final ByteBuffer bufferOut = ByteBuffer.allocate(BUFFER_SIZE);
-		private final ArrayDeque<Integer> queue = new ArrayDeque<>();
+		private final OutputQueue queue = new OutputQueue(MAX_GATHER, BUFFER_SIZE);
 		private final ServerChatInt server; // we could also have Context as an instance class, which would naturally
 											// give access to ServerChatInt.this
 		private boolean closed = false;
@@ -48,33 +47,20 @@ public class ServerChatInt {
 		}
 
 		/**
-		 * Add a message to the message queue, tries to fill bufferOut and updateInterestOps
+		 * Add an encoded message to the output queue and updateInterestOps
 		 *
-		 * @param msg
+		 * @param msg the encoded message in read-mode, it is not copied
 		 */
-		public void queueMessage(Integer msg) {
-			// TODO
+		public void queueMessage(ByteBuffer msg) {
 			queue.add(msg);
-			processOut();
 			updateInterestOps();
 		}
 
-		/**
-		 * Try to fill bufferOut from the message queue
-		 *
-		 */
-		private void processOut() {
-			// TODO
-			while(bufferOut.remaining()>=Integer.BYTES && !queue.isEmpty()) {
-				bufferOut.putInt(queue.poll());
-			}
-		}
-
 		/**
 		 * Update the interestOps of the key looking only at values of the boolean
-		 * closed and of both ByteBuffers.
+		 * closed, of bufferIn and of the output queue.
 		 *
-		 * The convention is that both buffers are in write-mode before the call to
+		 * The convention is that bufferIn is in write-mode before the call to
 		 * updateInterestOps and after the call. Also it is assumed that process has
 		 * been be called just before updateInterestOps.
 		 */
@@ -82,7 +68,7 @@ public class ServerChatInt {
 		private void updateInterestOps() {
 			// TODO
 			var interestOps=0;
-			if(bufferOut.position()!=0) {
+			if(!queue.isEmpty()) {
 				interestOps|= SelectionKey.OP_WRITE;
 			}
 			if(bufferIn.hasRemaining()&&!closed) {
@@ -127,26 +113,26 @@ public class ServerChatInt {
 		/**
 		 * Performs the write action on sc
 		 *
-		 * The convention is that both buffers are in write-mode before the call to
+		 * The convention is that bufferIn is in write-mode before the call to
 		 * doWrite and after the call
 		 *
 		 * @throws IOException
 		 */
 
 		private void doWrite() throws IOException {
-			// TODO
-			sc.write(bufferOut.flip());
-			bufferOut.compact();
+			queue.flush(sc);
 			updateInterestOps();
 		}
 
 	}
 
 	private static final int BUFFER_SIZE = 1_024;
+	private static final int MAX_GATHER = 64;
 	private static final Logger logger = Logger.getLogger(ServerChatInt.class.getName());
 
 	private final ServerSocketChannel serverSocketChannel;
 	private final Selector selector;
+	private volatile SelectorEventListener listener = SelectorEventListener.NONE;
 
 	public ServerChatInt(int port) throws IOException {
 		serverSocketChannel = ServerSocketChannel.open();
@@ -154,23 +140,31 @@ public class ServerChatInt {
 		selector = Selector.open();
 	}
 
+	/**
+	 * Replaces the listener of the selector loop, e.g. to turn the diagnostics on
+	 * at runtime
+	 *
+	 * @param listener
+	 */
+	public void setSelectorEventListener(SelectorEventListener listener) {
+		this.listener = Objects.requireNonNull(listener);
+	}
+
 	public void launch() throws IOException {
 		serverSocketChannel.configureBlocking(false);
 		serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
 		while (!Thread.interrupted()) {
-			Helpers.printKeys(selector); // for debug
-			System.out.println("Starting select");
+			listener.beforeSelect(selector);
 			try {
-				selector.select(this::treatKey);
+				listener.afterSelect(selector, selector.select(this::treatKey));
 			} catch (UncheckedIOException tunneled) {
 				throw tunneled.getCause();
 			}
-			System.out.println("Select finished");
 		}
 	}
 
 	private void treatKey(SelectionKey key) {
-		Helpers.printSelectedKey(key); // for debug
+		listener.onSelectedKey(key);
 		try {
 			if (key.isValid() && key.isAcceptable()) {
 				doAccept(key);
@@ -215,17 +209,18 @@ public class ServerChatInt {
 	}
 
 	/**
-	 * Add a message to all connected clients queue
+	 * Add a message to all connected clients queue. The message is encoded once,
+	 * every client gets its own view on the same bytes.
 	 *
 	 * @param msg
 	 */
 	private void broadcast(Integer msg) {
-		// TODO
+		var encoded = ByteBuffer.allocate(Integer.BYTES).putInt(msg).flip().asReadOnlyBuffer();
 		for(var key : selector.keys()) {
 			Context context = (Context) key.attachment();
 			if(context != null)
 			{
-				context.queueMessage(msg);
+				context.queueMessage(encoded.duplicate());
 			}
 		}
 	}
@@ -0,0 +1,217 @@
+package fr.uge.exo3;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.StringJoiner;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Observes the loop of a selector: called before and after each select and for
+ * each selected key, on the thread of the selector.
+ *
+ * Servers use {@link #NONE} by default, which costs nothing once inlined, and
+ * the listener can be replaced at runtime to turn the diagnostics on:
+ * {@link #sampledLogging(Logger, int)} logs what the old debug prints showed,
+ * {@link Counters} only counts. Implementations must be cheap and thread-safe
+ * since several selectors may share one listener.
+ */
+public interface SelectorEventListener {
+
+	SelectorEventListener NONE = new SelectorEventListener() {};
+
+	/**
+	 * Called before each select
+	 *
+	 * @param selector
+	 */
+	default void beforeSelect(Selector selector) {
+	}
+
+	/**
+	 * Called after each select
+	 *
+	 * @param selector
+	 * @param selectedKeys the number of keys the select processed
+	 */
+	default void afterSelect(Selector selector, int selectedKeys) {
+	}
+
+	/**
+	 * Called for each selected key, before it is processed
+	 *
+	 * @param key
+	 */
+	default void onSelectedKey(SelectionKey key) {
+	}
+
+	/**
+	 * Logs the keys of the selector before one select out of period, and one
+	 * selected key out of period, at level INFO.
+	 *
+	 * @param logger
+	 * @param period
+	 * @return the listener
+	 */
+	static SelectorEventListener sampledLogging(Logger logger, int period) {
+		if (period <= 0) {
+			throw new IllegalArgumentException("period must be positive");
+		}
+		var selects = new AtomicLong();
+		var keys = new AtomicLong();
+		return new SelectorEventListener() {
+			@Override
+			public void beforeSelect(Selector selector) {
+				if (selects.getAndIncrement() % period == 0 && logger.isLoggable(Level.INFO)) {
+					logger.info(keysToString(selector));
+				}
+			}
+
+			@Override
+			public void onSelectedKey(SelectionKey key) {
+				if (keys.getAndIncrement() % period == 0 && logger.isLoggable(Level.INFO)) {
+					logger.info(selectedKeyToString(key));
+				}
+			}
+		};
+	}
+
+	/**
+	 * Counts the selects, the selects that processed no key (timeouts and
+	 * wakeups), and the selected keys by ready operation.
+	 */
+	final class Counters implements SelectorEventListener {
+		private final LongAdder selects = new LongAdder();
+		private final LongAdder emptySelects = new LongAdder();
+		private final LongAdder selectedKeys = new LongAdder();
+		private final LongAdder acceptable = new LongAdder();
+		private final LongAdder readable = new LongAdder();
+		private final LongAdder writable = new LongAdder();
+
+		@Override
+		public void afterSelect(Selector selector, int selectedKeys) {
+			selects.increment();
+			if (selectedKeys == 0) {
+				emptySelects.increment();
+			}
+		}
+
+		@Override
+		public void onSelectedKey(SelectionKey key) {
+			selectedKeys.increment();
+			if (!key.isValid()) {
+				return;
+			}
+			var readyOps = key.readyOps();
+			if ((readyOps & SelectionKey.OP_ACCEPT) != 0) {
+				acceptable.increment();
+			}
+			if ((readyOps & SelectionKey.OP_READ) != 0) {
+				readable.increment();
+			}
+			if ((readyOps & SelectionKey.OP_WRITE) != 0) {
+				writable.increment();
+			}
+		}
+
+		public long selects() {
+			return selects.sum();
+		}
+
+		public long emptySelects() {
+			return emptySelects.sum();
+		}
+
+		public long selectedKeys() {
+			return selectedKeys.sum();
+		}
+
+		public long acceptable() {
+			return acceptable.sum();
+		}
+
+		public long readable() {
+			return readable.sum();
+		}
+
+		public long writable() {
+			return writable.sum();
+		}
+
+		@Override
+		public String toString() {
+			return "selects=" + selects() + " empty=" + emptySelects() + " keys=" + selectedKeys() + " accept="
+					+ acceptable() + " read=" + readable() + " write=" + writable();
+		}
+	}
+
+	private static String keysToString(Selector selector) {
+		var selectionKeySet = selector.keys();
+		if (selectionKeySet.isEmpty()) {
+			return "The selector contains no key : this should not happen!";
+		}
+		var builder = new StringBuilder("The selector contains:");
+		for (var key : selectionKeySet) {
+			var channel = key.channel();
+			if (channel instanceof ServerSocketChannel) {
+				builder.append("\n\tKey for ServerSocketChannel : ").append(interestOpsToString(key));
+			} else {
+				var sc = (SocketChannel) channel;
+				builder.append("\n\tKey for Client ").append(remoteAddressToString(sc)).append(" : ")
+						.append(interestOpsToString(key));
+			}
+		}
+		return builder.toString();
+	}
+
+	private static String selectedKeyToString(SelectionKey key) {
+		var channel = key.channel();
+		if (channel instanceof ServerSocketChannel) {
+			return "ServerSocketChannel can perform : " + possibleActionsToString(key);
+		}
+		var sc = (SocketChannel) channel;
+		return "Client " + remoteAddressToString(sc) + " can perform : " + possibleActionsToString(key);
+	}
+
+	private static String interestOpsToString(SelectionKey key) {
+		if (!key.isValid()) {
+			return "CANCELLED";
+		}
+		int interestOps = key.interestOps();
+		var joiner = new StringJoiner("|");
+		if ((interestOps & SelectionKey.OP_ACCEPT) != 0)
+			joiner.add("OP_ACCEPT");
+		if ((interestOps & SelectionKey.OP_READ) != 0)
+			joiner.add("OP_READ");
+		if ((interestOps & SelectionKey.OP_WRITE) != 0)
+			joiner.add("OP_WRITE");
+		return joiner.toString();
+	}
+
+	private static String remoteAddressToString(SocketChannel sc) {
+		try {
+			return sc.getRemoteAddress().toString();
+		} catch (IOException e) {
+			return "???";
+		}
+	}
+
+	private static String possibleActionsToString(SelectionKey key) {
+		if (!key.isValid()) {
+			return "CANCELLED";
+		}
+		var joiner = new StringJoiner(" and ");
+		if (key.isAcceptable())
+			joiner.add("ACCEPT");
+		if (key.isReadable())
+			joiner.add("READ");
+		if (key.isWritable())
+			joiner.add("WRITE");
+		return joiner.toString();
+	}
+}
@@ -11,7 +11,7 @@ import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayDeque;
+import java.util.Objects;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -20,10 +20,9 @@ public class ServerChatOn {
 		private final SelectionKey key;
 		private final SocketChannel sc;
 		private final ByteBuffer bufferIn = ByteBuffer.allocate(BUFFER_SIZE);
-		private final ByteBuffer bufferOut = ByteBuffer.allocate(BUFFER_SIZE);
-		private final ArrayDeque<Message> queue = new ArrayDeque<>();
+		private final OutputQueue queue = new OutputQueue(MAX_GATHER, BUFFER_SIZE);
 		private final ServerChatOn server; // we could also have Context as an instance class, which would naturally
-		private final Charset UTF8 = StandardCharsets.UTF_8;							// give access to ServerChatInt.this
+											// give access to ServerChatInt.this
 		private boolean closed = false;
 		private MessageReader messageReader = new MessageReader();
 
@@ -59,47 +58,27 @@ public class ServerChatOn {
 		}
 
 		/**
-		 * Add a message to the message queue, tries to fill bufferOut and updateInterestOps
+		 * Add an encoded message to the output queue and updateInterestOps
 		 *
-		 * @param msg
+		 * @param msg the encoded message in read-mode, it is not copied
 		 */
-		public void queueMessage(Message msg) {
-			// TODO
+		public void queueMessage(ByteBuffer msg) {
 			queue.add(msg);
-			processOut();
 			updateInterestOps();
 		}
 
-		/**
-		 * Try to fill bufferOut from the message queue
-		 *
-		 */
-		private void processOut() {
-			// TODO
-			while(bufferOut.remaining()>=BUFFER_SIZE && !queue.isEmpty()) {
-				//bufferOut.putInt(queue.poll());
-				var message = queue.poll();
-				var loginBb = UTF8.encode(message.login());
-				var messageBb = UTF8.encode(message.message());
-				bufferOut.putInt(loginBb.remaining());
-				bufferOut.put(loginBb);
-				bufferOut.putInt(messageBb.remaining());
-				bufferOut.put(messageBb);
-			}
-		}
-
 		/**
 		 * Update the interestOps of the key looking only at values of the boolean
-		 * closed and of both ByteBuffers.
+		 * closed, of bufferIn and of the output queue.
 		 *
-		 * The convention is that both buffers are in write-mode before the call to
+		 * The convention is that bufferIn is in write-mode before the call to
 		 * updateInterestOps and after the call. Also it is assumed that process has
 		 * been be called just before updateInterestOps.
 		 */
 
 		private void updateInterestOps() {
 			var interestOps=0;
-			if(bufferOut.position()!=0) {
+			if(!queue.isEmpty()) {
 				interestOps|= SelectionKey.OP_WRITE;
 			}
 			if(bufferIn.hasRemaining()&&!closed) {
@@ -141,25 +120,27 @@ public class ServerChatOn {
 		/**
 		 * Performs the write action on sc
 		 *
-		 * The convention is that both buffers are in write-mode before the call to
+		 * The convention is that bufferIn is in write-mode before the call to
 		 * doWrite and after the call
 		 *
 		 * @throws IOException
 		 */
 
 		private void doWrite() throws IOException {
-			sc.write(bufferOut.flip());
-			bufferOut.compact();
+			queue.flush(sc);
 			updateInterestOps();
 		}
 
 	}
 
 	private static final int BUFFER_SIZE = 2048 +2*Integer.BYTES;
+	private static final int MAX_GATHER = 64;
+	private static final Charset UTF8 = StandardCharsets.UTF_8;
 	private static final Logger logger = Logger.getLogger(ServerChatOn.class.getName());
 
 	private final ServerSocketChannel serverSocketChannel;
 	private final Selector selector;
+	private volatile SelectorEventListener listener = SelectorEventListener.NONE;
 
 	public ServerChatOn(int port) throws IOException {
 		serverSocketChannel = ServerSocketChannel.open();
@@ -167,23 +148,31 @@ public class ServerChatOn {
 		selector = Selector.open();
 	}
 
+	/**
+	 * Replaces the listener of the selector loop, e.g. to turn the diagnostics on
+	 * at runtime
+	 *
+	 * @param listener
+	 */
+	public void setSelectorEventListener(SelectorEventListener listener) {
+		this.listener = Objects.requireNonNull(listener);
+	}
+
 	public void launch() throws IOException {
 		serverSocketChannel.configureBlocking(false);
 		serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
 		while (!Thread.interrupted()) {
-			Helpers.printKeys(selector); // for debug
-			System.out.println("Starting select");
+			listener.beforeSelect(selector);
 			try {
-				selector.select(this::treatKey);
+				listener.afterSelect(selector, selector.select(this::treatKey));
 			} catch (UncheckedIOException tunneled) {
 				throw tunneled.getCause();
 			}
-			System.out.println("Select finished");
 		}
 	}
 
 	private void treatKey(SelectionKey key) {
-		Helpers.printSelectedKey(key); // for debug
+		listener.onSelectedKey(key);
 		try {
 			if (key.isValid() && key.isAcceptable()) {
 				doAccept(key);
@@ -228,21 +217,37 @@ public class ServerChatOn {
 	}
 
 	/**
-	 * Add a message to all connected clients queue
+	 * Add a message to all connected clients queue. The message is encoded once,
+	 * every client gets its own view on the same bytes.
 	 *
 	 * @param msg
 	 */
 	private void broadcast(Message msg) {
-		// TODO
+		var encoded = encode(msg);
 		for(var key : selector.keys()) {
 			Context context = (Context) key.attachment();
 			if(context != null)
 			{
-				context.queueMessage(msg);
+				context.queueMessage(encoded.duplicate());
 			}
 		}
 	}
 
+	/**
+	 * Encodes msg once for all the recipients
+	 *
+	 * @param msg
+	 * @return a read-only buffer in read-mode
+	 */
+	private static ByteBuffer encode(Message msg) {
+		var loginBb = UTF8.encode(msg.login());
+		var messageBb = UTF8.encode(msg.message());
+		var buffer = ByteBuffer.allocate(2 * Integer.BYTES + loginBb.remaining() + messageBb.remaining());
+		buffer.putInt(loginBb.remaining()).put(loginBb);
+		buffer.putInt(messageBb.remaining()).put(messageBb);
+		return buffer.flip().asReadOnlyBuffer();
+	}
+
 	public static void main(String[] args) throws NumberFormatException, IOException {
 		if (args.length != 1) {
 			usage();
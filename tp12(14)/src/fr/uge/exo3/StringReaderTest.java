@@ -88,4 +88,26 @@ public class StringReaderTest {
         bb.putInt(1025).put(bytes);
         assertEquals(Reader.ProcessStatus.ERROR, sr.process(bb));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void splitAtEveryOffset() {
+        var string = "a\u20ACb\uD83D\uDE00c";
+        var bytes = StandardCharsets.UTF_8.encode(string);
+        var frame = ByteBuffer.allocate(Integer.BYTES + bytes.remaining());
+        frame.putInt(bytes.remaining()).put(bytes).flip();
+        for (var split = 0; split <= frame.limit(); split++) {
+            var bb = ByteBuffer.allocate(1024);
+            var sr = new StringReader();
+            bb.put(frame.array(), 0, split);
+            var status = sr.process(bb);
+            if (split < frame.limit()) {
+                assertEquals(Reader.ProcessStatus.REFILL, status);
+                bb.put(frame.array(), split, frame.limit() - split);
+                status = sr.process(bb);
+            }
+            assertEquals(Reader.ProcessStatus.DONE, status);
+            assertEquals(string, sr.get());
+            assertEquals(0, bb.position());
+        }
+    }
+}
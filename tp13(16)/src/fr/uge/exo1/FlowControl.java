@@ -0,0 +1,47 @@
+package fr.uge.exo1;
+
+import java.util.Objects;
+
+/**
+ * Per-connection limits on the output queue of the chat server, counted both in
+ * bytes and in messages.
+ *
+ * A client is over the high watermark as soon as one of the two high limits is
+ * exceeded, and back under the low watermark once both low limits are
+ * satisfied. The policy tells what the server does with a client that crossed
+ * the high watermark.
+ */
+public record FlowControl(long lowBytes, long highBytes, int lowMessages, int highMessages, Policy policy) {
+
+	public enum Policy {
+		/** drop the oldest queued messages until the client is under the low watermark */
+		DROP_OLDEST,
+		/** drop new messages for the client until it is under the low watermark */
+		DROP_NEWEST,
+		/** stop reading (OP_READ) from the clients producing the messages until the client is under the low watermark */
+		PAUSE_PRODUCERS,
+		/** disconnect the client */
+		DISCONNECT
+	}
+
+	public static final FlowControl DEFAULT = new FlowControl(64 * 1_024, 256 * 1_024, 256, 1_024, Policy.DROP_OLDEST);
+
+	public FlowControl {
+		Objects.requireNonNull(policy);
+		if (lowBytes < 0 || lowBytes > highBytes || lowMessages < 0 || lowMessages > highMessages) {
+			throw new IllegalArgumentException("watermarks must verify 0 <= low <= high");
+		}
+	}
+
+	public FlowControl withPolicy(Policy policy) {
+		return new FlowControl(lowBytes, highBytes, lowMessages, highMessages, policy);
+	}
+
+	boolean isOverHigh(long bytes, int messages) {
+		return bytes > highBytes || messages > highMessages;
+	}
+
+	boolean isUnderLow(long bytes, int messages) {
+		return bytes <= lowBytes && messages <= lowMessages;
+	}
+}
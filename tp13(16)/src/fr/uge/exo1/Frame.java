@@ -0,0 +1,166 @@
+package fr.uge.exo1;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A message encoded once on the wire format (int size, login, int size, message)
+ * and shared by every recipient.
+ *
+ * The bytes live in a direct buffer that is never written while the frame is
+ * alive. Each recipient takes a reference with {@link #retain()} and its own
+ * {@link #view()} (a read-only duplicate, so positions are independent) and
+ * gives the reference back with {@link #release()}. When the count drops to
+ * zero the buffer goes back to a small pool keyed by power-of-two size class,
+ * so the next frame of the same class does not pay for a new allocateDirect.
+ */
+public final class Frame {
+	private static final int MIN_CLASS_SHIFT = 6; // 64 bytes
+	private static final int MAX_CLASS_SHIFT = 16; // 64 KiB, larger frames are not pooled
+	private static final int POOLED_PER_CLASS = 64;
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static final ArrayBlockingQueue<ByteBuffer>[] POOLS = new ArrayBlockingQueue[MAX_CLASS_SHIFT - MIN_CLASS_SHIFT + 1];
+	static {
+		for (var i = 0; i < POOLS.length; i++) {
+			POOLS[i] = new ArrayBlockingQueue<>(POOLED_PER_CLASS);
+		}
+	}
+	// encoders are not thread safe and frames are encoded by every reactor
+	private static final ThreadLocal<CharsetEncoder> ENCODER = ThreadLocal.withInitial(() -> StandardCharsets.UTF_8
+			.newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE));
+
+	private final ByteBuffer buffer; // pooled storage, capacity is the size class
+	private final ByteBuffer content; // read-only, position 0, limit = size
+	private final AtomicInteger refCount = new AtomicInteger(1);
+
+	private Frame(ByteBuffer buffer) {
+		this.buffer = buffer;
+		this.content = buffer.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Encodes msg straight into the frame buffer. The returned frame holds one
+	 * reference owned by the caller.
+	 *
+	 * @param msg
+	 * @return the encoded frame
+	 */
+	public static Frame encode(Message msg) {
+		Objects.requireNonNull(msg);
+		var loginSize = utf8Length(msg.login());
+		var messageSize = utf8Length(msg.message());
+		var buffer = acquire(2 * Integer.BYTES + loginSize + messageSize);
+		var encoder = ENCODER.get();
+		buffer.putInt(loginSize);
+		encodeInto(encoder, msg.login(), buffer);
+		buffer.putInt(messageSize);
+		encodeInto(encoder, msg.message(), buffer);
+		return new Frame(buffer.flip());
+	}
+
+	private static void encodeInto(CharsetEncoder encoder, String s, ByteBuffer buffer) {
+		encoder.reset();
+		var in = CharBuffer.wrap(s);
+		var result = encoder.encode(in, buffer, true);
+		if (!result.isUnderflow()) {
+			throw new AssertionError(result); // the buffer was sized with utf8Length
+		}
+		encoder.flush(buffer);
+	}
+
+	/**
+	 * Number of bytes of s in UTF-8, lone surrogates counting for the one byte
+	 * replacement the encoder writes in their place.
+	 */
+	static int utf8Length(String s) {
+		var length = 0;
+		for (var i = 0; i < s.length(); i++) {
+			var c = s.charAt(i);
+			if (c < 0x80) {
+				length += 1;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+				length += 4;
+				i++;
+			} else if (Character.isSurrogate(c)) {
+				length += 1;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	private static int sizeClass(int size) {
+		var shift = Math.max(MIN_CLASS_SHIFT, 32 - Integer.numberOfLeadingZeros(size - 1));
+		return shift <= MAX_CLASS_SHIFT ? shift - MIN_CLASS_SHIFT : -1;
+	}
+
+	private static ByteBuffer acquire(int size) {
+		var sizeClass = sizeClass(size);
+		if (sizeClass < 0) {
+			return ByteBuffer.allocateDirect(size);
+		}
+		var buffer = POOLS[sizeClass].poll();
+		if (buffer == null) {
+			buffer = ByteBuffer.allocateDirect(1 << (sizeClass + MIN_CLASS_SHIFT));
+		}
+		return buffer.clear().limit(size);
+	}
+
+	/**
+	 * Takes a new reference on the frame.
+	 *
+	 * @return this frame
+	 */
+	public Frame retain() {
+		for (;;) {
+			var count = refCount.get();
+			if (count == 0) {
+				throw new IllegalStateException("frame already released");
+			}
+			if (refCount.compareAndSet(count, count + 1)) {
+				return this;
+			}
+		}
+	}
+
+	/**
+	 * The caller must hold a reference on the frame.
+	 *
+	 * @return a fresh read-mode view on the bytes of the frame
+	 */
+	public ByteBuffer view() {
+		return content.duplicate();
+	}
+
+	/**
+	 * Gives back one reference on the frame. The last one returns the buffer to
+	 * the pool, so no view may be used after its reference was released.
+	 */
+	public void release() {
+		var count = refCount.decrementAndGet();
+		if (count < 0) {
+			throw new IllegalStateException("frame released too many times");
+		}
+		if (count == 0) {
+			var sizeClass = sizeClass(buffer.capacity());
+			if (sizeClass >= 0 && buffer.capacity() == 1 << (sizeClass + MIN_CLASS_SHIFT)) {
+				POOLS[sizeClass].offer(buffer); // dropped for the GC when the class is full
+			}
+		}
+	}
+
+	public int size() {
+		return content.limit();
+	}
+}
@@ -0,0 +1,176 @@
+package fr.uge.exo1;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Outbound bytes of a connection, kept as a queue of segments instead of being
+ * copied into a single bufferOut.
+ *
+ * Segments are in read-mode and are not copied: the queue owns them until they
+ * are completely written. {@link #flush(GatheringByteChannel)} hands as many
+ * segments as possible to a single gathering write, bounded by a byte budget so
+ * that one connection cannot monopolize the selector thread.
+ *
+ * A segment may come with a callback run exactly once, when the segment has
+ * been completely written or when it is discarded by {@link #clear()}.
+ */
+final class OutputQueue {
+	private static final Runnable NOTHING = () -> {};
+
+	private final ArrayDeque<ByteBuffer> segments = new ArrayDeque<>();
+	private final ArrayDeque<Runnable> callbacks = new ArrayDeque<>(); // callbacks.get(i) goes with segments.get(i)
+	private final ByteBuffer[] gather;
+	private final int[] gatherPositions;
+	private final int writeBudget;
+	private long pendingBytes;
+	private boolean headStarted; // the head segment is partially written and cannot be dropped
+
+	/**
+	 * @param maxSegmentsPerWrite the maximum number of segments gathered in one write
+	 * @param writeBudget         the maximum number of bytes offered to one write
+	 */
+	OutputQueue(int maxSegmentsPerWrite, int writeBudget) {
+		if (maxSegmentsPerWrite <= 0 || writeBudget <= 0) {
+			throw new IllegalArgumentException();
+		}
+		this.gather = new ByteBuffer[maxSegmentsPerWrite];
+		this.gatherPositions = new int[maxSegmentsPerWrite];
+		this.writeBudget = writeBudget;
+	}
+
+	/**
+	 * Queues segment, which must be in read-mode.
+	 *
+	 * @param segment
+	 */
+	void add(ByteBuffer segment) {
+		add(segment, null);
+	}
+
+	/**
+	 * Queues segment, which must be in read-mode. onDone (may be null) is run
+	 * once the segment has been written or discarded.
+	 *
+	 * @param segment
+	 * @param onDone
+	 */
+	void add(ByteBuffer segment, Runnable onDone) {
+		segments.add(segment);
+		callbacks.add(onDone == null ? NOTHING : onDone);
+		pendingBytes += segment.remaining();
+	}
+
+	boolean isEmpty() {
+		return segments.isEmpty();
+	}
+
+	/**
+	 * @return the number of queued segments, including a partially written one
+	 */
+	int size() {
+		return segments.size();
+	}
+
+	/**
+	 * @return the number of bytes still to be written
+	 */
+	long pendingBytes() {
+		return pendingBytes;
+	}
+
+	/**
+	 * Performs one gathering write of the head of the queue on channel.
+	 *
+	 * @param channel
+	 * @return the number of bytes written
+	 * @throws IOException
+	 */
+	long flush(GatheringByteChannel channel) throws IOException {
+		if (segments.isEmpty()) {
+			return 0;
+		}
+		var count = 0;
+		var budget = writeBudget;
+		ByteBuffer truncated = null;
+		var truncatedLimit = 0;
+		for (var segment : segments) {
+			if (count == gather.length || budget == 0) {
+				break;
+			}
+			if (segment.remaining() > budget) {
+				truncated = segment;
+				truncatedLimit = segment.limit();
+				segment.limit(segment.position() + budget);
+			}
+			budget -= segment.remaining();
+			gatherPositions[count] = segment.position();
+			gather[count++] = segment;
+		}
+		long written;
+		try {
+			written = channel.write(gather, 0, count);
+		} finally {
+			if (truncated != null) {
+				truncated.limit(truncatedLimit);
+			}
+		}
+		pendingBytes -= written;
+		var completed = 0;
+		while (!segments.isEmpty() && !segments.peek().hasRemaining()) {
+			segments.poll();
+			callbacks.poll().run();
+			completed++;
+		}
+		if (completed < count) {
+			headStarted = (completed == 0 && headStarted) || gather[completed].position() != gatherPositions[completed];
+		} else {
+			headStarted = false;
+		}
+		Arrays.fill(gather, 0, count, null);
+		return written;
+	}
+
+	/**
+	 * Discards the oldest segment that has not started to be written, running its
+	 * callback. A partially written segment is never dropped since the peer would
+	 * receive a truncated message.
+	 *
+	 * @return true if a segment was dropped
+	 */
+	boolean dropOldest() {
+		if (!headStarted) {
+			if (segments.isEmpty()) {
+				return false;
+			}
+			pendingBytes -= segments.poll().remaining();
+			callbacks.poll().run();
+			return true;
+		}
+		if (segments.size() < 2) {
+			return false;
+		}
+		var head = segments.poll();
+		var headCallback = callbacks.poll();
+		pendingBytes -= segments.poll().remaining();
+		callbacks.poll().run();
+		segments.addFirst(head);
+		callbacks.addFirst(headCallback);
+		return true;
+	}
+
+	/**
+	 * Discards every pending segment, running their callbacks.
+	 */
+	void clear() {
+		segments.clear();
+		pendingBytes = 0;
+		headStarted = false;
+		for (var callback = callbacks.poll(); callback != null; callback = callbacks.poll()) {
+			callback.run();
+		}
+	}
+}
@@ -0,0 +1,480 @@
+package fr.uge.exo1;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Building blocks to declare protocol frames instead of hand-coding a state
+ * machine for each of them. For example the chat message read by
+ * {@link MessageReader} is
+ *
+ * <pre>
+ * Readers.sequence(Readers.string(1_024), Readers.string(1_024), Message::new)
+ * </pre>
+ *
+ * Every reader follows the {@link Reader} contract: the buffer is in write-mode
+ * before and after process, process only consumes the bytes it needs, and get
+ * and reset do not allocate. A reader is built once and reset between frames.
+ */
+public final class Readers {
+	private Readers() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * Decodes the value found at offset in bb, without moving bb's position
+	 */
+	@FunctionalInterface
+	private interface Decoder<T> {
+		T decode(ByteBuffer bb, int offset);
+	}
+
+	/**
+	 * @return a reader of a big-endian int
+	 */
+	public static Reader<Integer> intReader() {
+		return new FixedSizeReader<>(Integer.BYTES, true, ByteBuffer::getInt);
+	}
+
+	/**
+	 * @return a reader of a big-endian long
+	 */
+	public static Reader<Long> longReader() {
+		return new FixedSizeReader<>(Long.BYTES, true, ByteBuffer::getLong);
+	}
+
+	/**
+	 * @return a reader of a single byte
+	 */
+	public static Reader<Byte> byteReader() {
+		return new FixedSizeReader<>(Byte.BYTES, true, ByteBuffer::get);
+	}
+
+	/**
+	 * @param size
+	 * @return a reader of exactly size bytes. The value is a read-only view on an
+	 *         internal buffer, only valid until the next reset.
+	 */
+	public static Reader<ByteBuffer> bytes(int size) {
+		if (size < 0) {
+			throw new IllegalArgumentException("size must be positive or zero");
+		}
+		return new FixedSizeReader<>(size, false, new BytesDecoder());
+	}
+
+	/**
+	 * @param maxSize
+	 * @param decoder gets the bytes in read-mode (only valid during the call)
+	 * @return a reader of an int size in [0, maxSize] followed by size bytes
+	 *         decoded by decoder. A size out of bounds is an ERROR.
+	 */
+	public static <T> Reader<T> lengthPrefixed(int maxSize, Function<? super ByteBuffer, ? extends T> decoder) {
+		if (maxSize < 0) {
+			throw new IllegalArgumentException("maxSize must be positive or zero");
+		}
+		Objects.requireNonNull(decoder);
+		return new LengthPrefixedReader<>(maxSize, decoder);
+	}
+
+	/**
+	 * @param maxSize the maximum size in bytes of the encoded string
+	 * @return a reader of an int size followed by size bytes in UTF-8
+	 */
+	public static Reader<String> string(int maxSize) {
+		return lengthPrefixed(maxSize, new Utf8Decoder(maxSize));
+	}
+
+	/**
+	 * @return a reader giving mapper applied to the value of reader
+	 */
+	public static <T, R> Reader<R> map(Reader<? extends T> reader, Function<? super T, ? extends R> mapper) {
+		Objects.requireNonNull(reader);
+		Objects.requireNonNull(mapper);
+		return new MapReader<>(reader, mapper);
+	}
+
+	/**
+	 * @return a reader of the value of first followed by the value of second,
+	 *         combined by combiner
+	 */
+	public static <A, B, R> Reader<R> sequence(Reader<? extends A> first, Reader<? extends B> second,
+			BiFunction<? super A, ? super B, ? extends R> combiner) {
+		Objects.requireNonNull(first);
+		Objects.requireNonNull(second);
+		Objects.requireNonNull(combiner);
+		return new SequenceReader<>(first, second, combiner);
+	}
+
+	/**
+	 * @return a reader of count consecutive values of reader
+	 */
+	public static <T> Reader<List<T>> repeat(Reader<? extends T> reader, int count) {
+		Objects.requireNonNull(reader);
+		if (count < 0) {
+			throw new IllegalArgumentException("count must be positive or zero");
+		}
+		return new RepeatReader<>(reader, count);
+	}
+
+	/**
+	 * Moves as many bytes as possible from from (read-mode) to to (write-mode)
+	 */
+	private static void transfer(ByteBuffer from, ByteBuffer to) {
+		if (from.remaining() <= to.remaining()) {
+			to.put(from);
+		} else {
+			var oldLimit = from.limit();
+			from.limit(from.position() + to.remaining());
+			to.put(from);
+			from.limit(oldLimit);
+		}
+	}
+
+	/**
+	 * UTF-8 decoding reusing its decoder and its CharBuffer, like StringReader
+	 */
+	private static final class Utf8Decoder implements Function<ByteBuffer, String> {
+		private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		private final CharBuffer charBuffer; // one UTF-8 byte gives at most one char
+
+		private Utf8Decoder(int maxSize) {
+			charBuffer = CharBuffer.allocate(maxSize);
+		}
+
+		@Override
+		public String apply(ByteBuffer bb) {
+			decoder.reset();
+			charBuffer.clear();
+			decoder.decode(bb, charBuffer, true);
+			decoder.flush(charBuffer);
+			return charBuffer.flip().toString();
+		}
+	}
+
+	/**
+	 * Gives the bytes of the internal buffer of a FixedSizeReader through a single
+	 * read-only view, created on the first decode and rewound on the next ones.
+	 */
+	private static final class BytesDecoder implements Decoder<ByteBuffer> {
+		private ByteBuffer view;
+
+		@Override
+		public ByteBuffer decode(ByteBuffer bb, int offset) {
+			if (view == null) {
+				view = bb.asReadOnlyBuffer(); // bb is always the same full internal buffer
+			}
+			return view.clear();
+		}
+	}
+
+	/**
+	 * Reads a fixed number of bytes, straight from the caller's buffer when they
+	 * are all there and inPlace is allowed, through internalBuffer otherwise.
+	 */
+	private static final class FixedSizeReader<T> implements Reader<T> {
+		private enum State {
+			DONE, WAITING, ERROR
+		}
+
+		private State state = State.WAITING;
+		private final ByteBuffer internalBuffer; // write-mode
+		private final boolean inPlace; // false when the value keeps a reference on the bytes
+		private final Decoder<? extends T> decoder;
+		private T value;
+
+		private FixedSizeReader(int size, boolean inPlace, Decoder<? extends T> decoder) {
+			this.internalBuffer = ByteBuffer.allocate(size);
+			this.inPlace = inPlace;
+			this.decoder = decoder;
+		}
+
+		@Override
+		public ProcessStatus process(ByteBuffer buffer) {
+			if (state == State.DONE || state == State.ERROR) {
+				throw new IllegalStateException();
+			}
+			buffer.flip();
+			try {
+				if (inPlace && internalBuffer.position() == 0 && buffer.remaining() >= internalBuffer.capacity()) {
+					// whole value available: decode in place, no copy
+					value = decoder.decode(buffer, buffer.position());
+					buffer.position(buffer.position() + internalBuffer.capacity());
+					state = State.DONE;
+					return ProcessStatus.DONE;
+				}
+				transfer(buffer, internalBuffer);
+			} finally {
+				buffer.compact();
+			}
+			if (internalBuffer.hasRemaining()) {
+				return ProcessStatus.REFILL;
+			}
+			state = State.DONE;
+			value = decoder.decode(internalBuffer.flip(), 0);
+			return ProcessStatus.DONE;
+		}
+
+		@Override
+		public T get() {
+			if (state != State.DONE) {
+				throw new IllegalStateException();
+			}
+			return value;
+		}
+
+		@Override
+		public void reset() {
+			state = State.WAITING;
+			internalBuffer.clear();
+			value = null;
+		}
+	}
+
+	private static final class LengthPrefixedReader<T> implements Reader<T> {
+		private enum State {
+			DONE, WAITINGSIZE, WAITINGBYTES, ERROR
+		}
+
+		private State state = State.WAITINGSIZE;
+		private final ByteBuffer sizeBuffer = ByteBuffer.allocate(Integer.BYTES); // write-mode
+		private final ByteBuffer internalBuffer; // write-mode
+		private final Function<? super ByteBuffer, ? extends T> decoder;
+		private final int maxSize;
+		private int size;
+		private T value;
+
+		private LengthPrefixedReader(int maxSize, Function<? super ByteBuffer, ? extends T> decoder) {
+			this.internalBuffer = ByteBuffer.allocate(maxSize);
+			this.decoder = decoder;
+			this.maxSize = maxSize;
+		}
+
+		@Override
+		public ProcessStatus process(ByteBuffer buffer) {
+			if (state == State.DONE || state == State.ERROR) {
+				throw new IllegalStateException();
+			}
+			buffer.flip(); // a single flip/compact for the size and the bytes
+			try {
+				if (state == State.WAITINGSIZE) {
+					if (sizeBuffer.position() == 0 && buffer.remaining() >= Integer.BYTES) {
+						size = buffer.getInt();
+					} else {
+						transfer(buffer, sizeBuffer);
+						if (sizeBuffer.hasRemaining()) {
+							return ProcessStatus.REFILL;
+						}
+						size = sizeBuffer.flip().getInt();
+					}
+					if (size < 0 || size > maxSize) {
+						state = State.ERROR;
+						return ProcessStatus.ERROR;
+					}
+					internalBuffer.limit(size);
+					state = State.WAITINGBYTES;
+				}
+				if (internalBuffer.position() == 0 && buffer.remaining() >= size) {
+					// whole value available: decode in place, no copy
+					var oldLimit = buffer.limit();
+					buffer.limit(buffer.position() + size);
+					value = decoder.apply(buffer);
+					buffer.position(buffer.limit()).limit(oldLimit);
+					state = State.DONE;
+					return ProcessStatus.DONE;
+				}
+				transfer(buffer, internalBuffer);
+			} finally {
+				buffer.compact();
+			}
+			if (internalBuffer.hasRemaining()) {
+				return ProcessStatus.REFILL;
+			}
+			state = State.DONE;
+			value = decoder.apply(internalBuffer.flip());
+			return ProcessStatus.DONE;
+		}
+
+		@Override
+		public T get() {
+			if (state != State.DONE) {
+				throw new IllegalStateException();
+			}
+			return value;
+		}
+
+		@Override
+		public void reset() {
+			state = State.WAITINGSIZE;
+			sizeBuffer.clear();
+			internalBuffer.clear();
+			value = null;
+		}
+	}
+
+	private static final class MapReader<T, R> implements Reader<R> {
+		private final Reader<? extends T> reader;
+		private final Function<? super T, ? extends R> mapper;
+		private boolean done;
+		private R value;
+
+		private MapReader(Reader<? extends T> reader, Function<? super T, ? extends R> mapper) {
+			this.reader = reader;
+			this.mapper = mapper;
+		}
+
+		@Override
+		public ProcessStatus process(ByteBuffer buffer) {
+			var status = reader.process(buffer);
+			if (status == ProcessStatus.DONE) {
+				value = mapper.apply(reader.get());
+				done = true;
+			}
+			return status;
+		}
+
+		@Override
+		public R get() {
+			if (!done) {
+				throw new IllegalStateException();
+			}
+			return value;
+		}
+
+		@Override
+		public void reset() {
+			reader.reset();
+			done = false;
+			value = null;
+		}
+	}
+
+	private static final class SequenceReader<A, B, R> implements Reader<R> {
+		private enum State {
+			DONE, WAITINGFIRST, WAITINGSECOND, ERROR
+		}
+
+		private State state = State.WAITINGFIRST;
+		private final Reader<? extends A> first;
+		private final Reader<? extends B> second;
+		private final BiFunction<? super A, ? super B, ? extends R> combiner;
+		private R value;
+
+		private SequenceReader(Reader<? extends A> first, Reader<? extends B> second,
+				BiFunction<? super A, ? super B, ? extends R> combiner) {
+			this.first = first;
+			this.second = second;
+			this.combiner = combiner;
+		}
+
+		@Override
+		public ProcessStatus process(ByteBuffer buffer) {
+			if (state == State.DONE || state == State.ERROR) {
+				throw new IllegalStateException();
+			}
+			if (state == State.WAITINGFIRST) {
+				var status = first.process(buffer);
+				if (status != ProcessStatus.DONE) {
+					if (status == ProcessStatus.ERROR) {
+						state = State.ERROR;
+					}
+					return status;
+				}
+				state = State.WAITINGSECOND;
+			}
+			var status = second.process(buffer);
+			if (status != ProcessStatus.DONE) {
+				if (status == ProcessStatus.ERROR) {
+					state = State.ERROR;
+				}
+				return status;
+			}
+			value = combiner.apply(first.get(), second.get());
+			state = State.DONE;
+			return ProcessStatus.DONE;
+		}
+
+		@Override
+		public R get() {
+			if (state != State.DONE) {
+				throw new IllegalStateException();
+			}
+			return value;
+		}
+
+		@Override
+		public void reset() {
+			state = State.WAITINGFIRST;
+			first.reset();
+			second.reset();
+			value = null;
+		}
+	}
+
+	private static final class RepeatReader<T> implements Reader<List<T>> {
+		private enum State {
+			DONE, WAITING, ERROR
+		}
+
+		private State state = State.WAITING;
+		private final Reader<? extends T> reader;
+		private final int count;
+		private final ArrayList<T> values;
+		private final List<T> view;
+
+		private RepeatReader(Reader<? extends T> reader, int count) {
+			this.reader = reader;
+			this.count = count;
+			this.values = new ArrayList<>(count);
+			this.view = Collections.unmodifiableList(values);
+		}
+
+		@Override
+		public ProcessStatus process(ByteBuffer buffer) {
+			if (state == State.DONE || state == State.ERROR) {
+				throw new IllegalStateException();
+			}
+			while (values.size() < count) {
+				var status = reader.process(buffer);
+				if (status != ProcessStatus.DONE) {
+					if (status == ProcessStatus.ERROR) {
+						state = State.ERROR;
+					}
+					return status;
+				}
+				values.add(reader.get());
+				reader.reset();
+			}
+			state = State.DONE;
+			return ProcessStatus.DONE;
+		}
+
+		/**
+		 * The list is a view only valid until the next reset
+		 */
+		@Override
+		public List<T> get() {
+			if (state != State.DONE) {
+				throw new IllegalStateException();
+			}
+			return view;
+		}
+
+		@Override
+		public void reset() {
+			state = State.WAITING;
+			reader.reset();
+			values.clear();
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package fr.uge.exo1;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReadersTest {
+
+    private static ByteBuffer encode(String login, String message) {
+        var loginBb = StandardCharsets.UTF_8.encode(login);
+        var messageBb = StandardCharsets.UTF_8.encode(message);
+        var bb = ByteBuffer.allocate(2 * Integer.BYTES + loginBb.remaining() + messageBb.remaining());
+        bb.putInt(loginBb.remaining()).put(loginBb).putInt(messageBb.remaining()).put(messageBb);
+        return bb.flip();
+    }
+
+    @Test
+    public void sequenceAsMessageReader() {
+        var reader = Readers.sequence(Readers.string(1_024), Readers.string(1_024), Message::new);
+        var bb = ByteBuffer.allocate(1024);
+        bb.put(encode("bob", "h€llo")).put(encode("alice", "a"));
+        assertEquals(Reader.ProcessStatus.DONE, reader.process(bb));
+        assertEquals(new Message("bob", "h€llo"), reader.get());
+        reader.reset();
+        assertEquals(Reader.ProcessStatus.DONE, reader.process(bb));
+        assertEquals(new Message("alice", "a"), reader.get());
+        assertEquals(0, bb.position());
+        assertEquals(bb.capacity(), bb.limit());
+    }
+
+    @Test
+    public void splitAtEveryOffset() {
+        var frame = encode("b€b", "😀 message");
+        var reader = Readers.sequence(Readers.string(1_024), Readers.string(1_024), Message::new);
+        for (var split = 0; split <= frame.limit(); split++) {
+            reader.reset();
+            var bb = ByteBuffer.allocate(1024);
+            bb.put(frame.array(), 0, split);
+            var status = reader.process(bb);
+            if (split < frame.limit()) {
+                assertEquals(Reader.ProcessStatus.REFILL, status);
+                bb.put(frame.array(), split, frame.limit() - split);
+                status = reader.process(bb);
+            }
+            assertEquals(Reader.ProcessStatus.DONE, status);
+            assertEquals(new Message("b€b", "😀 message"), reader.get());
+            assertEquals(0, bb.position());
+        }
+    }
+
+    @Test
+    public void byteByByte() {
+        var reader = Readers.sequence(Readers.longReader(), Readers.byteReader(), (l, b) -> l + b);
+        var frame = ByteBuffer.allocate(Long.BYTES + 1).putLong(1L << 40).put((byte) 3).flip();
+        var bb = ByteBuffer.allocate(1);
+        while (frame.hasRemaining()) {
+            bb.put(frame.get());
+            var expected = frame.hasRemaining() ? Reader.ProcessStatus.REFILL : Reader.ProcessStatus.DONE;
+            assertEquals(expected, reader.process(bb));
+        }
+        assertEquals((1L << 40) + 3, (long) reader.get());
+    }
+
+    @Test
+    public void repeatAndMap() {
+        var reader = Readers.repeat(Readers.map(Readers.intReader(), i -> i * 2), 3);
+        var bb = ByteBuffer.allocate(1024).putInt(1).putInt(2).putInt(3).putInt(4);
+        assertEquals(Reader.ProcessStatus.DONE, reader.process(bb));
+        assertEquals(List.of(2, 4, 6), reader.get());
+        assertEquals(Integer.BYTES, bb.position());
+    }
+
+    @Test
+    public void bytes() {
+        var reader = Readers.bytes(3);
+        var bb = ByteBuffer.allocate(1024).put(new byte[] { 1, 2, 3, 4 });
+        assertEquals(Reader.ProcessStatus.DONE, reader.process(bb));
+        var value = reader.get();
+        assertEquals(3, value.remaining());
+        assertEquals(3, value.get(2));
+        assertEquals(1, bb.position());
+    }
+
+    @Test
+    public void lengthPrefixedTooBig() {
+        var reader = Readers.lengthPrefixed(4, ByteBuffer::remaining);
+        var bb = ByteBuffer.allocate(1024).putInt(5).put(new byte[5]);
+        assertEquals(Reader.ProcessStatus.ERROR, reader.process(bb));
+        assertThrows(IllegalStateException.class, () -> reader.process(bb));
+    }
+
+    @Test
+    public void errorGet() {
+        var reader = Readers.sequence(Readers.intReader(), Readers.intReader(), Integer::sum);
+        assertThrows(IllegalStateException.class, () -> reader.get());
+    }
+}
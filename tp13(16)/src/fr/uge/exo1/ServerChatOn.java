@@ -9,9 +9,14 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
-import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -20,17 +25,26 @@ public class ServerChatOn {
 		private final SelectionKey key;
 		private final SocketChannel sc;
 		private final ByteBuffer bufferIn = ByteBuffer.allocate(BUFFER_SIZE);
-		private final ByteBuffer bufferOut = ByteBuffer.allocate(BUFFER_SIZE);
-		private final ArrayDeque<Message> queue = new ArrayDeque<>();
+		private final OutputQueue queue = new OutputQueue(MAX_GATHER, WRITE_BUDGET);
 		private final ServerChatOn server; // we could also have Context as an instance class, which would naturally
-		private final Charset UTF8 = StandardCharsets.UTF_8;							// give access to ServerChatInt.this
+											// give access to ServerChatInt.this
+		private final Worker owner; // null in single-reactor mode
+		private final AtomicInteger pausedBy = new AtomicInteger(); // slow consumers that paused this producer
+		private final HashSet<Context> pausedProducers = new HashSet<>(); // producers paused by this consumer
+		private final Deadlines deadlines;
+		private final SelectorMetrics.Connection connection;
+		private boolean droppingNewest = false;
 		private boolean closed = false;
+		private boolean midMessage = false; // bytes of an incomplete message were received
 		private MessageReader messageReader = new MessageReader();
 
-		private Context(ServerChatOn server, SelectionKey key) {
+		private Context(ServerChatOn server, SelectionKey key, Worker owner, Deadlines deadlines) {
 			this.key = key;
 			this.sc = (SocketChannel) key.channel();
 			this.server = server;
+			this.owner = owner;
+			this.deadlines = deadlines;
+			this.connection = server.metrics.newConnection(remoteToString(sc), sc);
 		}
 
 		/**
@@ -42,12 +56,16 @@ public class ServerChatOn {
 		 */
 		private void processIn() {
 			for (;;) {
+				if (pausedBy.get() > 0) {
+					return; // a slow consumer asked us to stop producing
+				}
 				Reader.ProcessStatus status = messageReader.process(bufferIn);
 				switch (status) {
 				case DONE:
 					var value = messageReader.get();
-					server.broadcast(value);
+					server.broadcast(value, this);
 					messageReader.reset();
+					midMessage = bufferIn.position() > 0;
 					break;
 				case REFILL:
 					return;
@@ -59,49 +77,113 @@ public class ServerChatOn {
 		}
 
 		/**
-		 * Add a message to the message queue, tries to fill bufferOut and updateInterestOps
+		 * Add a frame to the queue of this client, applies the flow control policy
+		 * and updateInterestOps. The frame is not copied, the context only keeps its
+		 * own view on it.
 		 *
-		 * @param msg
+		 * @param frame
+		 * @param producer the context that sent the message, may be null
 		 */
-		public void queueMessage(Message msg) {
-			// TODO
-			queue.add(msg);
-			processOut();
+		public void queueFrame(Frame frame, Context producer) {
+			var flowControl = server.flowControl;
+			if (flowControl.policy() == FlowControl.Policy.DROP_NEWEST
+					&& (droppingNewest || flowControl.isOverHigh(queue.pendingBytes() + frame.size(), queue.size() + 1))) {
+				droppingNewest = true;
+				server.countAction(FlowControl.Policy.DROP_NEWEST);
+				return;
+			}
+			if (queue.isEmpty()) {
+				deadlines.onQueued(System.currentTimeMillis());
+			}
+			queue.add(frame.retain().view(), frame::release);
+			if (flowControl.isOverHigh(queue.pendingBytes(), queue.size())) {
+				onOverHigh(producer);
+			}
 			updateInterestOps();
 		}
 
 		/**
-		 * Try to fill bufferOut from the message queue
+		 * Applies the flow control policy to this client which just crossed the high
+		 * watermark
 		 *
+		 * @param producer
+		 */
+		private void onOverHigh(Context producer) {
+			var flowControl = server.flowControl;
+			switch (flowControl.policy()) {
+			case DROP_OLDEST:
+				while (!flowControl.isUnderLow(queue.pendingBytes(), queue.size()) && queue.dropOldest()) {
+					server.countAction(FlowControl.Policy.DROP_OLDEST);
+				}
+				break;
+			case PAUSE_PRODUCERS:
+				if (producer != null && pausedProducers.add(producer)) {
+					producer.pausedBy.incrementAndGet();
+					server.countAction(FlowControl.Policy.PAUSE_PRODUCERS);
+				}
+				break;
+			case DISCONNECT:
+				logger.info("Disconnecting slow consumer");
+				server.countAction(FlowControl.Policy.DISCONNECT);
+				silentlyClose();
+				break;
+			case DROP_NEWEST:
+				break; // handled before queuing
+			}
+		}
+
+		/**
+		 * Called once this client is back under the low watermark
+		 */
+		private void resumeProducers() {
+			droppingNewest = false;
+			if (pausedProducers.isEmpty()) {
+				return;
+			}
+			var producers = List.copyOf(pausedProducers); // resuming may queue new frames on this context
+			pausedProducers.clear();
+			for (var producer : producers) {
+				if (producer.owner == owner) {
+					producer.resume();
+				} else {
+					producer.owner.submitResume(producer);
+				}
+			}
+		}
+
+		/**
+		 * Gives back one pause on this producer, must be called from the thread of
+		 * its selector
 		 */
-		private void processOut() {
-			// TODO
-			while(bufferOut.remaining()>=BUFFER_SIZE && !queue.isEmpty()) {
-				//bufferOut.putInt(queue.poll());
-				var message = queue.poll();
-				var loginBb = UTF8.encode(message.login());
-				var messageBb = UTF8.encode(message.message());
-				bufferOut.putInt(loginBb.remaining());
-				bufferOut.put(loginBb);
-				bufferOut.putInt(messageBb.remaining());
-				bufferOut.put(messageBb);
+		private void resume() {
+			if (pausedBy.decrementAndGet() > 0 || !key.isValid()) {
+				return;
 			}
+			processIn();
+			updateInterestOps();
 		}
 
 		/**
 		 * Update the interestOps of the key looking only at values of the boolean
-		 * closed and of both ByteBuffers.
+		 * closed, of bufferIn, of the frame queue and of the pause requests.
 		 *
-		 * The convention is that both buffers are in write-mode before the call to
+		 * The convention is that bufferIn is in write-mode before the call to
 		 * updateInterestOps and after the call. Also it is assumed that process has
 		 * been be called just before updateInterestOps.
 		 */
 
 		private void updateInterestOps() {
+			if (!key.isValid()) {
+				return; // already closed, e.g. after a reader error
+			}
 			var interestOps=0;
-			if(bufferOut.position()!=0) {
+			if(!queue.isEmpty()) {
 				interestOps|= SelectionKey.OP_WRITE;
 			}
+			if (pausedBy.get() > 0) {
+				key.interestOps(interestOps); // do not read while paused, wait for resume
+				return;
+			}
 			if(bufferIn.hasRemaining()&&!closed) {
 				interestOps |= SelectionKey.OP_READ;
 			}
@@ -113,11 +195,14 @@ public class ServerChatOn {
 		}
 
 		private void silentlyClose() {
+			deadlines.cancel();
 			try {
 				sc.close();
 			} catch (IOException e) {
 				// ignore exception
 			}
+			queue.clear();
+			resumeProducers();
 		}
 
 		/**
@@ -129,61 +214,272 @@ public class ServerChatOn {
 		 * @throws IOException
 		 */
 		private void doRead() throws IOException {
-			// TODO
-			if(sc.read(bufferIn)==-1) {
+			var count = sc.read(bufferIn);
+			connection.recordRead(count);
+			if(count==-1) {
 				logger.info("Channel Closed");
 				closed=true;
 			}
+			if(count > 0) {
+				midMessage = true;
+			}
 			processIn();
+			// a paused producer keeps complete messages in bufferIn, it is not slow
+			deadlines.onRead(System.currentTimeMillis(), count, midMessage && pausedBy.get() == 0);
 			updateInterestOps();
 		}
 
 		/**
-		 * Performs the write action on sc
-		 *
-		 * The convention is that both buffers are in write-mode before the call to
-		 * doWrite and after the call
+		 * Performs the write action on sc, gathering the pending frames straight
+		 * to the socket
 		 *
 		 * @throws IOException
 		 */
 
 		private void doWrite() throws IOException {
-			sc.write(bufferOut.flip());
-			bufferOut.compact();
+			server.metrics.recordQueueDepth(queue.size());
+			var written = queue.flush(sc);
+			connection.recordWrite(written);
+			deadlines.onWrite(System.currentTimeMillis(), written, !queue.isEmpty());
+			if (server.flowControl.isUnderLow(queue.pendingBytes(), queue.size())) {
+				resumeProducers();
+			}
 			updateInterestOps();
 		}
 
 	}
 
+	/**
+	 * A worker reactor: owns its own selector and the client keys registered on it.
+	 * Other threads never touch these keys directly, they hand channels and messages
+	 * over through lock-free queues and wake the selector up.
+	 */
+	private class Worker implements Runnable {
+		private final Selector workerSelector;
+		private final ConcurrentLinkedQueue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<>();
+		private final ConcurrentLinkedQueue<Broadcast> pendingBroadcasts = new ConcurrentLinkedQueue<>();
+		private final ConcurrentLinkedQueue<Context> pendingResumes = new ConcurrentLinkedQueue<>();
+		private final AtomicLong wakeupRequested = new AtomicLong(); // System.nanoTime() of the pending wakeup, 0 if none
+		private final SelectorMetrics.Loop loop = metrics.newLoop();
+		private final TimingWheel<Deadlines> wheel = new TimingWheel<>(TICK_MILLIS, WHEEL_SIZE, Deadlines::check,
+				System.currentTimeMillis());
+		private volatile int registered;
+
+		private Worker() throws IOException {
+			workerSelector = Selector.open();
+		}
+
+		/**
+		 * Hand a freshly accepted channel to this worker (called by the acceptor thread)
+		 *
+		 * @param sc
+		 */
+		private void assign(SocketChannel sc) {
+			pendingChannels.add(sc);
+			wakeup();
+		}
+
+		/**
+		 * Ask this worker to deliver a frame to all of its clients (called from any
+		 * thread). The worker owns one reference on the frame until it is delivered.
+		 *
+		 * @param broadcast
+		 */
+		private void submit(Broadcast broadcast) {
+			pendingBroadcasts.add(broadcast);
+			wakeup();
+		}
+
+		/**
+		 * Ask this worker to resume one of its producers (called by the worker of a
+		 * slow consumer)
+		 *
+		 * @param producer
+		 */
+		private void submitResume(Context producer) {
+			pendingResumes.add(producer);
+			wakeup();
+		}
+
+		/**
+		 * Only the first producer since the last select pays for the wakeup syscall
+		 */
+		private void wakeup() {
+			if (wakeupRequested.get() == 0 && wakeupRequested.compareAndSet(0, System.nanoTime() | 1)) {
+				workerSelector.wakeup();
+			}
+		}
+
+		private void treatKey(SelectionKey key) {
+			loop.onSelectedKey();
+			listener.onSelectedKey(key);
+			treatClientKey(key);
+		}
+
+		private int load() {
+			return registered + pendingChannels.size();
+		}
+
+		private void processCommands() throws IOException {
+			for (var sc = pendingChannels.poll(); sc != null; sc = pendingChannels.poll()) {
+				register(workerSelector, sc, this, wheel);
+			}
+			for (var producer = pendingResumes.poll(); producer != null; producer = pendingResumes.poll()) {
+				producer.resume();
+			}
+			for (var broadcast = pendingBroadcasts.poll(); broadcast != null; broadcast = pendingBroadcasts.poll()) {
+				deliver(workerSelector, broadcast.frame(), broadcast.producer());
+				broadcast.frame().release();
+			}
+			registered = workerSelector.keys().size();
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (!Thread.interrupted()) {
+					loop.beforeSelect();
+					listener.beforeSelect(workerSelector);
+					try {
+						listener.afterSelect(workerSelector, workerSelector.select(this::treatKey,
+								wheel.delayToNextExpiration(System.currentTimeMillis())));
+					} catch (UncheckedIOException tunneled) {
+						throw tunneled.getCause();
+					}
+					loop.afterSelect();
+					var requested = wakeupRequested.getAndSet(0);
+					if (requested != 0) {
+						metrics.recordWakeToWork(requested);
+					}
+					processCommands();
+					wheel.advance(System.currentTimeMillis());
+				}
+			} catch (IOException e) {
+				logger.log(Level.SEVERE, "Worker stopped due to IOException", e);
+			} finally {
+				workerSelector.keys().forEach(ServerChatOn.this::silentlyClose);
+				pendingBroadcasts.forEach(broadcast -> broadcast.frame().release());
+				try {
+					workerSelector.close();
+				} catch (IOException e) {
+					// ignore exception
+				}
+			}
+		}
+	}
+
+	private record Broadcast(Frame frame, Context producer) {}
+
 	private static final int BUFFER_SIZE = 2048 +2*Integer.BYTES;
+	private static final int MAX_GATHER = 64;
+	private static final int WRITE_BUDGET = 64 * 1_024;
+	private static final long TICK_MILLIS = 100;
+	private static final int WHEEL_SIZE = 512;
 	private static final Logger logger = Logger.getLogger(ServerChatOn.class.getName());
 
 	private final ServerSocketChannel serverSocketChannel;
 	private final Selector selector;
+	private volatile SelectorEventListener listener = SelectorEventListener.NONE;
+	private final SelectorMetrics metrics = new SelectorMetrics();
+	private final SelectorMetrics.Loop acceptorLoop = metrics.newLoop();
+	private final Worker[] workers;
+	private final FlowControl flowControl;
+	private final Deadlines.Timeouts timeouts;
+	private final TimingWheel<Deadlines> wheel = new TimingWheel<>(TICK_MILLIS, WHEEL_SIZE, Deadlines::check,
+			System.currentTimeMillis()); // single-reactor mode
+	private final EnumMap<FlowControl.Policy, LongAdder> flowControlActions = new EnumMap<>(FlowControl.Policy.class);
+	private int nextWorker;
 
 	public ServerChatOn(int port) throws IOException {
+		this(port, 0, FlowControl.DEFAULT);
+	}
+
+	/**
+	 * Builds a server with one acceptor and nbWorkers worker selectors. With 0
+	 * workers every client is served by the acceptor selector itself.
+	 *
+	 * @param port
+	 * @param nbWorkers
+	 * @param flowControl the limits applied to the output queue of every client
+	 * @throws IOException
+	 */
+	public ServerChatOn(int port, int nbWorkers, FlowControl flowControl) throws IOException {
+		this(port, nbWorkers, flowControl, Deadlines.Timeouts.DEFAULT);
+	}
+
+	/**
+	 * @param port
+	 * @param nbWorkers
+	 * @param flowControl
+	 * @param timeouts    the idle, read-progress and write-progress timeouts of
+	 *                    every client
+	 * @throws IOException
+	 */
+	ServerChatOn(int port, int nbWorkers, FlowControl flowControl, Deadlines.Timeouts timeouts) throws IOException {
+		if (nbWorkers < 0) {
+			throw new IllegalArgumentException("nbWorkers must be positive or zero");
+		}
+		this.flowControl = Objects.requireNonNull(flowControl);
+		this.timeouts = Objects.requireNonNull(timeouts);
+		for (var policy : FlowControl.Policy.values()) {
+			flowControlActions.put(policy, new LongAdder());
+		}
 		serverSocketChannel = ServerSocketChannel.open();
 		serverSocketChannel.bind(new InetSocketAddress(port));
 		selector = Selector.open();
+		workers = new Worker[nbWorkers];
+		for (var i = 0; i < nbWorkers; i++) {
+			workers[i] = new Worker();
+		}
+	}
+
+	/**
+	 * Replaces the listener of the selector loop, e.g. to turn the diagnostics on
+	 * at runtime
+	 *
+	 * @param listener
+	 */
+	public void setSelectorEventListener(SelectorEventListener listener) {
+		this.listener = Objects.requireNonNull(listener);
+	}
+
+	/**
+	 * @return the metrics of the selector loops, also registered in JMX by launch
+	 */
+	public SelectorMetrics metrics() {
+		return metrics;
 	}
 
 	public void launch() throws IOException {
 		serverSocketChannel.configureBlocking(false);
 		serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
-		while (!Thread.interrupted()) {
-			Helpers.printKeys(selector); // for debug
-			System.out.println("Starting select");
-			try {
-				selector.select(this::treatKey);
-			} catch (UncheckedIOException tunneled) {
-				throw tunneled.getCause();
+		metrics.register("ServerChatOn-" + ((InetSocketAddress) serverSocketChannel.getLocalAddress()).getPort());
+		var threads = new Thread[workers.length];
+		for (var i = 0; i < workers.length; i++) {
+			threads[i] = Thread.ofPlatform().name("chat-worker-" + i).start(workers[i]);
+		}
+		try {
+			while (!Thread.interrupted()) {
+				acceptorLoop.beforeSelect();
+				listener.beforeSelect(selector);
+				try {
+					listener.afterSelect(selector, selector.select(this::treatKey, wheel.delayToNextExpiration(System.currentTimeMillis())));
+				} catch (UncheckedIOException tunneled) {
+					throw tunneled.getCause();
+				}
+				acceptorLoop.afterSelect();
+				wheel.advance(System.currentTimeMillis());
+			}
+		} finally {
+			for (var thread : threads) {
+				thread.interrupt();
 			}
-			System.out.println("Select finished");
 		}
 	}
 
 	private void treatKey(SelectionKey key) {
-		Helpers.printSelectedKey(key); // for debug
+		acceptorLoop.onSelectedKey();
+		listener.onSelectedKey(key);
 		try {
 			if (key.isValid() && key.isAcceptable()) {
 				doAccept(key);
@@ -192,6 +488,10 @@ public class ServerChatOn {
 			// lambda call in select requires to tunnel IOException
 			throw new UncheckedIOException(ioe);
 		}
+		treatClientKey(key);
+	}
+
+	private void treatClientKey(SelectionKey key) {
 		try {
 			if (key.isValid() && key.isWritable()) {
 				((Context) key.attachment()).doWrite();
@@ -206,7 +506,6 @@ public class ServerChatOn {
 	}
 
 	private void doAccept(SelectionKey key) throws IOException {
-		// TODO
 		ServerSocketChannel ssc = (ServerSocketChannel) key.channel();
 		SocketChannel sc = ssc.accept();
 		if(sc==null) {
@@ -214,11 +513,74 @@ public class ServerChatOn {
 			return;
 		}
 		sc.configureBlocking(false);
-		var sKey = sc.register(selector, SelectionKey.OP_READ | SelectionKey.OP_WRITE);
-		sKey.attach(new Context(this, sKey));
+		metrics.recordAccept();
+		if (workers.length == 0) {
+			register(selector, sc, null, wheel);
+			return;
+		}
+		pickWorker().assign(sc);
+	}
+
+	/**
+	 * Picks the least loaded worker, scanning from a round-robin start so that ties
+	 * are spread evenly
+	 *
+	 * @return the worker that will own the next client
+	 */
+	private Worker pickWorker() {
+		var start = nextWorker;
+		nextWorker = (nextWorker + 1) % workers.length;
+		var best = workers[start];
+		for (var i = 1; i < workers.length; i++) {
+			var worker = workers[(start + i) % workers.length];
+			if (worker.load() < best.load()) {
+				best = worker;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Registers sc on target, its deadlines go in the wheel of the thread of
+	 * target
+	 */
+	private void register(Selector target, SocketChannel sc, Worker owner, TimingWheel<Deadlines> targetWheel)
+			throws IOException {
+		var sKey = sc.register(target, SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		var deadlines = new Deadlines(targetWheel, timeouts, expired -> {
+			logger.info("Connection closed with client due to " + expired + " timeout");
+			silentlyClose(sKey);
+		}, System.currentTimeMillis());
+		sKey.attach(new Context(this, sKey, owner, deadlines));
+	}
+
+	private void countAction(FlowControl.Policy policy) {
+		flowControlActions.get(policy).increment();
+	}
+
+	/**
+	 * @param policy
+	 * @return how many times the flow control applied policy: messages dropped for
+	 *         DROP_OLDEST and DROP_NEWEST, producers paused for PAUSE_PRODUCERS and
+	 *         clients disconnected for DISCONNECT
+	 */
+	public long flowControlActions(FlowControl.Policy policy) {
+		return flowControlActions.get(policy).sum();
+	}
+
+	private static String remoteToString(SocketChannel sc) {
+		try {
+			return sc.getRemoteAddress().toString();
+		} catch (IOException e) {
+			return "???";
+		}
 	}
 
 	private void silentlyClose(SelectionKey key) {
+		if (key.attachment() instanceof Context context) {
+			context.silentlyClose();
+			return;
+		}
 		Channel sc = (Channel) key.channel();
 		try {
 			sc.close();
@@ -228,30 +590,50 @@ public class ServerChatOn {
 	}
 
 	/**
-	 * Add a message to all connected clients queue
+	 * Add a message to all connected clients queue. The message is encoded once
+	 * and every client shares the same frame. In multi-reactor mode the frame is
+	 * handed to every worker which delivers it on its own thread.
 	 *
 	 * @param msg
+	 * @param producer the context that sent msg
 	 */
-	private void broadcast(Message msg) {
-		// TODO
-		for(var key : selector.keys()) {
+	private void broadcast(Message msg, Context producer) {
+		var frame = Frame.encode(msg);
+		if (workers.length == 0) {
+			deliver(selector, frame, producer);
+		} else {
+			for (var worker : workers) {
+				worker.submit(new Broadcast(frame.retain(), producer));
+			}
+		}
+		frame.release();
+	}
+
+	private static void deliver(Selector target, Frame frame, Context producer) {
+		for(var key : target.keys()) {
 			Context context = (Context) key.attachment();
-			if(context != null)
+			if(context != null && key.isValid())
 			{
-				context.queueMessage(msg);
+				context.queueFrame(frame, producer);
 			}
 		}
 	}
 
 	public static void main(String[] args) throws NumberFormatException, IOException {
-		if (args.length != 1) {
+		if (args.length < 1 || args.length > 6 || args.length == 4 || args.length == 5) {
 			usage();
 			return;
 		}
-		new ServerChatOn(Integer.parseInt(args[0])).launch();
+		var nbWorkers = args.length >= 2 ? Integer.parseInt(args[1]) : 0;
+		var flowControl = args.length >= 3 ? FlowControl.DEFAULT.withPolicy(FlowControl.Policy.valueOf(args[2]))
+				: FlowControl.DEFAULT;
+		var timeouts = args.length == 6
+				? new Deadlines.Timeouts(Long.parseLong(args[3]), Long.parseLong(args[4]), Long.parseLong(args[5]))
+				: Deadlines.Timeouts.DEFAULT;
+		new ServerChatOn(Integer.parseInt(args[0]), nbWorkers, flowControl, timeouts).launch();
 	}
 
 	private static void usage() {
-		System.out.println("Usage : ServerSumBetter port");
+		System.out.println("Usage : ServerChatOn port [nbWorkers [DROP_OLDEST|DROP_NEWEST|PAUSE_PRODUCERS|DISCONNECT [idleMillis readMillis writeMillis]]]");
 	}
 }
\ No newline at end of file
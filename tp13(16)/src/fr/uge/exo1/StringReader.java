@@ -1,9 +1,19 @@
 package fr.uge.exo1;
 
 import java.nio.ByteBuffer;
-import java.nio.charset.Charset;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
 
+/**
+ * Reads a string encoded as an int size followed by size bytes in UTF-8.
+ *
+ * When the whole string is already in the caller's buffer it is decoded in
+ * place, with a single flip/compact of the buffer. The bytes are only copied
+ * into internalBuffer when the string is split across several reads. The
+ * decoder and the CharBuffer are reused from one string to the next.
+ */
 public class StringReader implements Reader<String>{
 
 	private enum State{
@@ -13,16 +23,27 @@ public class StringReader implements Reader<String>{
 	private State state = State.WAITINGINT;
 	private static final int BUFFER_SIZE = 1024;
 	private final ByteBuffer internalBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+	private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private final CharBuffer charBuffer = CharBuffer.allocate(BUFFER_SIZE); // one UTF-8 byte gives at most one char
 	private String stringValue;
-	private Charset UTF8 = StandardCharsets.UTF_8;
 	private IntReader intReader = new IntReader();
+	private boolean accumulating = false; // part of the current string is in intReader or internalBuffer
 	private int size;
-	
+
 	@Override
 	public ProcessStatus process(ByteBuffer buffer) {
 		if(state == State.DONE || state == State.ERROR) {
 			throw new IllegalStateException();
 		}
+		if(!accumulating) {
+			var status = processInPlace(buffer);
+			if(status != ProcessStatus.REFILL) {
+				return status;
+			}
+			accumulating = true;
+		}
 		if(state == State.WAITINGINT) {
 			var reader = intReader.process(buffer);
 			if(reader  == ProcessStatus.REFILL) {
@@ -37,7 +58,7 @@ public class StringReader implements Reader<String>{
 				state = State.WAITINGSTRING;
 			}
 		}
-		
+
 		if(state == State.WAITINGSTRING) {
 			buffer.flip();
 			var missing = size -internalBuffer.position();
@@ -58,11 +79,54 @@ public class StringReader implements Reader<String>{
 			}
 			state = State.DONE;
 			internalBuffer.flip();
-			stringValue = UTF8.decode(internalBuffer).toString();
+			stringValue = decode(internalBuffer);
 		}
 		return ProcessStatus.DONE;
 	}
 
+	/**
+	 * Decodes the string straight from buffer if the size and all the bytes are
+	 * there. Otherwise nothing is consumed and REFILL is returned.
+	 */
+	private ProcessStatus processInPlace(ByteBuffer buffer) {
+		buffer.flip();
+		try {
+			if(buffer.remaining() < Integer.BYTES) {
+				return ProcessStatus.REFILL;
+			}
+			var stringSize = buffer.getInt(buffer.position());
+			if(stringSize < 0 || stringSize > BUFFER_SIZE) {
+				buffer.position(buffer.position() + Integer.BYTES);
+				state = State.ERROR;
+				return ProcessStatus.ERROR;
+			}
+			if(buffer.remaining() < Integer.BYTES + stringSize) {
+				return ProcessStatus.REFILL;
+			}
+			buffer.position(buffer.position() + Integer.BYTES);
+			var oldLimit = buffer.limit();
+			buffer.limit(buffer.position() + stringSize);
+			stringValue = decode(buffer);
+			buffer.limit(oldLimit);
+			state = State.DONE;
+			return ProcessStatus.DONE;
+		} finally {
+			buffer.compact();
+		}
+	}
+
+	/**
+	 * Decodes all the remaining bytes of bb with the reused decoder
+	 */
+	private String decode(ByteBuffer bb) {
+		decoder.reset();
+		charBuffer.clear();
+		decoder.decode(bb, charBuffer, true);
+		decoder.flush(charBuffer);
+		bb.position(bb.limit());
+		return charBuffer.flip().toString();
+	}
+
 	@Override
 	public String get() {
 		if(state!=State.DONE) {
@@ -74,8 +138,9 @@ public class StringReader implements Reader<String>{
 	@Override
 	public void reset() {
 		state = State.WAITINGINT;
+		accumulating = false;
 		intReader.reset();
 		internalBuffer.clear();
-		
+
 	}
 }
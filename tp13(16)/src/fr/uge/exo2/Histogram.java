@@ -0,0 +1,104 @@
+package fr.uge.exo2;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of non-negative longs, in the spirit of HdrHistogram.
+ *
+ * Values are counted in log-linear buckets: 16 linear sub-buckets per power of
+ * two, so a bucket covers at most 1/16th of its values (about 6% of precision)
+ * and the whole long range fits in less than 1000 counters. Recording is one
+ * atomic increment plus two LongAdder updates, it never allocates and never
+ * blocks, so it can be called from the selector loops. Reading (percentiles,
+ * mean) scans the buckets and is meant for the console and JMX.
+ */
+final class Histogram {
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * Records value, negative values are recorded as 0
+	 *
+	 * @param value
+	 */
+	void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		counts.incrementAndGet(index(value));
+		count.increment();
+		sum.add(value);
+		max.accumulate(value);
+	}
+
+	long count() {
+		return count.sum();
+	}
+
+	long max() {
+		return max.get();
+	}
+
+	double mean() {
+		var n = count.sum();
+		return n == 0 ? 0 : (double) sum.sum() / n;
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return the highest value of the bucket holding the percentile, capped by
+	 *         the max, or 0 if nothing was recorded
+	 */
+	long percentile(double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException();
+		}
+		var total = 0L;
+		for (var i = 0; i < BUCKETS; i++) {
+			total += counts.get(i);
+		}
+		if (total == 0) {
+			return 0;
+		}
+		var rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+		var seen = 0L;
+		for (var i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(highestValue(i), max());
+			}
+		}
+		return max();
+	}
+
+	@Override
+	public String toString() {
+		return "n=" + count() + " mean=" + Math.round(mean()) + " p50=" + percentile(50) + " p99=" + percentile(99)
+				+ " max=" + max();
+	}
+
+	private static int index(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		var shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return shift * SUB_BUCKETS + (int) (value >>> shift); // value >>> shift is in [16, 32[
+	}
+
+	private static long highestValue(int index) {
+		if (index < 2 * SUB_BUCKETS) {
+			return index;
+		}
+		var shift = index / SUB_BUCKETS - 1;
+		var top = (long) (index % SUB_BUCKETS + SUB_BUCKETS);
+		return ((top + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,334 @@
+package fr.uge.exo2;
+
+import java.lang.management.ManagementFactory;
+import java.nio.channels.Channel;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Metrics of the selector loops of a server:
+ * <ul>
+ * <li>work: time from the first selected key (or the return of select if no key
+ * was selected) to the next select, and number of keys per wakeup,</li>
+ * <li>wake to work: time from a wakeup requested by another thread to the
+ * processing of its command by the selector thread,</li>
+ * <li>bytes of each read and write syscall on the client channels,</li>
+ * <li>bytes and syscalls of the reads and writes of each connection,</li>
+ * <li>depth of the output queue of a client each time it is flushed,</li>
+ * <li>accepted connections.</li>
+ * </ul>
+ * Everything is recorded lock-free in {@link Histogram}s and LongAdders, so
+ * several selector threads can share one registry. Each selector thread records
+ * its loop through its own {@link Loop}, and each connection its syscalls
+ * through its own {@link Connection}.
+ */
+public final class SelectorMetrics implements SelectorMetricsMXBean {
+	private static final Logger logger = Logger.getLogger(SelectorMetrics.class.getName());
+	private static final int MIN_PRUNE_THRESHOLD = 1_024;
+	private static final int TOP_CONNECTIONS = 10;
+
+	private final Histogram workNanos = new Histogram();
+	private final Histogram keysPerWakeup = new Histogram();
+	private final Histogram wakeToWorkNanos = new Histogram();
+	private final Histogram readBytes = new Histogram();
+	private final Histogram writeBytes = new Histogram();
+	private final Histogram queueDepth = new Histogram();
+	private final LongAdder totalReadBytes = new LongAdder();
+	private final LongAdder totalWriteBytes = new LongAdder();
+	private final LongAdder accepts = new LongAdder();
+	private final long startNanos = System.nanoTime();
+	private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+	private volatile int pruneThreshold = MIN_PRUNE_THRESHOLD; // a racy update only prunes once more
+
+	/**
+	 * The state of one selector loop, only used by the thread of the selector
+	 */
+	final class Loop {
+		private long workStart; // 0 while waiting in select
+		private int keys;
+
+		void beforeSelect() {
+			if (workStart != 0) {
+				workNanos.record(System.nanoTime() - workStart);
+				keysPerWakeup.record(keys);
+			}
+			workStart = 0;
+			keys = 0;
+		}
+
+		void onSelectedKey() {
+			if (keys++ == 0) {
+				workStart = System.nanoTime();
+			}
+		}
+
+		void afterSelect() {
+			if (workStart == 0) {
+				workStart = System.nanoTime(); // woken up without key, e.g. to run commands
+			}
+		}
+	}
+
+	Loop newLoop() {
+		return new Loop();
+	}
+
+	/**
+	 * The counters of one connection. They are only written by the thread of
+	 * its selector, a single writer, and are volatile so that the console and
+	 * JMX read up-to-date values. A connection leaves the registry once its
+	 * channel is closed.
+	 */
+	final class Connection {
+		private final String name;
+		private final Channel channel;
+		private volatile long reads;
+		private volatile long readBytes;
+		private volatile long writes;
+		private volatile long writeBytes;
+
+		private Connection(String name, Channel channel) {
+			this.name = Objects.requireNonNull(name);
+			this.channel = Objects.requireNonNull(channel);
+		}
+
+		/**
+		 * @param count the result of a read syscall on the channel
+		 */
+		void recordRead(long count) {
+			reads++;
+			if (count > 0) {
+				readBytes += count;
+			}
+			SelectorMetrics.this.recordRead(count);
+		}
+
+		/**
+		 * @param count the result of a write syscall on the channel
+		 */
+		void recordWrite(long count) {
+			writes++;
+			writeBytes += count;
+			SelectorMetrics.this.recordWrite(count);
+		}
+
+		long reads() {
+			return reads;
+		}
+
+		long readBytes() {
+			return readBytes;
+		}
+
+		long writes() {
+			return writes;
+		}
+
+		long writeBytes() {
+			return writeBytes;
+		}
+
+		long bytes() {
+			return readBytes + writeBytes;
+		}
+
+		@Override
+		public String toString() {
+			return name + " reads=" + reads + " (" + readBytes + " B) writes=" + writes + " (" + writeBytes + " B)";
+		}
+	}
+
+	/**
+	 * Registers the counters of a connection just accepted. The closed
+	 * connections are removed here once their number doubled since the last
+	 * removal, so the registry stays proportional to the open connections.
+	 *
+	 * @param name    shown by the console and JMX, e.g. the remote address
+	 * @param channel
+	 * @return the counters of the connection
+	 */
+	Connection newConnection(String name, Channel channel) {
+		var connection = new Connection(name, channel);
+		connections.add(connection);
+		if (connections.size() >= pruneThreshold) {
+			pruneClosed();
+			pruneThreshold = Math.max(MIN_PRUNE_THRESHOLD, 2 * connections.size());
+		}
+		return connection;
+	}
+
+	/**
+	 * @param n
+	 * @return the n open connections that read and wrote the most bytes
+	 */
+	List<Connection> top(int n) {
+		pruneClosed();
+		return connections.stream().sorted(Comparator.comparingLong(Connection::bytes).reversed()).limit(n).toList();
+	}
+
+	private void pruneClosed() {
+		connections.removeIf(connection -> !connection.channel.isOpen());
+	}
+
+	/**
+	 * @param requestNanos the System.nanoTime() of the wakeup request
+	 */
+	void recordWakeToWork(long requestNanos) {
+		wakeToWorkNanos.record(System.nanoTime() - requestNanos);
+	}
+
+	/**
+	 * @param count the result of a read syscall
+	 */
+	void recordRead(long count) {
+		if (count > 0) {
+			totalReadBytes.add(count);
+		}
+		readBytes.record(count);
+	}
+
+	/**
+	 * @param count the result of a write syscall
+	 */
+	void recordWrite(long count) {
+		totalWriteBytes.add(count);
+		writeBytes.record(count);
+	}
+
+	void recordQueueDepth(long depth) {
+		queueDepth.record(depth);
+	}
+
+	void recordAccept() {
+		accepts.increment();
+	}
+
+	/**
+	 * Registers this registry in the platform MBean server, failures are only
+	 * logged since the server can run without JMX
+	 *
+	 * @param name
+	 */
+	void register(String name) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+					new ObjectName("fr.uge:type=SelectorMetrics,name=" + ObjectName.quote(name)));
+		} catch (JMException e) {
+			logger.log(Level.WARNING, "Cannot register the metrics in JMX", e);
+		}
+	}
+
+	@Override
+	public long getWakeups() {
+		return keysPerWakeup.count();
+	}
+
+	@Override
+	public double getKeysPerWakeupMean() {
+		return keysPerWakeup.mean();
+	}
+
+	@Override
+	public long getKeysPerWakeupMax() {
+		return keysPerWakeup.max();
+	}
+
+	@Override
+	public long getWorkNanosP50() {
+		return workNanos.percentile(50);
+	}
+
+	@Override
+	public long getWorkNanosP99() {
+		return workNanos.percentile(99);
+	}
+
+	@Override
+	public long getWorkNanosMax() {
+		return workNanos.max();
+	}
+
+	@Override
+	public long getWakeToWorkNanosP50() {
+		return wakeToWorkNanos.percentile(50);
+	}
+
+	@Override
+	public long getWakeToWorkNanosP99() {
+		return wakeToWorkNanos.percentile(99);
+	}
+
+	@Override
+	public long getReads() {
+		return readBytes.count();
+	}
+
+	@Override
+	public long getReadBytes() {
+		return totalReadBytes.sum();
+	}
+
+	@Override
+	public long getWrites() {
+		return writeBytes.count();
+	}
+
+	@Override
+	public long getWriteBytes() {
+		return totalWriteBytes.sum();
+	}
+
+	@Override
+	public long getQueueDepthP50() {
+		return queueDepth.percentile(50);
+	}
+
+	@Override
+	public long getQueueDepthP99() {
+		return queueDepth.percentile(99);
+	}
+
+	@Override
+	public long getQueueDepthMax() {
+		return queueDepth.max();
+	}
+
+	@Override
+	public long getAccepts() {
+		return accepts.sum();
+	}
+
+	@Override
+	public double getAcceptsPerSecond() {
+		return accepts.sum() * 1e9 / Math.max(1, System.nanoTime() - startNanos);
+	}
+
+	@Override
+	public int getConnections() {
+		pruneClosed();
+		return connections.size();
+	}
+
+	@Override
+	public String[] getTopConnections() {
+		return top(TOP_CONNECTIONS).stream().map(Connection::toString).toArray(String[]::new);
+	}
+
+	@Override
+	public String toString() {
+		return "work ns: " + workNanos + "\nkeys per wakeup: " + keysPerWakeup + "\nwake to work ns: "
+				+ wakeToWorkNanos + "\nread bytes: " + readBytes + "\nwrite bytes: " + writeBytes
+				+ "\nqueue depth: " + queueDepth + "\naccepts: " + getAccepts() + " ("
+				+ String.format("%.1f", getAcceptsPerSecond()) + "/s)\nconnections: " + getConnections()
+				+ String.join("", top(TOP_CONNECTIONS).stream().map(connection -> "\n\t" + connection).toList());
+	}
+}
@@ -0,0 +1,55 @@
+package fr.uge.exo2;
+
+/**
+ * JMX view of {@link SelectorMetrics}, registered as
+ * fr.uge:type=SelectorMetrics,name=&lt;server&gt;-&lt;port&gt;. Times are in
+ * nanoseconds, counters are totals since the start of the server or of the
+ * connection.
+ */
+public interface SelectorMetricsMXBean {
+
+	long getWakeups();
+
+	double getKeysPerWakeupMean();
+
+	long getKeysPerWakeupMax();
+
+	long getWorkNanosP50();
+
+	long getWorkNanosP99();
+
+	long getWorkNanosMax();
+
+	long getWakeToWorkNanosP50();
+
+	long getWakeToWorkNanosP99();
+
+	long getReads();
+
+	long getReadBytes();
+
+	long getWrites();
+
+	long getWriteBytes();
+
+	long getQueueDepthP50();
+
+	long getQueueDepthP99();
+
+	long getQueueDepthMax();
+
+	long getAccepts();
+
+	double getAcceptsPerSecond();
+
+	/**
+	 * @return the number of open connections
+	 */
+	int getConnections();
+
+	/**
+	 * @return the bytes and syscalls of the reads and writes of the open
+	 *         connections that transferred the most bytes
+	 */
+	String[] getTopConnections();
+}
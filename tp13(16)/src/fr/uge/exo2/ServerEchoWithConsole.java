@@ -4,13 +4,15 @@ import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
-import java.nio.channels.AsynchronousCloseException;
 import java.nio.channels.Channel;
-import java.nio.channels.ClosedSelectorException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Objects;
 import java.util.Scanner;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -20,11 +22,21 @@ public class ServerEchoWithConsole {
 		private final SelectionKey key;
 		private final SocketChannel sc;
 		private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		private final SelectorMetrics metrics;
+		private final String remote;
+		private final SelectorMetrics.Connection connection;
 		private boolean closed = false;
+		private boolean outputShutdown; // half-closed by the drain, what is read is discarded
+		private boolean aborted; // closed by the server without draining
+		private long lastActivity = System.currentTimeMillis();
+		private long topMark; // bytes of the connection at the last TOP
 
-		private Context(SelectionKey key) {
+		private Context(SelectionKey key, SelectorMetrics metrics) {
 			this.key = key;
 			this.sc = (SocketChannel) key.channel();
+			this.metrics = metrics;
+			this.remote = remoteToString(sc);
+			this.connection = metrics.newConnection(remote, sc);
 		}
 
 		/**
@@ -36,7 +48,7 @@ public class ServerEchoWithConsole {
 		private void updateInterestOps() {
 			// TODO
 			var interestOps = 0;
-			if(buffer.position()!=0 && !closed) {
+			if(buffer.position()!=0 && !outputShutdown) { // what was read is still echoed once closed
 				interestOps |= SelectionKey.OP_WRITE;
 			}
 			if(buffer.hasRemaining() && !closed) {
@@ -59,7 +71,15 @@ public class ServerEchoWithConsole {
 		 */
 		private void doRead() throws IOException {
 			// TODO
-			if(sc.read(buffer)==-1) {
+			var count = sc.read(buffer);
+			connection.recordRead(count);
+			if(count>0) {
+				lastActivity = System.currentTimeMillis();
+				if(outputShutdown) {
+					buffer.clear(); // the echo can no longer be sent
+				}
+			}
+			if(count==-1) {
 				logger.info("not all received");
 				closed=true;
 				updateInterestOps();
@@ -78,12 +98,51 @@ public class ServerEchoWithConsole {
 		 */
 		private void doWrite() throws IOException {
 			// TODO
+			metrics.recordQueueDepth(buffer.position()); // pending bytes, the echo has no queue of messages
 			buffer.flip();
-			sc.write(buffer);
+			var written = sc.write(buffer);
+			connection.recordWrite(written);
+			if(written>0) {
+				lastActivity = System.currentTimeMillis();
+			}
 			buffer.compact();
 			updateInterestOps();
 		}
 
+		/**
+		 * One step of the drain: once the pending bytes are echoed and the client
+		 * sent nothing for idleMillis, half-closes the connection. The client then
+		 * sees the end of the stream and the socket is closed when it closes its
+		 * side.
+		 *
+		 * @param now
+		 * @param idleMillis
+		 */
+		private void drain(long now, long idleMillis) {
+			if(outputShutdown || buffer.position()!=0 || now-lastActivity<idleMillis) {
+				return;
+			}
+			try {
+				sc.shutdownOutput();
+			} catch (IOException e) {
+				aborted = true;
+				silentlyClose();
+				return;
+			}
+			outputShutdown = true;
+			updateInterestOps();
+		}
+
+		/**
+		 * @return the bytes read and written since the last call
+		 */
+		private long bytesSinceMark() {
+			var total = connection.bytes();
+			var recent = total-topMark;
+			topMark = total;
+			return recent;
+		}
+
 		private void silentlyClose() {
 			try {
 				sc.close();
@@ -93,18 +152,46 @@ public class ServerEchoWithConsole {
 		}
 	}
 
+	/**
+	 * A line of the console, executed by the selector thread
+	 */
+	private record Command(String line, long requestNanos) {
+	}
+
 	private static final int BUFFER_SIZE = 1_024;
+	private static final int DEBUG_PERIOD = 100; // DEBUG logs one select and one key out of DEBUG_PERIOD
+	private static final int TOP_DEFAULT = 5;
+	private static final long DRAIN_TIMEOUT_MILLIS = 30_000; // default global deadline of DRAIN
+	private static final long DRAIN_IDLE_MILLIS = 500; // a draining connection is half-closed after this idle time
+	private static final long DRAIN_CHECK_MILLIS = 100; // select timeout while draining
 	private static final Logger logger = Logger.getLogger(ServerEchoWithConsole.class.getName());
 
 	private final ServerSocketChannel serverSocketChannel;
 	private final Selector selector;
+	private volatile SelectorEventListener listener = SelectorEventListener.NONE;
+	private final SelectorMetrics metrics = new SelectorMetrics();
+	private final SelectorMetrics.Loop loop = metrics.newLoop();
 	private final Thread console;
+	private final ArrayDeque<Command> commandQueue = new ArrayDeque<>();
+	private final Object lock = new Object();
+	// only used by the selector thread
+	private boolean stopped;
+	private boolean draining;
+	private final ArrayList<Context> drainingContexts = new ArrayList<>();
+	private long drainStart;
+	private long drainDeadline;
+	private int drainClean;
+	private int drainForced;
+	private long statsNanos = System.nanoTime();
+	private long statsReadBytes;
+	private long statsWriteBytes;
 
 	public ServerEchoWithConsole(int port) throws IOException {
 		serverSocketChannel = ServerSocketChannel.open();
 		serverSocketChannel.bind(new InetSocketAddress(port));
 		selector = Selector.open();
-		console = Thread.ofPlatform().unstarted(this::consoleRun);
+		// daemon since it blocks on System.in, it must not keep the JVM alive once the server stopped
+		console = Thread.ofPlatform().daemon().unstarted(this::consoleRun);
 	}
 
 	public boolean clientConnected(SelectionKey selectedKey) {
@@ -114,70 +201,302 @@ public class ServerEchoWithConsole {
 	private void consoleRun() {
 		try (var scanner = new Scanner(System.in)){
 			while (scanner.hasNextLine()) {
-				var command = scanner.nextLine();
-				switch(command) {
-				case "INFO":{
-					var nbClient =selector.keys().stream().filter(this::clientConnected).count();
-					logger.info("Connected client : "+ nbClient);
-					break;
-				}
-				case "SHUTDOWN":{
-					logger.info("Shutdown");
-					try {
-						serverSocketChannel.close();
-					}catch(AsynchronousCloseException e) {
-						logger.info("Close server connections");
-					}catch (IOException e) {
-						logger.severe("IOExeption");
-					}
-					break;
-				}
-				case "SHUTDOWNNOW":{
-					logger.info("ShutdownNow");
-					selector.keys().forEach(this::silentlyClose);
-					try {
-						selector.close();
-					} catch (IOException e) {;
-					}
-					try {
-						Thread.currentThread().interrupt();
-						serverSocketChannel.close();
-					}catch(AsynchronousCloseException e) {
-						logger.info("Close server connections");
-						return;
-					}catch (IOException e) {
-						logger.severe("IOExeption");
-						return;
-					}
-					break;
-				}
-				default:{
-					logger.info("Available commands: \n - INFO\n - SHUTDOWN\n - SHUTDOWNNOW");
-				}
-				}
+				sendCommand(scanner.nextLine());
 			}
 		}
 		logger.info("Console thread stopping");
 	}
 
+	/**
+	 * Sends a command to the selector thread via the command queue and wakes it
+	 * up, the console thread never touches the keys or the contexts
+	 *
+	 * @param line
+	 */
+	private void sendCommand(String line) {
+		synchronized(lock) {
+			commandQueue.add(new Command(line, System.nanoTime()));
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 * Processes the commands of the command queue, on the selector thread
+	 */
+	private void processCommands() {
+		while(true) {
+			Command command;
+			synchronized(lock) {
+				command = commandQueue.poll();
+			}
+			if(command==null) {
+				return;
+			}
+			metrics.recordWakeToWork(command.requestNanos());
+			executeCommand(command.line());
+		}
+	}
+
+	private void executeCommand(String line) {
+		var tokens = line.trim().split("\\s+", 2);
+		var argument = tokens.length == 2 ? tokens[1] : null;
+		switch(tokens[0]) {
+		case "INFO":{
+			logger.info("Connected client : "+ clientContexts().size() + (draining ? " (draining)" : ""));
+			break;
+		}
+		case "STATS":{
+			logger.info(stats());
+			break;
+		}
+		case "TOP":{
+			try {
+				logger.info(top(argument == null ? TOP_DEFAULT : Integer.parseInt(argument)));
+			} catch (NumberFormatException e) {
+				logger.info("TOP expects a number of connections");
+			}
+			break;
+		}
+		case "KICK":{
+			kick(argument);
+			break;
+		}
+		case "DRAIN":{
+			try {
+				startDrain(argument == null ? DRAIN_TIMEOUT_MILLIS : Long.parseLong(argument) * 1_000);
+			} catch (NumberFormatException e) {
+				logger.info("DRAIN expects a timeout in seconds");
+			}
+			break;
+		}
+		case "SHUTDOWN":{
+			logger.info("Shutdown");
+			closeServerSocketChannel();
+			break;
+		}
+		case "SHUTDOWNNOW":{
+			logger.info("ShutdownNow");
+			if (draining) {
+				logger.info(drainReport() + ", " + drainingContexts.size() + " left open");
+			}
+			selector.keys().forEach(this::silentlyClose);
+			stopped = true; // the loop closes the selector, it is never closed under its feet
+			break;
+		}
+		case "DEBUG":{
+			setSelectorEventListener(SelectorEventListener.sampledLogging(logger, DEBUG_PERIOD));
+			break;
+		}
+		case "COUNTERS":{
+			if (listener instanceof SelectorEventListener.Counters counters) {
+				logger.info(counters.toString());
+			} else {
+				setSelectorEventListener(new SelectorEventListener.Counters());
+				logger.info("Counting selector events");
+			}
+			break;
+		}
+		case "METRICS":{
+			logger.info(metrics.toString());
+			break;
+		}
+		case "QUIET":{
+			setSelectorEventListener(SelectorEventListener.NONE);
+			break;
+		}
+		default:{
+			logger.info("Available commands: \n - INFO\n - STATS\n - TOP [n]\n - KICK address\n - DRAIN [timeout in seconds]\n - SHUTDOWN\n - SHUTDOWNNOW\n - DEBUG\n - COUNTERS\n - QUIET\n - METRICS");
+		}
+		}
+	}
+
+	private ArrayList<Context> clientContexts() {
+		var contexts = new ArrayList<Context>();
+		for (var key : selector.keys()) {
+			if (key.isValid() && key.attachment() instanceof Context context) {
+				contexts.add(context);
+			}
+		}
+		return contexts;
+	}
+
+	/**
+	 * @return the throughput since the previous STATS, the totals and the p99 of
+	 *         the loop latencies
+	 */
+	private String stats() {
+		var now = System.nanoTime();
+		var readBytes = metrics.getReadBytes();
+		var writeBytes = metrics.getWriteBytes();
+		var seconds = Math.max(1, now - statsNanos) / 1e9;
+		var stats = String.format(
+				"clients=%d read=%d B (%.0f B/s) written=%d B (%.0f B/s) work p99=%d ns wake to work p99=%d ns",
+				clientContexts().size(), readBytes, (readBytes - statsReadBytes) / seconds, writeBytes,
+				(writeBytes - statsWriteBytes) / seconds, metrics.getWorkNanosP99(), metrics.getWakeToWorkNanosP99());
+		statsNanos = now;
+		statsReadBytes = readBytes;
+		statsWriteBytes = writeBytes;
+		return stats;
+	}
+
+	/**
+	 * @param limit
+	 * @return the limit connections that read and wrote the most bytes since the
+	 *         previous TOP
+	 */
+	private String top(int limit) {
+		record Entry(Context context, long recent) {
+		}
+		var entries = new ArrayList<Entry>();
+		for (var context : clientContexts()) {
+			entries.add(new Entry(context, context.bytesSinceMark()));
+		}
+		entries.sort(Comparator.comparingLong(Entry::recent).reversed());
+		var builder = new StringBuilder("Busiest connections:");
+		for (var entry : entries.subList(0, Math.min(limit, entries.size()))) {
+			var context = entry.context();
+			var connection = context.connection;
+			builder.append("\n\t").append(context.remote).append(" : ").append(entry.recent())
+					.append(" B since last TOP, read=").append(connection.readBytes()).append(" B in ")
+					.append(connection.reads()).append(" syscalls, written=").append(connection.writeBytes())
+					.append(" B in ").append(connection.writes()).append(" syscalls, pending=")
+					.append(context.buffer.position());
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Closes the connections whose remote address is address, with or without
+	 * the leading /
+	 *
+	 * @param address
+	 */
+	private void kick(String address) {
+		if (address == null) {
+			logger.info("KICK needs an address, see TOP");
+			return;
+		}
+		var remote = address.startsWith("/") ? address : "/" + address;
+		var kicked = 0;
+		for (var context : clientContexts()) {
+			if (context.remote.equals(remote)) {
+				context.aborted = true;
+				context.silentlyClose();
+				kicked++;
+			}
+		}
+		logger.info("Kicked " + kicked + " connection(s) from " + remote);
+	}
+
+	private void closeServerSocketChannel() {
+		try {
+			serverSocketChannel.close();
+		} catch (IOException e) {
+			logger.severe("IOExeption");
+		}
+	}
+
+	/**
+	 * Starts the drain: the server stops accepting, the connections keep being
+	 * echoed and are half-closed once idle, see {@link Context#drain(long, long)}.
+	 * The connections still open at the deadline are closed abruptly. The loop
+	 * stops when no connection is left.
+	 *
+	 * @param timeoutMillis
+	 */
+	private void startDrain(long timeoutMillis) {
+		if (draining) {
+			logger.info("Already draining");
+			return;
+		}
+		draining = true;
+		drainStart = System.currentTimeMillis();
+		drainDeadline = drainStart + timeoutMillis;
+		closeServerSocketChannel();
+		drainingContexts.addAll(clientContexts());
+		logger.info("Draining " + drainingContexts.size() + " connection(s) for at most " + timeoutMillis + " ms");
+	}
+
+	/**
+	 * Called by the loop while draining: counts the connections that closed,
+	 * half-closes the idle ones and forces the others once the deadline passed
+	 */
+	private void drainStep() {
+		var now = System.currentTimeMillis();
+		var expired = now >= drainDeadline;
+		for (var iterator = drainingContexts.iterator(); iterator.hasNext();) {
+			var context = iterator.next();
+			if (expired && context.key.isValid()) {
+				context.aborted = true;
+				context.silentlyClose();
+			}
+			if (!context.key.isValid()) {
+				iterator.remove();
+				if (context.aborted) {
+					drainForced++;
+				} else {
+					drainClean++;
+				}
+				continue;
+			}
+			context.drain(now, DRAIN_IDLE_MILLIS);
+		}
+		if (drainingContexts.isEmpty()) {
+			logger.info(drainReport());
+			stopped = true;
+		}
+	}
+
+	private String drainReport() {
+		return "Drained in " + (System.currentTimeMillis() - drainStart) + " ms: " + drainClean
+				+ " connection(s) closed cleanly, " + drainForced + " forced";
+	}
+
+	/**
+	 * Replaces the listener of the selector loop, e.g. to turn the diagnostics on
+	 * at runtime
+	 *
+	 * @param listener
+	 */
+	public void setSelectorEventListener(SelectorEventListener listener) {
+		this.listener = Objects.requireNonNull(listener);
+	}
+
+	/**
+	 * @return the metrics of the selector loop, also registered in JMX by launch
+	 */
+	public SelectorMetrics metrics() {
+		return metrics;
+	}
+
 	public void launch() throws IOException {
 		serverSocketChannel.configureBlocking(false);
 		serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
+		metrics.register("ServerEchoWithConsole-" + ((InetSocketAddress) serverSocketChannel.getLocalAddress()).getPort());
 		console.start();
-		while (!Thread.interrupted()) {
-			Helpers.printKeys(selector); // for debug
-			System.out.println("Starting select");
-			try {
-				selector.select(this::treatKey);
-			} catch (UncheckedIOException tunneled) {
-				throw tunneled.getCause();
+		try {
+			while (!Thread.interrupted() && !stopped) {
+				loop.beforeSelect();
+				listener.beforeSelect(selector);
+				try {
+					listener.afterSelect(selector, selector.select(this::treatKey, draining ? DRAIN_CHECK_MILLIS : 0));
+				} catch (UncheckedIOException tunneled) {
+					throw tunneled.getCause();
+				}
+				loop.afterSelect();
+				processCommands();
+				if (draining) {
+					drainStep();
+				}
 			}
-			System.out.println("Select finished");
+		} finally {
+			selector.close();
 		}
 	}
 
 	private void treatKey(SelectionKey key) {
-		Helpers.printSelectedKey(key); // for debug
+		loop.onSelectedKey();
+		listener.onSelectedKey(key);
 		try {
 			if (key.isValid() && key.isAcceptable()) {
 				doAccept(key);
@@ -195,6 +514,7 @@ public class ServerEchoWithConsole {
 			}
 		} catch (IOException e) {
 			logger.log(Level.INFO, "Connection closed with client due to IOException", e);
+			((Context) key.attachment()).aborted = true;
 			silentlyClose(key);
 		}
 	}
@@ -207,8 +527,17 @@ public class ServerEchoWithConsole {
 			return;
 		}
 		sc.configureBlocking(false);
+		metrics.recordAccept();
 		var sKey = sc.register(selector, SelectionKey.OP_READ | SelectionKey.OP_WRITE);
-		sKey.attach(new Context(sKey));
+		sKey.attach(new Context(sKey, metrics));
+	}
+
+	private static String remoteToString(SocketChannel sc) {
+		try {
+			return sc.getRemoteAddress().toString();
+		} catch (IOException e) {
+			return "???";
+		}
 	}
 
 	private void silentlyClose(SelectionKey key) {
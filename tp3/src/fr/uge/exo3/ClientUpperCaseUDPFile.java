@@ -15,7 +15,6 @@ import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
@@ -42,10 +41,11 @@ public class ClientUpperCaseUDPFile {
 		var server = new InetSocketAddress(args[3], Integer.parseInt(args[4]));
 		var queue = new ArrayBlockingQueue<String>(1);
 		var bb = ByteBuffer.allocate(BUFFER_SIZE);
-		// Read all lines of inFilename opened in UTF-8
-		var lines = Files.readAllLines(Path.of(inFilename), UTF8);
-		var upperCaseLines = new ArrayList<String>();
-		try(var dc =DatagramChannel.open()){
+		// Read the lines of inFilename opened in UTF-8 one by one, and write each
+		// answer to outFilename in UTF-8 as soon as it is received
+		try(var dc =DatagramChannel.open();
+				var reader = Files.newBufferedReader(Path.of(inFilename), UTF8);
+				var writer = Files.newBufferedWriter(Path.of(outFilename), UTF8, CREATE, WRITE, TRUNCATE_EXISTING)){
 			dc.bind(null);
 			Thread.ofPlatform().start(()->{
 				for(;;) {
@@ -64,7 +64,8 @@ public class ClientUpperCaseUDPFile {
 					}				
 				}
 			});
-			for(var line : lines) {
+			String line;
+			while((line = reader.readLine()) != null) {
 				String msg = null;
 				var bbs= UTF8.encode(line);
 				while(msg ==null) {
@@ -72,11 +73,9 @@ public class ClientUpperCaseUDPFile {
 					bbs.flip();
 					msg=queue.poll(timeout,TimeUnit.MILLISECONDS);
 				}
-				upperCaseLines.add(msg);
+				writer.write(msg);
+				writer.newLine();
 			}
 		}
-
-		// Write upperCaseLines to outFilename in UTF-8
-		Files.write(Path.of(outFilename), upperCaseLines, UTF8, CREATE, WRITE, TRUNCATE_EXISTING);
 	}
 }
\ No newline at end of file
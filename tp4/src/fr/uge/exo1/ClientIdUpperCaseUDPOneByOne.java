@@ -14,10 +14,6 @@ import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.time.LocalDateTime;
-import java.time.LocalTime;
-import java.util.ArrayList;
 import java.util.Objects;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.TimeUnit;
@@ -85,35 +81,35 @@ public class ClientIdUpperCaseUDPOneByOne {
 
 			var listenerThread = Thread.ofPlatform().start(this::listenerThreadRun);
 
-			// Read all lines of inFilename opened in UTF-8
-			var lines = Files.readAllLines(Path.of(inFilename), UTF8);
-
-			var upperCaseLines = new ArrayList<String>();
-
-			// TODO
-			Response response = null;
-			var bb = ByteBuffer.allocate(BUFFER_SIZE);
-			for(var id =0; id < lines.size(); id ++){
-				bb.clear();
-				bb.putLong(id);
-				bb.put(UTF8.encode(lines.get(id)));
-				while(response == null || id != response.id()) {
-					
-					if(System.currentTimeMillis() - timer >=timeout) {
-						bb.flip();
-						dc.send(bb,server);
-						timer = System.currentTimeMillis();
-					}		
-					else {
-						response = queue.poll(timeout-(System.currentTimeMillis() -timer), TimeUnit.MILLISECONDS);
+			// Read the lines of inFilename opened in UTF-8 one by one, and write each
+			// answer as soon as it is received, so the file is never held in memory
+			try (var reader = Files.newBufferedReader(Path.of(inFilename), UTF8);
+					var writer = Files.newBufferedWriter(Path.of(outFilename), UTF8, CREATE, WRITE, TRUNCATE_EXISTING)) {
+				Response response = null;
+				var bb = ByteBuffer.allocate(BUFFER_SIZE);
+				String line;
+				for (var id = 0L; (line = reader.readLine()) != null; id++) {
+					bb.clear();
+					bb.putLong(id);
+					bb.put(UTF8.encode(line));
+					timer = 0; // sends the new line right away
+					while(response == null || id != response.id()) {
+						
+						if(System.currentTimeMillis() - timer >=timeout) {
+							bb.flip();
+							dc.send(bb,server);
+							timer = System.currentTimeMillis();
+						}		
+						else {
+							response = queue.poll(timeout-(System.currentTimeMillis() -timer), TimeUnit.MILLISECONDS);
+						}
 					}
+					writer.write(response.message());
+					writer.newLine();
 				}
-				upperCaseLines.add(response.message());
-
 			}
 
 			listenerThread.interrupt();
-			Files.write(Paths.get(outFilename), upperCaseLines, UTF8, CREATE, WRITE, TRUNCATE_EXISTING);
 		} finally {
 			dc.close();	
 		}
@@ -0,0 +1,184 @@
+package fr.uge.exo2;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Sliding window over the lines of a file being sent to a server, in place of
+ * reading all the lines and writing all the answers at the end.
+ *
+ * The lines are read lazily, only while fewer than size lines are in flight,
+ * and each answer is kept until the answers of all the previous lines are
+ * there: the completed prefix of the window is then written to the output
+ * file and the window slides over the next lines. So the memory depends on the
+ * size of the window, not on the size of the file.
+ *
+ * The window is thread-safe: a sender thread can wait for new lines with
+ * {@link #awaitSlide(long, long)} while a receiver thread answers them.
+ */
+final class LineWindow implements Closeable {
+	record Line(long id, String text) {
+	}
+
+	private final BufferedReader reader;
+	private final BufferedWriter writer;
+	private final String[] lines;
+	private final String[] answers;
+	private final Object lock = new Object();
+	private long base; // id of the first line not written
+	private long end; // id of the next line to read
+	private boolean endOfInput;
+
+	LineWindow(BufferedReader reader, BufferedWriter writer, int size) throws IOException {
+		this.reader = Objects.requireNonNull(reader);
+		this.writer = Objects.requireNonNull(writer);
+		if (size <= 0) {
+			throw new IllegalArgumentException("size must be positive");
+		}
+		lines = new String[size];
+		answers = new String[size];
+		fill();
+	}
+
+	/**
+	 * @param inFilename  read in the charset
+	 * @param outFilename created or truncated, written in the charset
+	 * @param charset
+	 * @param size        the maximum number of lines in flight
+	 * @return the window
+	 * @throws IOException
+	 */
+	static LineWindow open(String inFilename, String outFilename, Charset charset, int size) throws IOException {
+		var reader = Files.newBufferedReader(Path.of(inFilename), charset);
+		try {
+			var writer = Files.newBufferedWriter(Path.of(outFilename), charset, CREATE, WRITE, TRUNCATE_EXISTING);
+			return new LineWindow(reader, writer, size);
+		} catch (IOException | RuntimeException e) {
+			reader.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the lines of the window that have no answer yet, by increasing id
+	 */
+	List<Line> notAnswered() {
+		synchronized (lock) {
+			var list = new ArrayList<Line>();
+			for (var id = base; id < end; id++) {
+				var slot = slot(id);
+				if (answers[slot] == null) {
+					list.add(new Line(id, lines[slot]));
+				}
+			}
+			return list;
+		}
+	}
+
+	/**
+	 * Records the answer of a line, then writes the completed prefix of the
+	 * window and reads the lines that enter the window
+	 *
+	 * @param id
+	 * @param answer
+	 * @return false if the line is not in the window or was already answered
+	 * @throws IOException
+	 */
+	boolean answer(long id, String answer) throws IOException {
+		Objects.requireNonNull(answer);
+		synchronized (lock) {
+			if (id < base || id >= end || answers[slot(id)] != null) {
+				return false;
+			}
+			answers[slot(id)] = answer;
+			if (id != base) {
+				return true;
+			}
+			while (base < end && answers[slot(base)] != null) {
+				var slot = slot(base);
+				writer.write(answers[slot]);
+				writer.newLine();
+				lines[slot] = null;
+				answers[slot] = null;
+				base++;
+			}
+			fill();
+			lock.notifyAll();
+			return true;
+		}
+	}
+
+	/**
+	 * @return the id after the last line read
+	 */
+	long end() {
+		synchronized (lock) {
+			return end;
+		}
+	}
+
+	/**
+	 * Waits until the window slides past end, or until it is done
+	 *
+	 * @param end    as returned by {@link #end()}
+	 * @param millis the maximum time to wait
+	 * @throws InterruptedException
+	 */
+	void awaitSlide(long end, long millis) throws InterruptedException {
+		synchronized (lock) {
+			var deadline = System.currentTimeMillis() + millis;
+			var remaining = millis;
+			while (this.end == end && !isDone() && remaining > 0) {
+				lock.wait(remaining);
+				remaining = deadline - System.currentTimeMillis();
+			}
+		}
+	}
+
+	/**
+	 * @return true once all the lines of the file are answered and written
+	 */
+	boolean isDone() {
+		synchronized (lock) {
+			return endOfInput && base == end;
+		}
+	}
+
+	/**
+	 * Flushes the answers written and closes the files
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (lock) {
+			try (reader; writer) {
+				writer.flush();
+			}
+		}
+	}
+
+	private void fill() throws IOException {
+		while (!endOfInput && end - base < lines.length) {
+			var line = reader.readLine();
+			if (line == null) {
+				endOfInput = true;
+				return;
+			}
+			lines[slot(end)] = line;
+			end++;
+		}
+	}
+
+	private int slot(long id) {
+		return (int) (id % lines.length);
+	}
+}
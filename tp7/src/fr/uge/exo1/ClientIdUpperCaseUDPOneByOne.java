@@ -4,6 +4,8 @@ import static java.nio.file.StandardOpenOption.CREATE;
 import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
 import static java.nio.file.StandardOpenOption.WRITE;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.net.InetSocketAddress;
@@ -15,8 +17,6 @@ import java.nio.channels.Selector;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.SynchronousQueue;
 import java.util.logging.Level;
@@ -32,8 +32,8 @@ public class ClientIdUpperCaseUDPOneByOne {
 		SENDING, RECEIVING, FINISHED
 	};
 
-	private final List<String> lines;
-	private final List<String> upperCaseLines = new ArrayList<>();
+	private final BufferedReader reader;
+	private final BufferedWriter writer;
 	private final long timeout;
 	private final InetSocketAddress serverAddress;
 	private final DatagramChannel dc;
@@ -45,7 +45,8 @@ public class ClientIdUpperCaseUDPOneByOne {
 	private final ByteBuffer sBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
 
 	private long lastTime;
-	private int currentLine;
+	private long currentLine;
+	private String line; // the line in flight
 
 	private State state;
 
@@ -53,9 +54,10 @@ public class ClientIdUpperCaseUDPOneByOne {
 		System.out.println("Usage : ClientIdUpperCaseUDPOneByOne in-filename out-filename timeout host port ");
 	}
 
-	private ClientIdUpperCaseUDPOneByOne(List<String> lines, long timeout, InetSocketAddress serverAddress,
-			DatagramChannel dc, Selector selector, SelectionKey uniqueKey){
-		this.lines = lines;
+	private ClientIdUpperCaseUDPOneByOne(BufferedReader reader, BufferedWriter writer, long timeout,
+			InetSocketAddress serverAddress, DatagramChannel dc, Selector selector, SelectionKey uniqueKey){
+		this.reader = reader;
+		this.writer = writer;
 		this.timeout = timeout;
 		this.serverAddress = serverAddress;
 		this.dc = dc;
@@ -64,20 +66,23 @@ public class ClientIdUpperCaseUDPOneByOne {
 		this.state = State.SENDING;
 	}
 
-	public static ClientIdUpperCaseUDPOneByOne create(String inFilename, long timeout,
+	public static ClientIdUpperCaseUDPOneByOne create(String inFilename, String outFilename, long timeout,
 			InetSocketAddress serverAddress) throws IOException {
 		Objects.requireNonNull(inFilename);
+		Objects.requireNonNull(outFilename);
 		Objects.requireNonNull(serverAddress);
 		Objects.checkIndex(timeout, Long.MAX_VALUE);
 
-		// Read all lines of inFilename opened in UTF-8
-		var lines = Files.readAllLines(Path.of(inFilename), UTF8);
+		// The lines of inFilename opened in UTF-8 are read one by one, and each
+		// answer is written to outFilename as soon as it is received
+		var reader = Files.newBufferedReader(Path.of(inFilename), UTF8);
+		var writer = Files.newBufferedWriter(Path.of(outFilename), UTF8, CREATE, WRITE, TRUNCATE_EXISTING);
 		var dc = DatagramChannel.open();
 		dc.configureBlocking(false);
 		dc.bind(null);
 		var selector = Selector.open();
 		var uniqueKey = dc.register(selector, SelectionKey.OP_WRITE);
-		return new ClientIdUpperCaseUDPOneByOne(lines, timeout, serverAddress, dc, selector, uniqueKey);
+		return new ClientIdUpperCaseUDPOneByOne(reader, writer, timeout, serverAddress, dc, selector, uniqueKey);
 	}
 
 	public static void main(String[] args) throws IOException, InterruptedException {
@@ -92,13 +97,12 @@ public class ClientIdUpperCaseUDPOneByOne {
 		var server = new InetSocketAddress(args[3], Integer.parseInt(args[4]));
 
 		// Create client with the parameters and launch it
-		var upperCaseLines = create(inFilename, timeout, server).launch();
-
-		Files.write(Path.of(outFilename), upperCaseLines, UTF8, CREATE, WRITE, TRUNCATE_EXISTING);
+		create(inFilename, outFilename, timeout, server).launch();
 	}
 
-	private List<String> launch() throws IOException, InterruptedException {
-		try {
+	private void launch() throws IOException, InterruptedException {
+		try (reader; writer) {
+			nextLine();
 			while (!isFinished()) {
 				try {
 					selector.select(this::treatKey, updateInterestOps());
@@ -106,7 +110,6 @@ public class ClientIdUpperCaseUDPOneByOne {
 					throw tunneled.getCause();
 				}
 			}
-			return upperCaseLines;
 		} finally {
 			dc.close();
 		}
@@ -172,13 +175,20 @@ public class ClientIdUpperCaseUDPOneByOne {
 		if(id != currentLine) {
 			return;
 		}
-		upperCaseLines.add(UTF8.decode(rBuffer).toString());
+		writer.write(UTF8.decode(rBuffer).toString());
+		writer.newLine();
 		currentLine++;
-		if(upperCaseLines.size() == lines.size()) {
-			state = State.FINISHED;
-			return;
-		}
-		state = State.SENDING;
+		nextLine();
+	}
+
+	/**
+	 * Reads the next line to send, or finishes at the end of the file
+	 *
+	 * @throws IOException
+	 */
+	private void nextLine() throws IOException {
+		line = reader.readLine();
+		state = line == null ? State.FINISHED : State.SENDING;
 	}
 
 	/**
@@ -191,7 +201,7 @@ public class ClientIdUpperCaseUDPOneByOne {
 		// TODO
 		sBuffer.clear();
 		sBuffer.putLong(currentLine);
-		sBuffer.put(UTF8.encode(lines.get(currentLine)));
+		sBuffer.put(UTF8.encode(line));
 		sBuffer.flip();
 		dc.send(sBuffer,serverAddress);
 		lastTime= System.currentTimeMillis();
@@ -8,80 +8,95 @@ import java.nio.channels.DatagramChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.charset.Charset;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.BitSet;
-import java.util.List;
+import java.util.ArrayDeque;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
-
-import static java.nio.file.StandardOpenOption.*;
 
 public class ClientIdUpperCaseUDPBurst {
 
     private static Logger logger = Logger.getLogger(ClientIdUpperCaseUDPBurst.class.getName());
     private static final Charset UTF8 = Charset.forName("UTF8");
     private static final int BUFFER_SIZE = 1024;
+    private static final int WINDOW_SIZE = 1024;
+    private static final long MIN_RTO = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long MAX_RTO = TimeUnit.SECONDS.toNanos(60);
 
-    private enum State {
-        SENDING, RECEIVING, FINISHED
-    };
+    /**
+     * A transmission of a line, its timer expires rto after sendTime
+     */
+    private record Transmission(long id, long sendTime) {
+    }
 
-    private final List<String> lines;
-    private final List<String> upperCaseLines = new ArrayList<>();
-    private final long timeout;
+    private final LineWindow window;
+    private final int windowSize;
+    private final RttEstimator estimator;
     private final InetSocketAddress serverAddress;
     private final DatagramChannel dc;
     private final Selector selector;
     private final SelectionKey uniqueKey;
 
-    // TODO add new fields
 	private final ByteBuffer rBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
 	private final ByteBuffer sBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
-    private long lastTime;
-    private int currentLine;
-    private final AnswersLog alog;
-
-    private State state;
+    private final ArrayDeque<Long> toSend = new ArrayDeque<>();
+    // by send time, so the first one expires first since they share the rto
+    private final ArrayDeque<Transmission> timers = new ArrayDeque<>();
+    private final long[] lastSendTimes; // by slot, of the line in flight
+    private final boolean[] retransmitted; // by slot, of the line in flight
+    private long sentEnd; // the lines before were sent at least once
+    private long retransmissions;
+    private long lastBackoff; // nanoTime has an arbitrary origin, so never left at 0
 
     private static void usage() {
-        System.out.println("Usage : ClientIdUpperCaseUDPOneByOne in-filename out-filename timeout host port ");
+        System.out.println("Usage : ClientIdUpperCaseUDPBurst in-filename out-filename timeout host port [window-size]");
     }
     
-    private ClientIdUpperCaseUDPBurst(List<String> lines, long timeout, InetSocketAddress serverAddress,
-            DatagramChannel dc, Selector selector, SelectionKey uniqueKey){
-        this.lines = lines;
-        this.timeout = timeout;
+    private ClientIdUpperCaseUDPBurst(LineWindow window, int windowSize, long timeout,
+            InetSocketAddress serverAddress, DatagramChannel dc, Selector selector, SelectionKey uniqueKey){
+        this.window = window;
+        this.windowSize = windowSize;
+        this.estimator = new RttEstimator(TimeUnit.MILLISECONDS.toNanos(timeout), MIN_RTO, MAX_RTO);
+        this.lastBackoff = System.nanoTime() - estimator.rto(); // the first expiry may back off
+        this.lastSendTimes = new long[windowSize];
+        this.retransmitted = new boolean[windowSize];
         this.serverAddress = serverAddress;
         this.dc = dc;
         this.selector = selector;
         this.uniqueKey = uniqueKey;
-        this.state = State.SENDING;
-        this.alog = new AnswersLog(lines.size());
-        
     }
 
-    public static ClientIdUpperCaseUDPBurst create(String inFilename, long timeout,
-            InetSocketAddress serverAddress) throws IOException {
+    /**
+     * @param inFilename
+     * @param outFilename
+     * @param timeout       the retransmission timeout in milliseconds until the
+     *                      round-trip time is measured
+     * @param serverAddress
+     * @param windowSize    the maximum number of lines sent without answer
+     * @return the client
+     * @throws IOException
+     */
+    public static ClientIdUpperCaseUDPBurst create(String inFilename, String outFilename, long timeout,
+            InetSocketAddress serverAddress, int windowSize) throws IOException {
         Objects.requireNonNull(inFilename);
+        Objects.requireNonNull(outFilename);
         Objects.requireNonNull(serverAddress);
         Objects.checkIndex(timeout, Long.MAX_VALUE);
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("windowSize must be positive");
+        }
         
-        // Read all lines of inFilename opened in UTF-8
-        var lines = Files.readAllLines(Path.of(inFilename), UTF8);
+        // The lines of inFilename opened in UTF-8 are read as the window slides
+        var window = LineWindow.open(inFilename, outFilename, UTF8, windowSize);
         var dc = DatagramChannel.open();
         dc.configureBlocking(false);
         dc.bind(null);
         var selector = Selector.open();
         var uniqueKey = dc.register(selector, SelectionKey.OP_WRITE);
-        return new ClientIdUpperCaseUDPBurst(lines, timeout, serverAddress, dc, selector, uniqueKey);
+        return new ClientIdUpperCaseUDPBurst(window, windowSize, timeout, serverAddress, dc, selector, uniqueKey);
     }
 
     public static void main(String[] args) throws IOException, InterruptedException {
-        if (args.length != 5) {
+        if (args.length != 5 && args.length != 6) {
             usage();
             return;
         }
@@ -90,26 +105,25 @@ public class ClientIdUpperCaseUDPBurst {
         var outFilename = args[1];
         var timeout = Long.parseLong(args[2]);
         var server = new InetSocketAddress(args[3], Integer.parseInt(args[4]));
+        var windowSize = args.length == 6 ? Integer.parseInt(args[5]) : WINDOW_SIZE;
 
         // Create client with the parameters and launch it
-        var upperCaseLines = create(inFilename, timeout, server).launch();
-        
-        Files.write(Path.of(outFilename), upperCaseLines, UTF8, CREATE, WRITE, TRUNCATE_EXISTING);
+        create(inFilename, outFilename, timeout, server, windowSize).launch();
     }
 
-    private List<String> launch() throws IOException, InterruptedException {
-        try {
-            while (!isFinished()) {
+    private void launch() throws IOException, InterruptedException {
+        try (window) {
+            while (!window.isDone()) {
                 try {
                     selector.select(this::treatKey, updateInterestOps());
                 } catch (UncheckedIOException tunneled) {
                     throw tunneled.getCause();
                 }
             }
-            return upperCaseLines;
         } finally {
             dc.close();
         }
+        logger.info(sentEnd + " lines sent, " + retransmissions + " retransmissions, " + estimator);
     }
 
     private void treatKey(SelectionKey key) {
@@ -126,117 +140,130 @@ public class ClientIdUpperCaseUDPBurst {
     }
 
     /**
-     * Updates the interestOps on key based on state of the context
+     * Updates the interestOps on key based on state of the context: the lines
+     * that entered the window are sent, then the lines whose retransmission
+     * timer expired, and only them
      *
      * @return the timeout for the next select (0 means no timeout)
      */
 
 	private long updateInterestOps() {
-		if(state == State.SENDING) {
-			uniqueKey.interestOps(SelectionKey.OP_WRITE);
+		var end = window.end();
+		for (var id = sentEnd; id < end; id++) {
+			toSend.add(id);
+		}
+		sentEnd = end;
+		var now = System.nanoTime();
+		var rto = estimator.rto();
+		var expired = false;
+		while (!timers.isEmpty()) {
+			var transmission = timers.peek();
+			if (!isLast(transmission)) {
+				timers.poll(); // answered or retransmitted since
+				continue;
+			}
+			if (now - transmission.sendTime() < rto) {
+				break;
+			}
+			timers.poll();
+			toSend.add(transmission.id());
+			retransmitted[slot(transmission.id())] = true;
+			expired = true;
+		}
+		// the timers of a burst expire together, the rto doubles once per rto
+		if (expired && now - lastBackoff >= rto) {
+			estimator.backoff();
+			lastBackoff = now;
+		}
+		if (!toSend.isEmpty()) {
+			uniqueKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
 			return 0;
 		}
-		var tm = System.currentTimeMillis() - lastTime;
-		if(tm< timeout) {
-			uniqueKey.interestOps(SelectionKey.OP_READ);
-			return timeout - tm;
+		uniqueKey.interestOps(SelectionKey.OP_READ);
+		if (timers.isEmpty()) {
+			return 0;
 		}
-		state = State.SENDING;
-		uniqueKey.interestOps(SelectionKey.OP_WRITE);
-		return 0;
+		var delay = timers.peek().sendTime() + estimator.rto() - now;
+		return Math.max(1, TimeUnit.NANOSECONDS.toMillis(delay) + 1);
 	}
 
-    private boolean isFinished() {
-        return state == State.FINISHED;
-    }
+	/**
+	 * @return true if the transmission is the last one of a line still waiting
+	 *         for its answer
+	 */
+	private boolean isLast(Transmission transmission) {
+		var id = transmission.id();
+		return window.pending(id) != null && lastSendTimes[slot(id)] == transmission.sendTime();
+	}
+
+	private int slot(long id) {
+		return (int) (id % windowSize);
+	}
 
     /**
-     * Performs the receptions of packets
+     * Performs the receptions of packets, while packets are available. The
+     * round-trip time of a line sent once is measured when it is answered.
      *
      * @throws IOException
      */
 
     private void doRead() throws IOException {
-        // TODO
-		rBuffer.clear();
-		var sender =dc.receive(rBuffer);
-		if(sender ==null) {
-			logger.info("No packet received");
-		}
-		rBuffer.flip();
-		if(rBuffer.remaining() < Long.BYTES) {
-			logger.info("Malformed packet");
-			return;
-		}
-		var id = rBuffer.getLong();
-		if(alog.notReceived().contains(id)) {
-			return;
-		}
-		alog.set(Long.valueOf(id).intValue());
-		upperCaseLines.add(UTF8.decode(rBuffer).toString());
-		if(upperCaseLines.size() == lines.size()) {
-			state = State.FINISHED;
-			return;
-		}
-		state = State.SENDING;
+    	for (;;) {
+    		rBuffer.clear();
+    		var sender = dc.receive(rBuffer);
+    		if (sender == null) {
+    			return;
+    		}
+    		var now = System.nanoTime();
+    		rBuffer.flip();
+    		if (rBuffer.remaining() < Long.BYTES) {
+    			logger.info("Malformed packet");
+    			continue;
+    		}
+    		var id = rBuffer.getLong();
+    		if (window.pending(id) == null) {
+    			continue; // not sent yet, or already answered
+    		}
+    		var slot = slot(id);
+    		if (!retransmitted[slot]) {
+    			estimator.sample(now - lastSendTimes[slot]);
+    		}
+    		retransmitted[slot] = false;
+    		window.answer(id, UTF8.decode(rBuffer).toString());
+    	}
     }
 
     /**
-     * Tries to send the packets
+     * Sends the lines to send, while the channel accepts them, and starts their
+     * retransmission timers
      *
      * @throws IOException
      */
 
     private void doWrite() throws IOException {
-        // TODO
-    	if(alog.notReceived().contains(currentLine)) {
+    	while (!toSend.isEmpty()) {
+    		var id = toSend.peek();
+    		var line = window.pending(id);
+    		if (line == null) {
+    			toSend.poll(); // answered since
+    			continue;
+    		}
     		sBuffer.clear();
-    		sBuffer.putLong(alog.notReceived().get(currentLine));
-    		sBuffer.put(UTF8.encode(lines.get(alog.notReceived().get(currentLine))));
+    		sBuffer.putLong(id);
+    		sBuffer.put(UTF8.encode(line));
     		sBuffer.flip();
-    		dc.send(sBuffer,serverAddress);
-    		lastTime= System.currentTimeMillis();
-    		if(sBuffer.hasRemaining()) {
-    			logger.info("Packet not sent");
-    			return;
-    		}
-    		
-    	}
-    	currentLine++;
-    	if(currentLine == alog.notReceived().size()){
-    		currentLine=0;
-    		state = State.RECEIVING;
-			return;
-    	}
-    }
-    
-    private static class AnswersLog {
-    	private final BitSet log;
-    	private final int size;
-    	private final Object lock = new Object();
-    	public AnswersLog(int nblines) {
-    		log = new BitSet(nblines);
-    		size = nblines;
-    	}
-    	
-    	public boolean allReceived() {
-    		synchronized(lock) {
-    			return log.cardinality()==size;
+    		dc.send(sBuffer, serverAddress);
+    		if (sBuffer.hasRemaining()) {
+    			return; // the channel is full, sent when it is writable again
     		}
-    	}
-    	
-    	public void set(int id) {
-    		synchronized(lock) {
-    			log.set(id);
-    		}
-    		
-    	}
-    	
-    	public List<Integer> notReceived(){
-    		synchronized(lock) {
-    			return IntStream.range(0,size).filter(f-> !log.get(f)).boxed().collect(Collectors.toList());
+    		toSend.poll();
+    		var slot = slot(id);
+    		if (retransmitted[slot]) {
+    			retransmissions++;
     		}
+    		var now = System.nanoTime();
+    		lastSendTimes[slot] = now;
+    		timers.add(new Transmission(id, now));
     	}
-    	
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,147 @@
+package fr.uge.exo2;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Sliding window over the lines of a file being sent to a server, in place of
+ * reading all the lines and writing all the answers at the end.
+ *
+ * The lines are read lazily, only while fewer than size lines are in flight,
+ * and each answer is kept until the answers of all the previous lines are
+ * there: the completed prefix of the window is then written to the output
+ * file and the window slides over the next lines. So the memory depends on the
+ * size of the window, not on the size of the file.
+ *
+ * The window is not thread-safe, it is meant for the thread of a selector.
+ */
+final class LineWindow implements Closeable {
+	private final BufferedReader reader;
+	private final BufferedWriter writer;
+	private final String[] lines;
+	private final String[] answers;
+	private long base; // id of the first line not written
+	private long end; // id of the next line to read
+	private boolean endOfInput;
+
+	LineWindow(BufferedReader reader, BufferedWriter writer, int size) throws IOException {
+		this.reader = Objects.requireNonNull(reader);
+		this.writer = Objects.requireNonNull(writer);
+		if (size <= 0) {
+			throw new IllegalArgumentException("size must be positive");
+		}
+		lines = new String[size];
+		answers = new String[size];
+		fill();
+	}
+
+	/**
+	 * @param inFilename  read in the charset
+	 * @param outFilename created or truncated, written in the charset
+	 * @param charset
+	 * @param size        the maximum number of lines in flight
+	 * @return the window
+	 * @throws IOException
+	 */
+	static LineWindow open(String inFilename, String outFilename, Charset charset, int size) throws IOException {
+		var reader = Files.newBufferedReader(Path.of(inFilename), charset);
+		try {
+			var writer = Files.newBufferedWriter(Path.of(outFilename), charset, CREATE, WRITE, TRUNCATE_EXISTING);
+			return new LineWindow(reader, writer, size);
+		} catch (IOException | RuntimeException e) {
+			reader.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Records the answer of a line, then writes the completed prefix of the
+	 * window and reads the lines that enter the window
+	 *
+	 * @param id
+	 * @param answer
+	 * @return false if the line is not in the window or was already answered
+	 * @throws IOException
+	 */
+	boolean answer(long id, String answer) throws IOException {
+		Objects.requireNonNull(answer);
+		if (id < base || id >= end || answers[slot(id)] != null) {
+			return false;
+		}
+		answers[slot(id)] = answer;
+		if (id != base) {
+			return true;
+		}
+		while (base < end && answers[slot(base)] != null) {
+			var slot = slot(base);
+			writer.write(answers[slot]);
+			writer.newLine();
+			lines[slot] = null;
+			answers[slot] = null;
+			base++;
+		}
+		fill();
+		return true;
+	}
+
+	/**
+	 * @param id
+	 * @return the text of the line if it is in the window and has no answer yet,
+	 *         null otherwise
+	 */
+	String pending(long id) {
+		if (id < base || id >= end) {
+			return null;
+		}
+		var slot = slot(id);
+		return answers[slot] == null ? lines[slot] : null;
+	}
+
+	/**
+	 * @return the id after the last line read
+	 */
+	long end() {
+		return end;
+	}
+
+	/**
+	 * @return true once all the lines of the file are answered and written
+	 */
+	boolean isDone() {
+		return endOfInput && base == end;
+	}
+
+	/**
+	 * Flushes the answers written and closes the files
+	 */
+	@Override
+	public void close() throws IOException {
+		try (reader; writer) {
+			writer.flush();
+		}
+	}
+
+	private void fill() throws IOException {
+		while (!endOfInput && end - base < lines.length) {
+			var line = reader.readLine();
+			if (line == null) {
+				endOfInput = true;
+				return;
+			}
+			lines[slot(end)] = line;
+			end++;
+		}
+	}
+
+	private int slot(long id) {
+		return (int) (id % lines.length);
+	}
+}
@@ -0,0 +1,87 @@
+package fr.uge.exo2;
+
+/**
+ * Retransmission timeout computed from the round-trip times measured, as TCP
+ * does (RFC 6298): SRTT is the smoothed round-trip time, RTTVAR its smoothed
+ * deviation, and the timeout is SRTT + 4 * RTTVAR, kept between a minimum and
+ * a maximum. Each expiration doubles the timeout until the next measure.
+ *
+ * Only the round-trip times of packets sent once must be measured (Karn's
+ * algorithm), the answer of a retransmitted packet may answer any of its
+ * transmissions. All the times are in nanoseconds.
+ */
+final class RttEstimator {
+	private static final int ALPHA_SHIFT = 3; // SRTT += (RTT - SRTT) / 8
+	private static final int BETA_SHIFT = 2; // RTTVAR += (|SRTT - RTT| - RTTVAR) / 4
+	private static final int K = 4;
+
+	private final long minRto;
+	private final long maxRto;
+	private long srtt = -1; // no measure yet
+	private long rttvar;
+	private long rto;
+
+	/**
+	 * @param initialRto the timeout before the first measure
+	 * @param minRto
+	 * @param maxRto
+	 */
+	RttEstimator(long initialRto, long minRto, long maxRto) {
+		if (minRto <= 0 || minRto > maxRto) {
+			throw new IllegalArgumentException("invalid bounds " + minRto + " " + maxRto);
+		}
+		this.minRto = minRto;
+		this.maxRto = maxRto;
+		this.rto = clamp(initialRto);
+	}
+
+	/**
+	 * Updates the timeout with the round-trip time of a packet sent once
+	 *
+	 * @param rtt
+	 */
+	void sample(long rtt) {
+		if (rtt < 0) {
+			throw new IllegalArgumentException("negative rtt " + rtt);
+		}
+		if (srtt < 0) {
+			srtt = rtt;
+			rttvar = rtt / 2;
+		} else {
+			rttvar += (Math.abs(srtt - rtt) - rttvar) >> BETA_SHIFT;
+			srtt += (rtt - srtt) >> ALPHA_SHIFT;
+		}
+		rto = clamp(srtt + K * rttvar);
+	}
+
+	/**
+	 * Doubles the timeout, to be called when a retransmission timer expires
+	 */
+	void backoff() {
+		rto = clamp(rto > maxRto / 2 ? maxRto : 2 * rto);
+	}
+
+	long rto() {
+		return rto;
+	}
+
+	/**
+	 * @return the smoothed round-trip time, or -1 before the first measure
+	 */
+	long srtt() {
+		return srtt;
+	}
+
+	long rttvar() {
+		return rttvar;
+	}
+
+	private long clamp(long value) {
+		return Math.min(maxRto, Math.max(minRto, value));
+	}
+
+	@Override
+	public String toString() {
+		return "srtt=" + srtt / 1_000 + "us rttvar=" + rttvar / 1_000 + "us rto=" + rto / 1_000 + "us";
+	}
+}
@@ -10,6 +10,108 @@ import java.util.logging.Logger;
 public class ClientLongSum {
 
     public static final Logger logger = Logger.getLogger(ClientLongSum.class.getName());
+    private static final int BUFFER_SIZE = 64 * 1_024;
+
+    /**
+     * Sends requests on a blocking SocketChannel without waiting for the previous
+     * replies, keeping at most maxInFlight requests pending. The server answers in
+     * order so the replies are matched to the requests in FIFO order.
+     *
+     * The longs are written straight from a long[] into a direct buffer reused for
+     * every request, and small requests are coalesced in the same write.
+     */
+    static final class Pipeline {
+        private final SocketChannel sc;
+        private final int maxInFlight;
+        private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE); // write-mode
+        private final ByteBuffer receiveBuffer; // read-mode
+        private int inFlight;
+
+        Pipeline(SocketChannel sc, int maxInFlight) {
+            if (maxInFlight <= 0) {
+                throw new IllegalArgumentException("maxInFlight must be positive");
+            }
+            this.sc = Objects.requireNonNull(sc);
+            this.maxInFlight = maxInFlight;
+            this.receiveBuffer = ByteBuffer.allocateDirect(maxInFlight * Long.BYTES).limit(0);
+        }
+
+        /**
+         * @return true if another request can be sent without waiting for a reply
+         */
+        boolean canSend() {
+            return inFlight < maxInFlight;
+        }
+
+        int inFlight() {
+            return inFlight;
+        }
+
+        /**
+         * Queues the request for values. It is sent as soon as the send buffer is full
+         * or when a reply is awaited.
+         *
+         * @param values
+         * @throws IOException
+         */
+        void send(long[] values) throws IOException {
+            if (!canSend()) {
+                throw new IllegalStateException("too many requests in flight");
+            }
+            if (sendBuffer.remaining() < Integer.BYTES) {
+                flush();
+            }
+            sendBuffer.putInt(values.length);
+            var offset = 0;
+            while (offset < values.length) {
+                if (sendBuffer.remaining() < Long.BYTES) {
+                    flush();
+                }
+                var count = Math.min(values.length - offset, sendBuffer.remaining() / Long.BYTES);
+                sendBuffer.asLongBuffer().put(values, offset, count);
+                sendBuffer.position(sendBuffer.position() + count * Long.BYTES);
+                offset += count;
+            }
+            inFlight++;
+        }
+
+        /**
+         * Writes all the queued requests
+         *
+         * @throws IOException
+         */
+        void flush() throws IOException {
+            sendBuffer.flip();
+            while (sendBuffer.hasRemaining()) {
+                sc.write(sendBuffer);
+            }
+            sendBuffer.clear();
+        }
+
+        /**
+         * Waits for the reply to the oldest request in flight
+         *
+         * @return the sum, or empty if the server closed the connection
+         * @throws IOException
+         */
+        OptionalLong receive() throws IOException {
+            if (inFlight == 0) {
+                throw new IllegalStateException("no request in flight");
+            }
+            flush();
+            if (receiveBuffer.remaining() < Long.BYTES) {
+                receiveBuffer.compact();
+                while (receiveBuffer.position() < Long.BYTES) {
+                    if (sc.read(receiveBuffer) == -1) {
+                        return OptionalLong.empty();
+                    }
+                }
+                receiveBuffer.flip();
+            }
+            inFlight--;
+            return OptionalLong.of(receiveBuffer.getLong());
+        }
+    }
 
     private static List<Long> randomLongList(int size) {
         return new Random().longs(size).boxed().toList();
@@ -46,6 +148,45 @@ public class ClientLongSum {
         return rBuffer.flip().getLong();
     }
     
+    /**
+     * Requests the sum of each array of requests, with at most maxInFlight requests
+     * waiting for their reply at any time
+     *
+     * returns null if the protocol is not followed by the server but no
+     * IOException is thrown
+     *
+     * @param sc
+     * @param requests
+     * @param maxInFlight
+     * @return the sums in the order of the requests
+     * @throws IOException
+     */
+    static long[] requestSums(SocketChannel sc, List<long[]> requests, int maxInFlight) throws IOException {
+        var pipeline = new Pipeline(sc, maxInFlight);
+        var sums = new long[requests.size()];
+        var received = 0;
+        for (var request : requests) {
+            if (!pipeline.canSend()) {
+                var sum = pipeline.receive();
+                if (sum.isEmpty()) {
+                    logger.info("Closed connexion");
+                    return null;
+                }
+                sums[received++] = sum.getAsLong();
+            }
+            pipeline.send(request);
+        }
+        while (pipeline.inFlight() > 0) {
+            var sum = pipeline.receive();
+            if (sum.isEmpty()) {
+                logger.info("Closed connexion");
+                return null;
+            }
+            sums[received++] = sum.getAsLong();
+        }
+        return sums;
+    }
+
     public static ByteBuffer storing(ByteBuffer buffer) {
     	ByteBuffer newBuffer = ByteBuffer.allocate(buffer.capacity() * 2);
     	return newBuffer.put(buffer.flip());
@@ -75,6 +216,20 @@ public class ClientLongSum {
                     logger.warning("Oups! Something wrong happened!");
                 }
             }
+            var requests = new ArrayList<long[]>();
+            for (var i = 0; i < 100; i++) {
+                requests.add(new Random().longs(50).toArray());
+            }
+            var sums = requestSums(sc, requests, 8);
+            if (sums == null) {
+                logger.warning("Connection with server lost.");
+                return;
+            }
+            for (var i = 0; i < sums.length; i++) {
+                if (Arrays.stream(requests.get(i)).sum() != sums[i]) {
+                    logger.warning("Oups! Something wrong happened in pipelined request " + i + "!");
+                }
+            }
             logger.info("Everything seems ok");
         }
     }
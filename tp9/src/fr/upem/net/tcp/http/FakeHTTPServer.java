@@ -14,6 +14,13 @@ public class FakeHTTPServer {
     private final Thread thread;
 
     public FakeHTTPServer(String s, int max) throws IOException {
+        this(s, max, 1);
+    }
+
+    /**
+     * Serves s to nbConnections successive connections, max bytes every 100 ms
+     */
+    public FakeHTTPServer(String s, int max, int nbConnections) throws IOException {
         ssc = ServerSocketChannel.open();
         ssc.bind(null);
         var address = (InetSocketAddress) ssc.getLocalAddress();
@@ -22,20 +29,25 @@ public class FakeHTTPServer {
         thread = new Thread(() -> {
             SocketChannel sc = null;
             try {
-                sc = ssc.accept();
-                while (!Thread.interrupted() && content.hasRemaining()) {
-                    var oldlimit = content.limit();
-                    content.limit(Math.min(content.position() + max, oldlimit));
-                    sc.write(content);
-                    Thread.sleep(100);
-                    content.limit(oldlimit);
+                for (var i = 0; i < nbConnections; i++) {
+                    sc = ssc.accept();
+                    content.rewind();
+                    while (!Thread.interrupted() && content.hasRemaining()) {
+                        var oldlimit = content.limit();
+                        content.limit(Math.min(content.position() + max, oldlimit));
+                        sc.write(content);
+                        Thread.sleep(100);
+                        content.limit(oldlimit);
+                    }
+                    drainAndClose(sc);
+                    sc = null;
                 }
             } catch (Exception e) {
                 //
             } finally {
                 try {
                     if (sc != null) {
-                        sc.close();
+                        drainAndClose(sc);
                     }
                     ssc.close();
                 } catch (Exception e) {
@@ -69,7 +81,7 @@ public class FakeHTTPServer {
             } finally {
                 try {
                     if (sc != null) {
-                        sc.close();
+                        drainAndClose(sc);
                     }
                     ssc.close();
                 } catch (Exception e) {
@@ -79,6 +91,19 @@ public class FakeHTTPServer {
         });
     }
 
+    /**
+     * Reads the requests before closing: closing a socket with unread data resets
+     * the connection, and the client could lose the end of the content
+     */
+    private static void drainAndClose(SocketChannel sc) throws IOException {
+        sc.configureBlocking(false);
+        var buffer = ByteBuffer.allocate(1_024);
+        while (sc.read(buffer.clear()) > 0) {
+            // the requests are ignored
+        }
+        sc.close();
+    }
+
     public void serve() {
         thread.start();
     }
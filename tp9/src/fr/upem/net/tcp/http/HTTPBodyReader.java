@@ -0,0 +1,232 @@
+package fr.upem.net.tcp.http;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Non-blocking reader of the content of a response, gathered in a buffer
+ * reused between responses. Before each content, once reset, the reader is set
+ * to one of the framings of HTTP/1.1: {@link #fixed(long)} for a
+ * Content-Length, {@link #chunked()} or {@link #untilClose()} when the end of
+ * the content is the end of the connection.
+ *
+ * The value is a read-only view in read-mode, only valid until reset.
+ */
+public class HTTPBodyReader implements Reader<ByteBuffer> {
+
+	private enum State {
+		WAITING, DATA, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILERS, UNTIL_CLOSE, DONE, ERROR
+	};
+
+	private static final int INITIAL_CAPACITY = 1_024;
+	private static final int MAX_LINE_SIZE = 8_192; // chunk size lines and trailer fields
+
+	private final int maxSize;
+	private final LineScanner line = new LineScanner();
+	private ByteBuffer body = ByteBuffer.allocate(INITIAL_CAPACITY); // write-mode
+	private State state = State.WAITING;
+	private long remaining;
+
+	/**
+	 * @param maxSize the maximum size of a content, a larger content is an ERROR
+	 */
+	public HTTPBodyReader(int maxSize) {
+		if (maxSize < 0) {
+			throw new IllegalArgumentException("maxSize must be positive or zero");
+		}
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * The content is the next length bytes
+	 *
+	 * @param length
+	 */
+	public void fixed(long length) {
+		checkWaiting();
+		if (length < 0) {
+			throw new IllegalArgumentException("length must be positive or zero");
+		}
+		remaining = length;
+		state = length == 0 ? State.DONE : State.DATA;
+	}
+
+	/**
+	 * The content is sent in chunks mode
+	 */
+	public void chunked() {
+		checkWaiting();
+		state = State.CHUNK_SIZE;
+	}
+
+	/**
+	 * The content ends with the connection, see {@link #endOfInput()}
+	 */
+	public void untilClose() {
+		checkWaiting();
+		state = State.UNTIL_CLOSE;
+	}
+
+	/**
+	 * @return true if the content was set to end with the connection
+	 */
+	public boolean isUntilClose() {
+		return state == State.UNTIL_CLOSE;
+	}
+
+	/**
+	 * @return true if the content is complete, e.g. set with a length of 0
+	 */
+	public boolean isDone() {
+		return state == State.DONE;
+	}
+
+	/**
+	 * To be called when the connection is closed
+	 *
+	 * @return DONE if the content ends with the connection, ERROR otherwise
+	 */
+	public ProcessStatus endOfInput() {
+		if (state == State.UNTIL_CLOSE || state == State.DONE) {
+			state = State.DONE;
+			return ProcessStatus.DONE;
+		}
+		state = State.ERROR;
+		return ProcessStatus.ERROR;
+	}
+
+	@Override
+	public ProcessStatus process(ByteBuffer buffer) {
+		if (state == State.DONE || state == State.ERROR || state == State.WAITING) {
+			throw new IllegalStateException();
+		}
+		buffer.flip();
+		try {
+			for (;;) {
+				switch (state) {
+				case DATA, CHUNK_DATA -> {
+					if (!transfer(buffer, remaining)) {
+						return error();
+					}
+					if (remaining != 0) {
+						return ProcessStatus.REFILL;
+					}
+					if (state == State.DATA) {
+						state = State.DONE;
+						return ProcessStatus.DONE;
+					}
+					line.reset();
+					state = State.CHUNK_END;
+				}
+				case UNTIL_CLOSE -> {
+					if (!transfer(buffer, Long.MAX_VALUE)) {
+						return error();
+					}
+					return ProcessStatus.REFILL;
+				}
+				case CHUNK_SIZE, CHUNK_END, TRAILERS -> {
+					if (!line.scanCRLF(buffer)) {
+						return line.length() > MAX_LINE_SIZE ? error() : ProcessStatus.REFILL;
+					}
+					var length = line.length() - 2;
+					if (state == State.CHUNK_END) {
+						if (length != 0) {
+							return error();
+						}
+						state = State.CHUNK_SIZE;
+					} else if (state == State.CHUNK_SIZE) {
+						remaining = parseChunkSize(line.bytes(), length);
+						if (remaining == -1) {
+							return error();
+						}
+						state = remaining == 0 ? State.TRAILERS : State.CHUNK_DATA;
+					} else if (length == 0) { // empty line after the trailer fields
+						state = State.DONE;
+						return ProcessStatus.DONE;
+					}
+					line.reset();
+				}
+				default -> throw new AssertionError();
+				}
+			}
+		} finally {
+			buffer.compact();
+		}
+	}
+
+	@Override
+	public ByteBuffer get() {
+		if (state != State.DONE) {
+			throw new IllegalStateException();
+		}
+		return body.asReadOnlyBuffer().flip();
+	}
+
+	@Override
+	public void reset() {
+		state = State.WAITING;
+		body.clear();
+		line.reset();
+		remaining = 0;
+	}
+
+	/**
+	 * Moves at most max bytes of buffer, in read-mode, to the content
+	 *
+	 * @return false if the content would be larger than maxSize
+	 */
+	private boolean transfer(ByteBuffer buffer, long max) {
+		var size = (int) Math.min(max, buffer.remaining());
+		if (body.position() + (long) size > maxSize) {
+			return false;
+		}
+		if (body.remaining() < size) {
+			var newCapacity = (int) Math.min(maxSize, Math.max(2L * body.capacity(), body.position() + size));
+			body = ByteBuffer.allocate(newCapacity).put(body.flip());
+		}
+		var oldLimit = buffer.limit();
+		buffer.limit(buffer.position() + size);
+		body.put(buffer);
+		buffer.limit(oldLimit);
+		if (max != Long.MAX_VALUE) {
+			remaining -= size;
+		}
+		return true;
+	}
+
+	private ProcessStatus error() {
+		state = State.ERROR;
+		return ProcessStatus.ERROR;
+	}
+
+	/**
+	 * @return the size in hexadecimal before the optional extensions, or -1 if
+	 *         it is ill-formed
+	 */
+	static long parseChunkSize(byte[] bytes, int length) {
+		var size = 0L;
+		var i = 0;
+		for (; i < length; i++) {
+			var digit = Character.digit(bytes[i], 16);
+			if (digit == -1) {
+				break;
+			}
+			if (i == 15) {
+				return -1; // too large
+			}
+			size = size * 16 + digit;
+		}
+		if (i == 0) {
+			return -1;
+		}
+		for (; i < length && (bytes[i] == ' ' || bytes[i] == '\t'); i++) {
+			// whitespace before the extensions
+		}
+		return i == length || bytes[i] == ';' ? size : -1;
+	}
+
+	private void checkWaiting() {
+		if (state != State.WAITING) {
+			throw new IllegalStateException();
+		}
+	}
+}
@@ -0,0 +1,424 @@
+package fr.upem.net.tcp.http;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Pool of keep-alive connections for blocking clients built on
+ * {@link HTTPReader}.
+ *
+ * Connections are kept by host and port, at most maxPerHost at a time for each
+ * of them: a thread asking for a connection to a host whose connections are all
+ * busy waits for one to be released. A released connection is reused only if
+ * its response was read to the end, delimited by its Content-Length or its
+ * chunks, and the server did not close it; the bytes read after the response
+ * stay in the buffer of its reader for the next one. Idle connections are
+ * closed after idleTimeoutMillis.
+ *
+ * With maxPipelined greater than 1, {@link #getAll(String, int, List)} sends up
+ * to maxPipelined requests before reading the first response (HTTP/1.1
+ * pipelining). Only GET requests are sent, so a request lost with a connection
+ * closed by the server is sent again on a new connection.
+ */
+public class HTTPConnectionPool implements Closeable {
+	private static final int BUFFER_SIZE = 4_096;
+
+	/**
+	 * A connection of the pool, used by one thread between acquire and release
+	 */
+	static final class Connection {
+		private final String key;
+		private final String host;
+		private final SocketChannel sc;
+		private final HTTPReader reader;
+		private final boolean reused;
+		private boolean reusable = true;
+		private long lastUsed;
+
+		private Connection(String key, String host, SocketChannel sc) {
+			this(key, host, sc, new HTTPReader(sc, ByteBuffer.allocate(BUFFER_SIZE)), false);
+		}
+
+		private Connection(String key, String host, SocketChannel sc, HTTPReader reader, boolean reused) {
+			this.key = key;
+			this.host = host;
+			this.sc = sc;
+			this.reader = reader;
+			this.reused = reused;
+		}
+
+		boolean isReused() {
+			return reused;
+		}
+
+		private void silentlyClose() {
+			try {
+				sc.close();
+			} catch (IOException e) {
+				// ignore exception
+			}
+		}
+	}
+
+	/**
+	 * The connections to a host, guarded by the lock of the pool
+	 */
+	private static final class Host {
+		private final ArrayDeque<Connection> idle = new ArrayDeque<>(); // the most recently used last
+		private int open; // idle, busy or being opened
+	}
+
+	private final int maxPerHost;
+	private final long idleTimeoutMillis;
+	private final int maxPipelined;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition released = lock.newCondition();
+	private final HashMap<String, Host> hosts = new HashMap<>();
+	private final LongAdder opened = new LongAdder();
+	private final LongAdder reuses = new LongAdder();
+	private boolean closed;
+
+	/**
+	 * @param maxPerHost        the maximum number of connections to a host
+	 * @param idleTimeoutMillis the time after which an idle connection is closed
+	 * @param maxPipelined      the maximum number of requests sent before their
+	 *                          responses, 1 to disable pipelining
+	 */
+	public HTTPConnectionPool(int maxPerHost, long idleTimeoutMillis, int maxPipelined) {
+		if (maxPerHost <= 0 || idleTimeoutMillis <= 0 || maxPipelined <= 0) {
+			throw new IllegalArgumentException();
+		}
+		this.maxPerHost = maxPerHost;
+		this.idleTimeoutMillis = idleTimeoutMillis;
+		this.maxPipelined = maxPipelined;
+	}
+
+	/**
+	 * Sends a GET request on a pooled connection. A reused connection may have
+	 * been closed by the server while idle, the request is then sent again once
+	 * on a new connection.
+	 *
+	 * @param host
+	 * @param port
+	 * @param path
+	 * @return the response, with its whole content
+	 * @throws IOException
+	 * @throws InterruptedException while waiting for a connection
+	 */
+	public HTTPResponse get(String host, int port, String path) throws IOException, InterruptedException {
+		for (;;) {
+			var connection = acquire(host, port);
+			try {
+				write(connection, request(connection, path));
+				var response = receive(connection);
+				release(connection);
+				return response;
+			} catch (IOException e) {
+				discard(connection);
+				if (!connection.reused) {
+					throw e;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sends GET requests for all the paths on one connection at a time, up to
+	 * maxPipelined at once. When the server closes the connection, the requests
+	 * without response are sent again on a new connection.
+	 *
+	 * @param host
+	 * @param port
+	 * @param paths
+	 * @return the responses, in the order of the paths
+	 * @throws IOException          if a new connection fails before giving any
+	 *                              response
+	 * @throws InterruptedException while waiting for a connection
+	 */
+	public List<HTTPResponse> getAll(String host, int port, List<String> paths) throws IOException, InterruptedException {
+		var responses = new ArrayList<HTTPResponse>(paths.size());
+		while (responses.size() < paths.size()) {
+			var connection = acquire(host, port);
+			var before = responses.size();
+			try {
+				var sent = responses.size();
+				while (responses.size() < paths.size() && connection.reusable) {
+					if (sent == responses.size() || (sent < paths.size() && sent - responses.size() < maxPipelined)) {
+						var requests = new StringBuilder();
+						while (sent < paths.size() && sent - responses.size() < maxPipelined) {
+							requests.append(request(connection, paths.get(sent++)));
+						}
+						write(connection, requests.toString()); // all the requests of the window in one write
+					}
+					responses.add(receive(connection));
+				}
+				release(connection);
+			} catch (IOException e) {
+				discard(connection);
+				if (!connection.reused && responses.size() == before) {
+					throw e;
+				}
+			}
+		}
+		return responses;
+	}
+
+	/**
+	 * @param host
+	 * @param port
+	 * @return an idle connection to host:port or a new one if there are less
+	 *         than maxPerHost, waiting for a release otherwise
+	 * @throws IOException          if the connection fails
+	 * @throws InterruptedException
+	 */
+	Connection acquire(String host, int port) throws IOException, InterruptedException {
+		var key = host + ":" + port;
+		lock.lock();
+		try {
+			for (;;) {
+				if (closed) {
+					throw new IOException("Pool closed");
+				}
+				var entry = hosts.computeIfAbsent(key, __ -> new Host());
+				evictIdle(entry, System.currentTimeMillis());
+				var connection = entry.idle.pollLast();
+				if (connection != null) {
+					reuses.increment();
+					return new Connection(key, connection.host, connection.sc, connection.reader, true);
+				}
+				if (entry.open < maxPerHost) {
+					entry.open++;
+					break;
+				}
+				released.await();
+			}
+		} finally {
+			lock.unlock();
+		}
+		try {
+			var sc = SocketChannel.open(new InetSocketAddress(host, port));
+			opened.increment();
+			return new Connection(key, port == 80 ? host : key, sc);
+		} catch (IOException e) {
+			closed(key);
+			throw e;
+		}
+	}
+
+	/**
+	 * Gives the connection back to the pool, closes it if it cannot carry
+	 * another request
+	 *
+	 * @param connection
+	 */
+	void release(Connection connection) {
+		if (!connection.reusable) {
+			discard(connection);
+			return;
+		}
+		lock.lock();
+		try {
+			if (closed) {
+				connection.silentlyClose();
+				hosts.get(connection.key).open--;
+				return;
+			}
+			connection.lastUsed = System.currentTimeMillis();
+			hosts.get(connection.key).idle.addLast(connection);
+			released.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Closes the connection instead of giving it back to the pool
+	 *
+	 * @param connection
+	 */
+	void discard(Connection connection) {
+		connection.silentlyClose();
+		closed(connection.key);
+	}
+
+	/**
+	 * Closes the idle connections unused for idleTimeoutMillis, this is also done
+	 * for a host each time a connection to it is acquired
+	 *
+	 * @return the number of connections closed
+	 */
+	public int evictIdle() {
+		lock.lock();
+		try {
+			var now = System.currentTimeMillis();
+			var evicted = 0;
+			for (var host : hosts.values()) {
+				evicted += evictIdle(host, now);
+			}
+			return evicted;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of idle connections
+	 */
+	public int idleConnections() {
+		lock.lock();
+		try {
+			return hosts.values().stream().mapToInt(host -> host.idle.size()).sum();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of connections opened since the creation of the pool
+	 */
+	public long opened() {
+		return opened.sum();
+	}
+
+	/**
+	 * @return the number of times an idle connection was reused
+	 */
+	public long reuses() {
+		return reuses.sum();
+	}
+
+	/**
+	 * Closes the idle connections, the busy ones are closed when released
+	 */
+	@Override
+	public void close() {
+		lock.lock();
+		try {
+			closed = true;
+			for (var host : hosts.values()) {
+				for (var connection : host.idle) {
+					connection.silentlyClose();
+					host.open--;
+				}
+				host.idle.clear();
+			}
+			released.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private int evictIdle(Host host, long now) {
+		var evicted = 0;
+		var connection = host.idle.peekFirst();
+		while (connection != null && now - connection.lastUsed >= idleTimeoutMillis) {
+			host.idle.pollFirst();
+			connection.silentlyClose();
+			host.open--;
+			evicted++;
+			connection = host.idle.peekFirst();
+		}
+		if (evicted != 0) {
+			released.signalAll();
+		}
+		return evicted;
+	}
+
+	private void closed(String key) {
+		lock.lock();
+		try {
+			hosts.get(key).open--;
+			released.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private static String request(Connection connection, String path) {
+		return "GET " + path + " HTTP/1.1\r\nHost: " + connection.host + "\r\n\r\n";
+	}
+
+	private static void write(Connection connection, String requests) throws IOException {
+		var buffer = StandardCharsets.US_ASCII.encode(requests);
+		while (buffer.hasRemaining()) {
+			connection.sc.write(buffer);
+		}
+	}
+
+	/**
+	 * Reads a response, its content being delimited by its header. The bytes of
+	 * the next response stay in the buffer of the reader.
+	 */
+	private static HTTPResponse receive(Connection connection) throws IOException {
+		var reader = connection.reader;
+		var header = reader.readHeader();
+		var code = header.getCode();
+		ByteBuffer body;
+		if (code < 200 || code == 204 || code == 304) {
+			body = ByteBuffer.allocate(0);
+		} else if (header.isChunkedTransfer()) {
+			body = reader.readChunks();
+		} else if (header.getContentLength() != -1) {
+			body = reader.readBytes(header.getContentLength());
+		} else {
+			body = readUntilClose(reader, header);
+			connection.reusable = false;
+		}
+		var connectionField = header.getFields().getOrDefault("connection", "");
+		if (header.getVersion().equals("HTTP/1.0") ? !connectionField.equalsIgnoreCase("keep-alive")
+				: connectionField.equalsIgnoreCase("close")) {
+			connection.reusable = false;
+		}
+		return new HTTPResponse(header, body.flip());
+	}
+
+	private static ByteBuffer readUntilClose(HTTPReader reader, HTTPHeader header) throws IOException {
+		var channel = reader.body(header);
+		var body = ByteBuffer.allocate(BUFFER_SIZE);
+		while (channel.read(body) != -1) {
+			if (!body.hasRemaining()) {
+				body = ByteBuffer.allocate(2 * body.capacity()).put(body.flip());
+			}
+		}
+		return body;
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length != 4) {
+			usage();
+			return;
+		}
+		var host = args[0];
+		var port = Integer.parseInt(args[1]);
+		var path = args[2];
+		var nbRequests = Integer.parseInt(args[3]);
+		try (var pool = new HTTPConnectionPool(4, 30_000, 8)) {
+			var start = System.nanoTime();
+			for (var i = 0; i < nbRequests; i++) {
+				pool.get(host, port, path);
+			}
+			var sequential = (System.nanoTime() - start) / 1_000_000;
+			start = System.nanoTime();
+			pool.getAll(host, port, Collections.nCopies(nbRequests, path));
+			var pipelined = (System.nanoTime() - start) / 1_000_000;
+			System.out.println(nbRequests + " requests: " + sequential + " ms one by one, " + pipelined
+					+ " ms pipelined, " + pool.opened() + " connection(s) opened, " + pool.reuses() + " reuses");
+		}
+	}
+
+	private static void usage() {
+		System.out.println("Usage : HTTPConnectionPool host port path nbRequests");
+	}
+}
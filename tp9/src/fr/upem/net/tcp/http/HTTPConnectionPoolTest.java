@@ -0,0 +1,149 @@
+package fr.upem.net.tcp.http;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ *
+ * <p>
+ * Tests suit for the class HTTPConnectionPool
+ */
+public class HTTPConnectionPoolTest {
+
+    private static final String RESPONSES = "HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nfirst"
+            + "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n3\r\nsec\r\n3\r\nond\r\n0\r\n\r\n"
+            + "HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nthird";
+
+    private static String body(HTTPResponse response) {
+        return StandardCharsets.US_ASCII.decode(response.body()).toString();
+    }
+
+    /**
+     * Test for three requests on one connection: the server accepts only one
+     * connection and its responses arrive in pieces of 7 bytes, so the leftover
+     * of a response must be kept for the next one
+     */
+    @Test
+    public void testReuse() throws Exception {
+        FakeHTTPServer server = new FakeHTTPServer(RESPONSES, 7);
+        try (var pool = new HTTPConnectionPool(2, 10_000, 1)) {
+            server.serve();
+            assertEquals("first", body(pool.get("localhost", server.getPort(), "/1")));
+            assertEquals("second", body(pool.get("localhost", server.getPort(), "/2")));
+            assertEquals("third", body(pool.get("localhost", server.getPort(), "/3")));
+            assertEquals(1, pool.opened());
+            assertEquals(2, pool.reuses());
+            assertEquals(1, pool.idleConnections());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    /**
+     * Test for pipelined requests, the responses arriving in one piece
+     */
+    @Test
+    public void testPipelining() throws Exception {
+        FakeHTTPServer server = new FakeHTTPServer(RESPONSES, RESPONSES.length());
+        try (var pool = new HTTPConnectionPool(1, 10_000, 8)) {
+            server.serve();
+            var responses = pool.getAll("localhost", server.getPort(), List.of("/1", "/2", "/3"));
+            assertEquals(List.of("first", "second", "third"), responses.stream().map(HTTPConnectionPoolTest::body).toList());
+            assertEquals(1, pool.opened());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    /**
+     * Test for a server closing the connection after each response: the
+     * connection is not pooled, and the requests pipelined after the close are
+     * sent again on a new connection
+     */
+    @Test
+    public void testConnectionClose() throws Exception {
+        var response = "HTTP/1.1 200 OK\r\nConnection: close\r\nContent-Length: 2\r\n\r\nok";
+        FakeHTTPServer server = new FakeHTTPServer(response, response.length(), 3);
+        try (var pool = new HTTPConnectionPool(1, 10_000, 8)) {
+            server.serve();
+            var responses = pool.getAll("localhost", server.getPort(), List.of("/1", "/2", "/3"));
+            assertEquals(List.of("ok", "ok", "ok"), responses.stream().map(HTTPConnectionPoolTest::body).toList());
+            assertEquals(3, pool.opened());
+            assertEquals(0, pool.idleConnections());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    /**
+     * Test for a pooled connection closed by the server while idle: the request
+     * is sent again on a new connection
+     */
+    @Test
+    public void testStaleConnection() throws Exception {
+        var response = "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok";
+        FakeHTTPServer server = new FakeHTTPServer(response, response.length(), 2);
+        try (var pool = new HTTPConnectionPool(1, 10_000, 1)) {
+            server.serve();
+            assertEquals("ok", body(pool.get("localhost", server.getPort(), "/1")));
+            Thread.sleep(300); // the server closes the first connection
+            assertEquals("ok", body(pool.get("localhost", server.getPort(), "/2")));
+            assertEquals(2, pool.opened());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    /**
+     * Test for the limit of connections per host: with a limit of 1, a second
+     * thread waits for the connection of the first one
+     */
+    @Test
+    public void testPerHostLimit() throws Exception {
+        FakeHTTPServer server = new FakeHTTPServer(RESPONSES, RESPONSES.length());
+        try (var pool = new HTTPConnectionPool(1, 10_000, 1)) {
+            server.serve();
+            var connection = pool.acquire("localhost", server.getPort());
+            var acquired = new CountDownLatch(1);
+            var thread = Thread.ofPlatform().start(() -> {
+                try {
+                    pool.release(pool.acquire("localhost", server.getPort()));
+                    acquired.countDown();
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                }
+            });
+            Thread.sleep(200);
+            assertEquals(1, acquired.getCount());
+            pool.release(connection);
+            thread.join(5_000);
+            assertEquals(0, acquired.getCount());
+            assertEquals(1, pool.opened());
+            assertEquals(1, pool.reuses());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    /**
+     * Test for the eviction of idle connections
+     */
+    @Test
+    public void testIdleEviction() throws Exception {
+        FakeHTTPServer server = new FakeHTTPServer(RESPONSES, RESPONSES.length());
+        try (var pool = new HTTPConnectionPool(1, 50, 1)) {
+            server.serve();
+            assertEquals("first", body(pool.get("localhost", server.getPort(), "/1")));
+            assertEquals(1, pool.idleConnections());
+            Thread.sleep(100);
+            assertEquals(1, pool.evictIdle());
+            assertEquals(0, pool.idleConnections());
+        } finally {
+            server.shutdown();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package fr.upem.net.tcp.http;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Non-blocking reader of the header of a response, the status line included,
+ * into a reused {@link HTTPRawHeader}. The value is only valid until reset.
+ */
+public class HTTPHeaderReader implements Reader<HTTPRawHeader> {
+
+	private enum State {
+		DONE, WAITING, ERROR
+	};
+
+	private final int maxSize;
+	private final HTTPRawHeader header = new HTTPRawHeader();
+	private State state = State.WAITING;
+
+	/**
+	 * @param maxSize the maximum size of the header, a larger header is an ERROR
+	 */
+	public HTTPHeaderReader(int maxSize) {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("maxSize must be positive");
+		}
+		this.maxSize = maxSize;
+	}
+
+	@Override
+	public ProcessStatus process(ByteBuffer buffer) {
+		if (state == State.DONE || state == State.ERROR) {
+			throw new IllegalStateException();
+		}
+		buffer.flip();
+		try {
+			for (;;) {
+				var found = header.lines().scanCRLF(buffer);
+				if (header.lines().length() > maxSize) {
+					state = State.ERROR;
+					return ProcessStatus.ERROR;
+				}
+				if (!found) {
+					return ProcessStatus.REFILL;
+				}
+				if (header.endLine()) {
+					header.statusCode(); // checks the status line
+					state = State.DONE;
+					return ProcessStatus.DONE;
+				}
+			}
+		} catch (HTTPException e) {
+			state = State.ERROR;
+			return ProcessStatus.ERROR;
+		} finally {
+			buffer.compact();
+		}
+	}
+
+	@Override
+	public HTTPRawHeader get() {
+		if (state != State.DONE) {
+			throw new IllegalStateException();
+		}
+		return header;
+	}
+
+	@Override
+	public void reset() {
+		state = State.WAITING;
+		header.reset();
+	}
+}
@@ -0,0 +1,285 @@
+package fr.upem.net.tcp.http;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Optional;
+
+/**
+ * A header filled by {@link HTTPReader#readRawHeader(HTTPRawHeader)} without
+ * building Strings: the fields are offsets and lengths in the bytes of the
+ * header, and names and values are only materialized when asked for.
+ *
+ * The object is meant to be reused for each response: after the first ones,
+ * reading a header allocates nothing. Everything it returns is only valid until
+ * the next read.
+ */
+public final class HTTPRawHeader {
+	private static final int INTS_PER_FIELD = 4; // name offset, name end, value offset, value end
+
+	private final LineScanner lines = new LineScanner();
+	private int lineStart;
+	private int statusEnd = -1; // -1 until the status line is read
+	private int[] fields = new int[16 * INTS_PER_FIELD];
+	private int fieldCount;
+	private boolean complete;
+
+	public void reset() {
+		lines.reset();
+		lineStart = 0;
+		statusEnd = -1;
+		fieldCount = 0;
+		complete = false;
+	}
+
+	LineScanner lines() {
+		return lines;
+	}
+
+	/**
+	 * Parses the line ended by the last CRLF scanned
+	 *
+	 * @return true if it was the empty line ending the header
+	 * @throws HTTPException if a field has no ':'
+	 */
+	boolean endLine() throws HTTPException {
+		var bytes = lines.bytes();
+		var end = lines.length() - 2; // without the CRLF
+		var start = lineStart;
+		lineStart = lines.length();
+		if (statusEnd == -1) {
+			statusEnd = end;
+			return false;
+		}
+		if (start == end) {
+			complete = true;
+			return true;
+		}
+		var colon = start;
+		while (colon < end && bytes[colon] != ':') {
+			colon++;
+		}
+		if (colon == end) { // the message is not built eagerly by ensure, the header must not allocate
+			throw new HTTPException("Invalid field :\n" + string(start, end - start));
+		}
+		var valueStart = colon + 1;
+		var valueEnd = end;
+		while (valueStart < valueEnd && isWhitespace(bytes[valueStart])) {
+			valueStart++;
+		}
+		while (valueEnd > valueStart && isWhitespace(bytes[valueEnd - 1])) {
+			valueEnd--;
+		}
+		if ((fieldCount + 1) * INTS_PER_FIELD > fields.length) {
+			var newFields = new int[2 * fields.length];
+			System.arraycopy(fields, 0, newFields, 0, fields.length);
+			fields = newFields;
+		}
+		var index = fieldCount++ * INTS_PER_FIELD;
+		fields[index] = start;
+		fields[index + 1] = colon;
+		fields[index + 2] = valueStart;
+		fields[index + 3] = valueEnd;
+		return false;
+	}
+
+	/**
+	 * @return true once the empty line ending the header was read
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * @return the bytes of the header, the offsets of the fields are indexes in
+	 *         this array
+	 */
+	public byte[] bytes() {
+		return lines.bytes();
+	}
+
+	public int fieldCount() {
+		return fieldCount;
+	}
+
+	public int nameOffset(int field) {
+		return fields[checkField(field) * INTS_PER_FIELD];
+	}
+
+	public int nameLength(int field) {
+		return fields[checkField(field) * INTS_PER_FIELD + 1] - nameOffset(field);
+	}
+
+	/**
+	 * @param field
+	 * @return the offset of the value, without the leading whitespaces
+	 */
+	public int valueOffset(int field) {
+		return fields[checkField(field) * INTS_PER_FIELD + 2];
+	}
+
+	/**
+	 * @param field
+	 * @return the length of the value, without the leading and trailing
+	 *         whitespaces
+	 */
+	public int valueLength(int field) {
+		return fields[checkField(field) * INTS_PER_FIELD + 3] - valueOffset(field);
+	}
+
+	public String name(int field) {
+		return string(nameOffset(field), nameLength(field));
+	}
+
+	public String value(int field) {
+		return string(valueOffset(field), valueLength(field));
+	}
+
+	public String statusLine() {
+		checkStatus();
+		return string(0, statusEnd);
+	}
+
+	/**
+	 * @return the code of the status line, parsed in place
+	 * @throws HTTPException if the status line has no valid code
+	 */
+	public int statusCode() throws HTTPException {
+		checkStatus();
+		var bytes = lines.bytes();
+		var space = 0;
+		while (space < statusEnd && bytes[space] != ' ') {
+			space++;
+		}
+		if (space + 4 > statusEnd || (space + 4 != statusEnd && bytes[space + 4] != ' ')) {
+			throw new HTTPException("Invalid response:\n" + statusLine());
+		}
+		var code = parseDigits(space + 1, 3);
+		if (code < 100 || code >= 600) {
+			throw new HTTPException("Invalid code in response:\n" + statusLine());
+		}
+		return (int) code;
+	}
+
+	/**
+	 * @param name compared ignoring the ASCII case
+	 * @return the index of the first field with this name, or -1
+	 */
+	public int indexOf(String name) {
+		var bytes = lines.bytes();
+		for (var field = 0; field < fieldCount; field++) {
+			var offset = nameOffset(field);
+			var length = nameLength(field);
+			if (length != name.length()) {
+				continue;
+			}
+			var i = 0;
+			while (i < length && toLowerCase(bytes[offset + i]) == toLowerCase((byte) name.charAt(i))) {
+				i++;
+			}
+			if (i == length) {
+				return field;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param name compared ignoring the ASCII case
+	 * @return the value of the first field with this name
+	 */
+	public Optional<String> value(String name) {
+		var field = indexOf(name);
+		return field == -1 ? Optional.empty() : Optional.of(value(field));
+	}
+
+	/**
+	 * @return the value of the Content-Length field parsed in place, -1 if the
+	 *         field does not exists
+	 * @throws HTTPException when the value of Content-Length is not a number
+	 */
+	public long getContentLength() throws HTTPException {
+		var field = indexOf("content-length");
+		if (field == -1) {
+			return -1;
+		}
+		var length = valueLength(field);
+		if (length == 0 || length > 18) {
+			throw new HTTPException("Invalid Content-Length field value :\n" + value(field));
+		}
+		return parseDigits(valueOffset(field), length);
+	}
+
+	/**
+	 * @return true if the header correspond to a chunked response
+	 */
+	public boolean isChunkedTransfer() {
+		var field = indexOf("transfer-encoding");
+		if (field == -1 || valueLength(field) != 7) {
+			return false;
+		}
+		var bytes = lines.bytes();
+		var offset = valueOffset(field);
+		for (var i = 0; i < 7; i++) {
+			if (toLowerCase(bytes[offset + i]) != "chunked".charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the HTTPHeader with the same content, the values of the fields
+	 *         present several times being joined with ';'
+	 * @throws HTTPException if the status line is ill-formed
+	 */
+	public HTTPHeader toHTTPHeader() throws HTTPException {
+		var map = new HashMap<String, String>();
+		for (var field = 0; field < fieldCount; field++) {
+			map.merge(name(field), value(field), (previous, value) -> previous + ";" + value);
+		}
+		return HTTPHeader.create(statusLine(), map);
+	}
+
+	@Override
+	public String toString() {
+		return statusEnd == -1 ? "" : string(0, lineStart);
+	}
+
+	private long parseDigits(int offset, int length) throws HTTPException {
+		var bytes = lines.bytes();
+		var value = 0L;
+		for (var i = offset; i < offset + length; i++) {
+			var digit = bytes[i] - '0';
+			if (digit < 0 || digit > 9) {
+				throw new HTTPException("Invalid number :\n" + string(offset, length));
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	private String string(int offset, int length) {
+		return new String(lines.bytes(), offset, length, StandardCharsets.ISO_8859_1);
+	}
+
+	private int checkField(int field) {
+		if (field < 0 || field >= fieldCount) {
+			throw new IndexOutOfBoundsException(field);
+		}
+		return field;
+	}
+
+	private void checkStatus() {
+		if (statusEnd == -1) {
+			throw new IllegalStateException("no header read");
+		}
+	}
+
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t';
+	}
+
+	private static int toLowerCase(byte b) {
+		return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b;
+	}
+}
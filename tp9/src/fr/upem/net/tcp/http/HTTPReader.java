@@ -3,15 +3,20 @@ package fr.upem.net.tcp.http;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.Charset;
-import java.util.HashMap;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.function.Consumer;
 
 public class HTTPReader {
 
 	private final Charset ASCII_CHARSET = Charset.forName("ASCII");
 	private final SocketChannel sc;
 	private final ByteBuffer buffer;
+	private final LineScanner line = new LineScanner();
 
 	public HTTPReader(SocketChannel sc, ByteBuffer buffer) {
 		this.sc = sc;
@@ -28,32 +33,9 @@ public class HTTPReader {
 	 *                     could be read
 	 */
 	public String readLineCRLF() throws IOException {
-		// TODO
-		boolean finished = false;
-		var builder = new StringBuilder();
-		boolean lastCRLF=false;
-		buffer.flip();
-		try {
-			while(!finished) {
-				while(buffer.hasRemaining()) {
-					var currentChar = (char) buffer.get();
-					builder.append(currentChar);
-					if(lastCRLF && currentChar=='\n') {
-						finished=true;
-						return builder.toString().replace("\r\n", "");
-					}
-					lastCRLF = (currentChar =='\r');
-				}
-				buffer.compact();
-				if(sc.read(buffer)==-1) {
-					throw new HTTPException();
-				}
-				buffer.flip();
-			}
-		}finally {
-			buffer.compact();
-		}
-		return builder.toString().replace("\r\n", "");
+		line.reset();
+		scanCRLF(line);
+		return new String(line.bytes(), 0, line.length() - 2, StandardCharsets.ISO_8859_1);
 	}
 
 	/**
@@ -62,22 +44,50 @@ public class HTTPReader {
 	 *                     could be read or if the header is ill-formed
 	 */
 	public HTTPHeader readHeader() throws IOException {
-		// TODO
-		var response =readLineCRLF();
-		var fields = new HashMap<String,String>();
-		String line;
-		for(;;) {
-			line = readLineCRLF();
-			if(line.equals("")) {
-				break;
+		return readRawHeader(new HTTPRawHeader()).toHTTPHeader();
+	}
+
+	/**
+	 * Reads a header without building Strings, see {@link HTTPRawHeader}
+	 *
+	 * @param header reset then filled with the header read
+	 * @return header
+	 *         <p>
+	 *         The method assume that buffer is in write mode and leaves it in
+	 *         write mode The method process the data from the buffer and if necessary
+	 *         will read more data from the socket.
+	 * @throws IOException HTTPException if the connection is closed before a header
+	 *                     could be read or if a field has no ':'
+	 */
+	public HTTPRawHeader readRawHeader(HTTPRawHeader header) throws IOException {
+		header.reset();
+		do {
+			scanCRLF(header.lines());
+		} while (!header.endLine());
+		return header;
+	}
+
+	/**
+	 * Moves the bytes of buffer up to the next CRLF in lines, reading the socket
+	 * until a CRLF is found
+	 *
+	 * @param lines
+	 * @throws IOException HTTPException if the connection is closed before a CRLF
+	 */
+	private void scanCRLF(LineScanner lines) throws IOException {
+		for (;;) {
+			buffer.flip();
+			try {
+				if (lines.scanCRLF(buffer)) {
+					return;
+				}
+			} finally {
+				buffer.compact();
 			}
-			var split = line.split(":",2);
-			if(split.length!=2) {
+			if (sc.read(buffer) == -1) {
 				throw new HTTPException();
 			}
-			fields.merge(split[0], split[1], (k,v) -> v+";"+split[1]);
 		}
-		return HTTPHeader.create(response, fields);
 	}
 
 	/**
@@ -126,14 +136,206 @@ public class HTTPReader {
 
 	/**
 	 * @return a ByteBuffer in write-mode containing a content read in chunks mode
+	 *         <p>
+	 *         The whole content is gathered in memory, use
+	 *         {@link #readChunks(Consumer)} or {@link #chunkedBody()} to stream
+	 *         large contents.
 	 * @throws IOException HTTPException if the connection is closed before the end
 	 *                     of the chunks if chunks are ill-formed
 	 */
 
 	public ByteBuffer readChunks() throws IOException {
-		// TODO
-		
-		return null;
+		var content = new ByteBuffer[] { ByteBuffer.allocate(buffer.capacity()) };
+		readChunks(data -> {
+			if (content[0].remaining() < data.remaining()) {
+				var bigger = ByteBuffer.allocate(Math.max(2 * content[0].capacity(), content[0].position() + data.remaining()));
+				content[0] = bigger.put(content[0].flip());
+			}
+			content[0].put(data);
+		});
+		return content[0];
+	}
+
+	/**
+	 * Streams a content read in chunks mode: onData is called with each piece of
+	 * data as soon as it is in the buffer, without copy and without gathering
+	 * the content, so the memory used is bounded by the buffer of the reader.
+	 * <p>
+	 * The ByteBuffer given to onData is a read-only view in read-mode of the
+	 * buffer of the reader, only valid during the call. The method assume that
+	 * buffer is in write mode and leaves it in write mode, with the bytes
+	 * following the chunks (e.g. the next response).
+	 *
+	 * @param onData
+	 * @throws IOException HTTPException if the connection is closed before the end
+	 *                     of the chunks if chunks are ill-formed
+	 */
+	public void readChunks(Consumer<? super ByteBuffer> onData) throws IOException {
+		Objects.requireNonNull(onData);
+		var body = new ChunkedBody();
+		while (body.transfer(Long.MAX_VALUE, onData) != -1) {
+			// onData did the work
+		}
+	}
+
+	/**
+	 * @return a channel reading the content of a response in chunks mode, the
+	 *         chunk headers and trailers being removed.
+	 *         <p>
+	 *         The channel reads through the buffer of the reader, which must not be
+	 *         used until the channel returned -1. Closing the channel does not
+	 *         close the socket.
+	 */
+	public ReadableByteChannel chunkedBody() {
+		return new ChunkedBody();
+	}
+
+	/**
+	 * @param header the header of the response, already read
+	 * @return a channel reading the content of the response: chunked, or of
+	 *         Content-Length bytes, or until the end of the connection when there
+	 *         is neither
+	 * @throws HTTPException if the Content-Length is not a number
+	 */
+	public ReadableByteChannel body(HTTPHeader header) throws HTTPException {
+		if (header.isChunkedTransfer()) {
+			return new ChunkedBody();
+		}
+		var contentLength = header.getContentLength();
+		return new FixedBody(contentLength == -1 ? Long.MAX_VALUE : contentLength, contentLength != -1);
+	}
+
+	/**
+	 * Base of the body channels: gives at most max bytes of the buffer, reading
+	 * the socket only when the buffer is empty.
+	 */
+	private abstract class Body implements ReadableByteChannel {
+		private boolean open = true;
+
+		@Override
+		public boolean isOpen() {
+			return open;
+		}
+
+		@Override
+		public void close() {
+			open = false;
+		}
+
+		@Override
+		public int read(ByteBuffer dst) throws IOException {
+			if (!open) {
+				throw new ClosedChannelException();
+			}
+			if (!dst.hasRemaining()) {
+				return 0;
+			}
+			return transfer(dst.remaining(), dst::put);
+		}
+
+		/**
+		 * @param max
+		 * @param sink called with a read-only view of at most max bytes
+		 * @return the number of bytes given to sink, -1 at the end of the body
+		 * @throws IOException
+		 */
+		abstract int transfer(long max, Consumer<? super ByteBuffer> sink) throws IOException;
+
+		/**
+		 * @param max
+		 * @param sink
+		 * @param endAllowed true if the end of the connection is the end of the
+		 *                   body
+		 * @return the number of bytes given to sink, -1 if the connection is closed
+		 *         and endAllowed
+		 * @throws IOException HTTPException if the connection is closed and not
+		 *                     endAllowed
+		 */
+		int transferBuffered(long max, Consumer<? super ByteBuffer> sink, boolean endAllowed) throws IOException {
+			if (buffer.position() == 0 && sc.read(buffer) == -1) {
+				if (endAllowed) {
+					return -1;
+				}
+				throw new HTTPException("Connection closed in the middle of the content");
+			}
+			buffer.flip();
+			try {
+				var size = (int) Math.min(max, buffer.remaining());
+				sink.accept(buffer.slice(buffer.position(), size).asReadOnlyBuffer());
+				buffer.position(buffer.position() + size);
+				return size;
+			} finally {
+				buffer.compact();
+			}
+		}
+	}
+
+	private final class FixedBody extends Body {
+		private long remaining;
+		private final boolean exact;
+
+		private FixedBody(long size, boolean exact) {
+			this.remaining = size;
+			this.exact = exact;
+		}
+
+		@Override
+		int transfer(long max, Consumer<? super ByteBuffer> sink) throws IOException {
+			if (remaining == 0) {
+				return -1;
+			}
+			var size = transferBuffered(Math.min(max, remaining), sink, !exact);
+			if (size == -1) {
+				remaining = 0;
+				return -1;
+			}
+			remaining -= size;
+			return size;
+		}
+	}
+
+	/**
+	 * Decoder of the chunks mode: size in hexadecimal (optionally followed by
+	 * extensions) CRLF, data CRLF, ..., then a chunk of size 0 and optional
+	 * trailer fields ended by an empty line.
+	 */
+	private final class ChunkedBody extends Body {
+		private long remainingInChunk;
+		private boolean started;
+		private boolean finished;
+
+		@Override
+		int transfer(long max, Consumer<? super ByteBuffer> sink) throws IOException {
+			if (finished) {
+				return -1;
+			}
+			if (remainingInChunk == 0) {
+				if (started) {
+					HTTPException.ensure(readLineCRLF().isEmpty(), "Missing CRLF after the chunk data");
+				}
+				started = true;
+				remainingInChunk = parseChunkSize(readLineCRLF());
+				if (remainingInChunk == 0) {
+					while (!readLineCRLF().isEmpty()) {
+						// trailer fields are ignored
+					}
+					finished = true;
+					return -1;
+				}
+			}
+			var size = transferBuffered(Math.min(max, remainingInChunk), sink, false);
+			remainingInChunk -= size;
+			return size;
+		}
+	}
+
+	private static long parseChunkSize(String line) throws HTTPException {
+		var extension = line.indexOf(';');
+		var size = (extension == -1 ? line : line.substring(0, extension)).trim();
+		if (size.isEmpty() || size.length() > 15 || !size.chars().allMatch(c -> Character.digit(c, 16) != -1)) {
+			throw new HTTPException("Invalid chunk size : " + line);
+		}
+		return Long.parseLong(size, 16);
 	}
 
 	public static void main(String[] args) throws IOException {
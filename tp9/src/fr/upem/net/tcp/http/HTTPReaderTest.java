@@ -4,10 +4,12 @@ import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
+import java.util.Map;
 
 
 /**
@@ -158,4 +160,238 @@ public class HTTPReaderTest {
             server.shutdown();
         }
     }
+
+    private static final String CHUNKED = "4;name=value\r\nWiki\r\n5\r\npedia\r\nE\r\n in\r\n\r\nchunks.\r\n"
+            + "0\r\nTrailer: ignored\r\n\r\n";
+    private static final String CHUNKED_CONTENT = "Wikipedia in\r\n\r\nchunks.";
+
+    /**
+     * Test for readChunks with the chunks split at every offset: the beginning is
+     * already in the buffer and the rest is read on the socket, so every chunk
+     * header, CRLF and data is cut once. The bytes after the chunks must be left
+     * in the buffer.
+     * @throws java.io.IOException
+     */
+    @Test
+    public void testReadChunksEveryOffset() throws IOException {
+        var bytes = (CHUNKED + "NEXT").getBytes("ASCII");
+        for (var offset = 0; offset <= bytes.length; offset++) {
+            FakeHTTPServer server = new FakeHTTPServer(new String(bytes, offset, bytes.length - offset, "ASCII"), bytes.length);
+            try {
+                server.serve();
+                SocketChannel sc = SocketChannel.open();
+                sc.connect(new InetSocketAddress("localhost", server.getPort()));
+                var buff = ByteBuffer.allocate(bytes.length);
+                buff.put(bytes, 0, offset);
+                HTTPReader reader = new HTTPReader(sc, buff);
+                assertEquals(CHUNKED_CONTENT, StandardCharsets.US_ASCII.decode(reader.readChunks().flip()).toString(),
+                        "offset " + offset);
+                while (buff.position() < 4 && sc.read(buff) != -1) {
+                    // the end may not be read yet
+                }
+                assertEquals("NEXT", StandardCharsets.US_ASCII.decode(buff.flip()).toString(), "offset " + offset);
+            } finally {
+                server.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Test for chunkedBody with a buffer of 3 bytes read through a destination of
+     * 1 byte: the memory used does not depend on the size of the content
+     * @throws java.io.IOException
+     */
+    @Test
+    public void testChunkedBodyChannel() throws IOException {
+        FakeHTTPServer server = new FakeHTTPServer(CHUNKED, 7);
+        try {
+            server.serve();
+            SocketChannel sc = SocketChannel.open();
+            sc.connect(new InetSocketAddress("localhost", server.getPort()));
+            HTTPReader reader = new HTTPReader(sc, ByteBuffer.allocate(3));
+            var body = reader.chunkedBody();
+            var dst = ByteBuffer.allocate(1);
+            var builder = new StringBuilder();
+            while (body.read(dst.clear()) != -1) {
+                builder.append(StandardCharsets.US_ASCII.decode(dst.flip()));
+            }
+            assertEquals(CHUNKED_CONTENT, builder.toString());
+            assertEquals(-1, body.read(dst.clear()));
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    /**
+     * Test for readChunks with a callback: the data is given in read-only views no
+     * larger than the buffer of the reader
+     * @throws java.io.IOException
+     */
+    @Test
+    public void testReadChunksCallback() throws IOException {
+        FakeHTTPServer server = new FakeHTTPServer(CHUNKED, 5);
+        try {
+            server.serve();
+            SocketChannel sc = SocketChannel.open();
+            sc.connect(new InetSocketAddress("localhost", server.getPort()));
+            HTTPReader reader = new HTTPReader(sc, ByteBuffer.allocate(8));
+            var builder = new StringBuilder();
+            reader.readChunks(data -> {
+                assertTrue(data.isReadOnly());
+                assertTrue(data.remaining() <= 8);
+                builder.append(StandardCharsets.US_ASCII.decode(data));
+            });
+            assertEquals(CHUNKED_CONTENT, builder.toString());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    /**
+     * Test for readChunks with ill-formed chunks and with a connection closed in
+     * the middle of a chunk
+     * @throws java.io.IOException
+     */
+    @Test
+    public void testReadChunksIllFormed() throws IOException {
+        for (var content : new String[] { "Z\r\nabc", "-1\r\nabc", "3\r\nabcX\r\n0\r\n\r\n", "5\r\nabc" }) {
+            FakeHTTPServer server = new FakeHTTPServer(content, 100);
+            try {
+                server.serve();
+                SocketChannel sc = SocketChannel.open();
+                sc.connect(new InetSocketAddress("localhost", server.getPort()));
+                HTTPReader reader = new HTTPReader(sc, ByteBuffer.allocate(12));
+                assertThrows(HTTPException.class, () -> reader.readChunks(), content);
+            } finally {
+                server.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Test for body with a Content-Length: the channel stops at the end of the
+     * content
+     * @throws java.io.IOException
+     */
+    @Test
+    public void testBodyContentLength() throws IOException {
+        FakeHTTPServer server = new FakeHTTPServer("0123456789NEXT", 4);
+        try {
+            server.serve();
+            SocketChannel sc = SocketChannel.open();
+            sc.connect(new InetSocketAddress("localhost", server.getPort()));
+            var buff = ByteBuffer.allocate(12);
+            HTTPReader reader = new HTTPReader(sc, buff);
+            var header = HTTPHeader.create("HTTP/1.1 200 OK", Map.of("Content-Length", "10"));
+            var body = reader.body(header);
+            var dst = ByteBuffer.allocate(100);
+            while (body.read(dst) != -1) {
+                // reads the whole content
+            }
+            assertEquals("0123456789", StandardCharsets.US_ASCII.decode(dst.flip()).toString());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    private static final String HEADER = "HTTP/1.1 200 OK\r\nContent-Type: text/html; charset=utf-8\r\n"
+            + "Set-Cookie: a=1\r\nContent-Length:  \t42 \r\nSet-Cookie: b=2\r\nTransfer-Encoding: Chunked\r\n\r\n";
+
+    /**
+     * Test for readRawHeader with the header split at every offset between the
+     * buffer and the socket: the fields are found in place and the body is left
+     * in the buffer
+     * @throws java.io.IOException
+     */
+    @Test
+    public void testReadRawHeaderEveryOffset() throws IOException {
+        var bytes = (HEADER + "BODY").getBytes("ASCII");
+        var header = new HTTPRawHeader();
+        for (var offset = 0; offset <= bytes.length; offset++) {
+            FakeHTTPServer server = new FakeHTTPServer(new String(bytes, offset, bytes.length - offset, "ASCII"), bytes.length);
+            try {
+                server.serve();
+                SocketChannel sc = SocketChannel.open();
+                sc.connect(new InetSocketAddress("localhost", server.getPort()));
+                var buff = ByteBuffer.allocate(bytes.length);
+                buff.put(bytes, 0, offset);
+                HTTPReader reader = new HTTPReader(sc, buff);
+                assertSame(header, reader.readRawHeader(header));
+                assertTrue(header.isComplete());
+                assertEquals("HTTP/1.1 200 OK", header.statusLine());
+                assertEquals(200, header.statusCode());
+                assertEquals(5, header.fieldCount());
+                assertEquals("Set-Cookie", header.name(1));
+                assertEquals("42", header.value(2));
+                assertEquals(42, header.getContentLength());
+                assertTrue(header.isChunkedTransfer());
+                assertEquals("a=1", header.value("set-cookie").orElseThrow());
+                assertEquals(-1, header.indexOf("Host"));
+                while (buff.position() < 4 && sc.read(buff) != -1) {
+                    // the end may not be read yet
+                }
+                assertEquals("BODY", StandardCharsets.US_ASCII.decode(buff.flip()).toString(), "offset " + offset);
+            } finally {
+                server.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Test for readHeader built on readRawHeader: the fields present several
+     * times are joined
+     * @throws java.io.IOException
+     */
+    @Test
+    public void testReadHeader() throws IOException {
+        var buff = ByteBuffer.wrap(HEADER.getBytes("ASCII")).compact();
+        HTTPReader reader = new HTTPReader(null, buff);
+        var header = reader.readHeader();
+        assertEquals(200, header.getCode());
+        assertEquals(42, header.getContentLength());
+        assertEquals("a=1;b=2", header.getFields().get("set-cookie"));
+        assertEquals(StandardCharsets.UTF_8, header.getCharset().orElseThrow());
+        assertEquals(0, buff.position());
+    }
+
+    /**
+     * Test for readRawHeader with a field without ':' and with a line longer than
+     * the buffer of the reader
+     * @throws java.io.IOException
+     */
+    @Test
+    public void testReadRawHeaderLongAndIllFormed() throws IOException {
+        var value = "x".repeat(1000);
+        var buff = ByteBuffer.wrap(("HTTP/1.1 404 Not Found\r\nLong: " + value + "\r\n\r\n").getBytes("ASCII")).compact();
+        var header = new HTTPReader(null, buff).readRawHeader(new HTTPRawHeader());
+        assertEquals(404, header.statusCode());
+        assertEquals(value, header.value(0));
+        var illFormed = ByteBuffer.wrap("HTTP/1.1 200 OK\r\nNoColon\r\n\r\n".getBytes("ASCII")).compact();
+        assertThrows(HTTPException.class, () -> new HTTPReader(null, illFormed).readRawHeader(new HTTPRawHeader()));
+    }
+
+    /**
+     * Test for the word at a time search of LF: every position of the LF, every
+     * alignment, both byte orders, heap and direct buffers, and the bytes that
+     * make the trick give false positives (0x0B, 0x8A)
+     */
+    @Test
+    public void testIndexOfLF() {
+        for (var direct : new boolean[] { false, true }) {
+            for (var order : new ByteOrder[] { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN }) {
+                for (var size = 0; size < 40; size++) {
+                    for (var lf = -1; lf < size; lf++) {
+                        var buff = (direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size)).order(order);
+                        for (var i = 0; i < size; i++) {
+                            buff.put(i, (byte) (i == lf ? '\n' : i % 3 == 0 ? 0x0B : i % 3 == 1 ? 0x8A : 'a'));
+                        }
+                        for (var from = 0; from <= size; from++) {
+                            var expected = lf >= from ? lf : -1;
+                            assertEquals(expected, LineScanner.indexOfLF(buff, from, size));
+                        }
+                    }
+                }
+            }
+        }
+    }
 }
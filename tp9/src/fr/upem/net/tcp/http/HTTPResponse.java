@@ -0,0 +1,15 @@
+package fr.upem.net.tcp.http;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+/**
+ * A complete response: its header and its content, in read-mode and
+ * read-only, with the chunks already decoded
+ */
+public record HTTPResponse(HTTPHeader header, ByteBuffer body) {
+	public HTTPResponse {
+		Objects.requireNonNull(header);
+		body = body.asReadOnlyBuffer();
+	}
+}
@@ -0,0 +1,183 @@
+package fr.upem.net.tcp.http;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Non-blocking reader of a response of HTTP/1.1, to be driven by a selector: an
+ * {@link HTTPHeaderReader} then an {@link HTTPBodyReader} set from the header.
+ *
+ * The bytes following the response (e.g. the next response on a keep-alive
+ * connection) are left in the buffer. {@link #rawHeader()} and {@link #body()}
+ * give the response without copy until reset, get materializes it.
+ */
+public class HTTPResponseReader implements Reader<HTTPResponse> {
+
+	private enum State {
+		HEADER, BODY, DONE, ERROR
+	};
+
+	private final HTTPHeaderReader headerReader;
+	private final HTTPBodyReader bodyReader;
+	private State state = State.HEADER;
+	private boolean headRequest;
+	private HTTPResponse response; // materialized by get
+
+	/**
+	 * @param maxHeaderSize
+	 * @param maxBodySize
+	 */
+	public HTTPResponseReader(int maxHeaderSize, int maxBodySize) {
+		headerReader = new HTTPHeaderReader(maxHeaderSize);
+		bodyReader = new HTTPBodyReader(maxBodySize);
+	}
+
+	/**
+	 * Tells the reader that the response is the answer to a HEAD request, which
+	 * has no content whatever its header says. To be called after reset.
+	 */
+	public void headRequest() {
+		if (state != State.HEADER) {
+			throw new IllegalStateException();
+		}
+		headRequest = true;
+	}
+
+	@Override
+	public ProcessStatus process(ByteBuffer buffer) {
+		switch (state) {
+		case HEADER -> {
+			var status = headerReader.process(buffer);
+			if (status != ProcessStatus.DONE) {
+				return status == ProcessStatus.ERROR ? error() : status;
+			}
+			if (!setBody(headerReader.get())) {
+				return error();
+			}
+			state = State.BODY;
+			return process(buffer);
+		}
+		case BODY -> {
+			if (bodyReader.isDone()) {
+				state = State.DONE;
+				return ProcessStatus.DONE;
+			}
+			var status = bodyReader.process(buffer);
+			if (status == ProcessStatus.DONE) {
+				state = State.DONE;
+			} else if (status == ProcessStatus.ERROR) {
+				state = State.ERROR;
+			}
+			return status;
+		}
+		default -> throw new IllegalStateException();
+		}
+	}
+
+	/**
+	 * To be called when the connection is closed before the response is DONE
+	 *
+	 * @return DONE if the content of the response ends with the connection, ERROR
+	 *         otherwise
+	 */
+	public ProcessStatus endOfInput() {
+		if (state == State.BODY && bodyReader.endOfInput() == ProcessStatus.DONE) {
+			state = State.DONE;
+			return ProcessStatus.DONE;
+		}
+		return error();
+	}
+
+	/**
+	 * @return true if the connection can carry another request after this
+	 *         response: the content does not end with the connection and the
+	 *         server did not ask to close it
+	 */
+	public boolean isKeepAlive() {
+		if (state != State.DONE) {
+			throw new IllegalStateException();
+		}
+		var header = headerReader.get();
+		if (bodyReader.isUntilClose()) {
+			return false;
+		}
+		var connection = header.value("connection").orElse("");
+		if (header.statusLine().startsWith("HTTP/1.0")) {
+			return connection.equalsIgnoreCase("keep-alive");
+		}
+		return !connection.equalsIgnoreCase("close");
+	}
+
+	/**
+	 * @return the header read, valid until reset
+	 */
+	public HTTPRawHeader rawHeader() {
+		return headerReader.get();
+	}
+
+	/**
+	 * @return the content, read-only in read-mode, valid until reset
+	 */
+	public ByteBuffer body() {
+		if (state != State.DONE) {
+			throw new IllegalStateException();
+		}
+		return bodyReader.get();
+	}
+
+	/**
+	 * @return a copy of the response, independent of the reader
+	 */
+	@Override
+	public HTTPResponse get() {
+		if (state != State.DONE) {
+			throw new IllegalStateException();
+		}
+		if (response == null) {
+			var body = bodyReader.get();
+			var copy = ByteBuffer.allocate(body.remaining()).put(body).flip();
+			try {
+				response = new HTTPResponse(headerReader.get().toHTTPHeader(), copy);
+			} catch (HTTPException e) {
+				throw new IllegalStateException(e); // the status line was checked by the header reader
+			}
+		}
+		return response;
+	}
+
+	@Override
+	public void reset() {
+		state = State.HEADER;
+		headRequest = false;
+		response = null;
+		headerReader.reset();
+		bodyReader.reset();
+	}
+
+	/**
+	 * Sets the framing of the content from the header (RFC 9112 section 6.3)
+	 *
+	 * @return false if the Content-Length is invalid
+	 */
+	private boolean setBody(HTTPRawHeader header) {
+		try {
+			var code = header.statusCode();
+			if (headRequest || code < 200 || code == 204 || code == 304) {
+				bodyReader.fixed(0);
+			} else if (header.isChunkedTransfer()) {
+				bodyReader.chunked();
+			} else if (header.getContentLength() != -1) {
+				bodyReader.fixed(header.getContentLength());
+			} else {
+				bodyReader.untilClose();
+			}
+			return true;
+		} catch (HTTPException e) {
+			return false;
+		}
+	}
+
+	private ProcessStatus error() {
+		state = State.ERROR;
+		return ProcessStatus.ERROR;
+	}
+}
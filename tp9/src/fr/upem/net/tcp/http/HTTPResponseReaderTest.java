@@ -0,0 +1,132 @@
+package fr.upem.net.tcp.http;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import fr.upem.net.tcp.http.Reader.ProcessStatus;
+
+/**
+ *
+ * <p>
+ * Tests suit for the class HTTPResponseReader
+ */
+public class HTTPResponseReaderTest {
+
+    private static final String FIXED = "HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nhello";
+    private static final String CHUNKED = "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+            + "4;ext\r\nWiki\r\n5\r\npedia\r\n0\r\nTrailer: t\r\n\r\n";
+    private static final String NO_CONTENT = "HTTP/1.1 204 No Content\r\nContent-Length: 12\r\n\r\n";
+
+    /**
+     * Feeds response followed by next split at offset, and checks that the
+     * response is DONE with its content and that next is left in the buffer
+     */
+    private static HTTPResponseReader parse(String response, String next, int offset, int bufferSize) {
+        var bytes = (response + next).getBytes(StandardCharsets.US_ASCII);
+        var reader = new HTTPResponseReader(1_024, 1_024);
+        var buffer = ByteBuffer.allocate(bufferSize);
+        var sent = 0;
+        var status = ProcessStatus.REFILL;
+        while (status == ProcessStatus.REFILL) {
+            var size = Math.min(buffer.remaining(), (sent < offset ? offset : bytes.length) - sent);
+            buffer.put(bytes, sent, size);
+            sent += size;
+            status = reader.process(buffer);
+            assertTrue(status == ProcessStatus.DONE || sent < bytes.length, "offset " + offset);
+        }
+        assertEquals(ProcessStatus.DONE, status, "offset " + offset);
+        buffer.put(bytes, sent, bytes.length - sent);
+        assertEquals(next, StandardCharsets.US_ASCII.decode(buffer.flip()).toString(), "offset " + offset);
+        return reader;
+    }
+
+    /**
+     * Test with a Content-Length, a chunked content and a 204 split at every
+     * offset, with the next response in the same reads
+     */
+    @Test
+    public void testEveryOffset() {
+        String[][] cases = { { FIXED, "hello" }, { CHUNKED, "Wikipedia" }, { NO_CONTENT, "" } };
+        for (var c : cases) {
+            for (var offset = 0; offset <= c[0].length(); offset++) {
+                var reader = parse(c[0], "HTTP/1.1 200", offset, 256);
+                assertEquals(c[1], StandardCharsets.US_ASCII.decode(reader.body()).toString());
+                assertTrue(reader.isKeepAlive());
+            }
+        }
+    }
+
+    /**
+     * Test with a buffer of 7 bytes: the header and the content are gathered by
+     * the reader
+     */
+    @Test
+    public void testSmallBuffer() {
+        var reader = parse(CHUNKED, "", CHUNKED.length(), 7);
+        assertEquals("Wikipedia", StandardCharsets.US_ASCII.decode(reader.body()).toString());
+        var response = reader.get();
+        assertEquals(200, response.header().getCode());
+        assertEquals("chunked", response.header().getFields().get("transfer-encoding"));
+        assertEquals("Wikipedia", StandardCharsets.US_ASCII.decode(response.body()).toString());
+    }
+
+    /**
+     * Test for a content ended by the connection, and for a reset reader
+     * reading the next response
+     */
+    @Test
+    public void testUntilCloseAndReset() {
+        var reader = new HTTPResponseReader(1_024, 1_024);
+        var buffer = ByteBuffer.allocate(256);
+        buffer.put("HTTP/1.0 200 OK\r\n\r\nuntil the end".getBytes(StandardCharsets.US_ASCII));
+        assertEquals(ProcessStatus.REFILL, reader.process(buffer));
+        assertEquals(ProcessStatus.DONE, reader.endOfInput());
+        assertEquals("until the end", StandardCharsets.US_ASCII.decode(reader.body()).toString());
+        assertFalse(reader.isKeepAlive());
+
+        reader.reset();
+        buffer.put(FIXED.getBytes(StandardCharsets.US_ASCII));
+        assertEquals(ProcessStatus.DONE, reader.process(buffer));
+        assertEquals("hello", StandardCharsets.US_ASCII.decode(reader.body()).toString());
+    }
+
+    /**
+     * Test for a HEAD request: the Content-Length is not followed by a content
+     */
+    @Test
+    public void testHead() {
+        var reader = new HTTPResponseReader(1_024, 1_024);
+        reader.headRequest();
+        var buffer = ByteBuffer.allocate(256);
+        buffer.put("HTTP/1.1 200 OK\r\nContent-Length: 1000\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+        assertEquals(ProcessStatus.DONE, reader.process(buffer));
+        assertEquals(0, reader.body().remaining());
+    }
+
+    /**
+     * Test for ill-formed responses and responses too large
+     */
+    @Test
+    public void testErrors() {
+        String[] responses = { "HTTP/1.1 2OO OK\r\n\r\n", "HTTP/1.1 200 OK\r\nNoColon\r\n\r\n",
+                "HTTP/1.1 200 OK\r\nContent-Length: x\r\n\r\n",
+                "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\nZ\r\n",
+                "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n2\r\nabX\r\n",
+                "HTTP/1.1 200 OK\r\nContent-Length: 100\r\n\r\n" + "x".repeat(100),
+                "HTTP/1.1 200 OK\r\nLong: " + "x".repeat(100) + "\r\n\r\n" };
+        for (var response : responses) {
+            var reader = new HTTPResponseReader(64, 64);
+            var buffer = ByteBuffer.allocate(256);
+            buffer.put(response.getBytes(StandardCharsets.US_ASCII));
+            assertEquals(ProcessStatus.ERROR, reader.process(buffer), response);
+        }
+        var reader = new HTTPResponseReader(64, 64);
+        var buffer = ByteBuffer.allocate(256);
+        buffer.put(FIXED.substring(0, FIXED.length() - 1).getBytes(StandardCharsets.US_ASCII));
+        assertEquals(ProcessStatus.REFILL, reader.process(buffer));
+        assertEquals(ProcessStatus.ERROR, reader.endOfInput());
+    }
+}
@@ -0,0 +1,348 @@
+package fr.upem.net.tcp.http;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * HTTP/1.1 client multiplexing keep-alive connections in the thread calling
+ * {@link #runUntilIdle(long)}, with one {@link HTTPResponseReader} per
+ * connection.
+ *
+ * Requests are queued on a {@link Connection} and sent one after the other,
+ * each one once the response to the previous one is complete. The futures are
+ * completed by the selector thread, their callbacks can queue new requests.
+ * The client is not thread-safe: it must only be used by the thread running
+ * the loop.
+ */
+public class HTTPSelectorClient implements Closeable {
+	private static final Logger logger = Logger.getLogger(HTTPSelectorClient.class.getName());
+	private static final int BUFFER_SIZE = 4_096;
+	private static final int MAX_HEADER_SIZE = 16_384;
+
+	private record Exchange(ByteBuffer request, boolean head, CompletableFuture<HTTPResponse> future) {
+	}
+
+	/**
+	 * A keep-alive connection to a server
+	 */
+	public final class Connection {
+		private final SelectionKey key;
+		private final SocketChannel sc;
+		private final String host;
+		private final ByteBuffer bufferIn = ByteBuffer.allocate(BUFFER_SIZE); // write-mode
+		private final ArrayDeque<Exchange> exchanges = new ArrayDeque<>(); // the first one is in progress
+		private final HTTPResponseReader reader = new HTTPResponseReader(MAX_HEADER_SIZE, maxBodySize);
+		private boolean connected;
+		private boolean closed;
+
+		private Connection(SelectionKey key, String host) {
+			this.key = key;
+			this.sc = (SocketChannel) key.channel();
+			this.host = host;
+		}
+
+		/**
+		 * @param path
+		 * @return the future response, failed with an IOException if the
+		 *         connection fails or is closed before the response
+		 */
+		public CompletableFuture<HTTPResponse> get(String path) {
+			return send("GET", path);
+		}
+
+		/**
+		 * @param path
+		 * @return the future response, with an empty content
+		 */
+		public CompletableFuture<HTTPResponse> head(String path) {
+			return send("HEAD", path);
+		}
+
+		/**
+		 * @return true until the connection is closed, by the server or after an
+		 *         error
+		 */
+		public boolean isOpen() {
+			return !closed;
+		}
+
+		/**
+		 * @return the number of requests waiting for their response
+		 */
+		public int pendingRequests() {
+			return exchanges.size();
+		}
+
+		private CompletableFuture<HTTPResponse> send(String method, String path) {
+			var future = new CompletableFuture<HTTPResponse>();
+			if (closed) {
+				future.completeExceptionally(new HTTPException("Connection closed"));
+				return future;
+			}
+			var request = StandardCharsets.US_ASCII.encode(method + " " + path + " HTTP/1.1\r\nHost: " + host + "\r\n\r\n");
+			exchanges.add(new Exchange(request, method.equals("HEAD"), future));
+			pending++;
+			if (exchanges.size() == 1) {
+				startExchange();
+			}
+			updateInterestOps();
+			return future;
+		}
+
+		private void startExchange() {
+			reader.reset();
+			if (exchanges.peek().head()) {
+				reader.headRequest();
+			}
+		}
+
+		/**
+		 * Update the interestOps of the key: writes the request in progress and
+		 * always reads, so that a keep-alive connection closed by the server is
+		 * noticed
+		 */
+		private void updateInterestOps() {
+			if (closed || !connected) {
+				return;
+			}
+			var interestOps = SelectionKey.OP_READ;
+			if (!exchanges.isEmpty() && exchanges.peek().request().hasRemaining()) {
+				interestOps |= SelectionKey.OP_WRITE;
+			}
+			key.interestOps(interestOps);
+		}
+
+		private void doConnect() throws IOException {
+			if (!sc.finishConnect()) {
+				return; // the selector gave a bad hint
+			}
+			connected = true;
+			updateInterestOps();
+		}
+
+		private void doWrite() throws IOException {
+			sc.write(exchanges.peek().request());
+			updateInterestOps();
+		}
+
+		private void doRead() throws IOException {
+			if (sc.read(bufferIn) == -1) {
+				closed = true;
+				if (!exchanges.isEmpty() && reader.endOfInput() == Reader.ProcessStatus.DONE) {
+					complete();
+				}
+				fail(new HTTPException("Connection closed by the server"));
+				return;
+			}
+			processIn();
+			updateInterestOps();
+		}
+
+		/**
+		 * Gives the received bytes to the reader, the bytes of the next response
+		 * stay in bufferIn
+		 */
+		private void processIn() {
+			if (exchanges.isEmpty() && bufferIn.position() != 0) {
+				fail(new HTTPException("Response without request"));
+				return;
+			}
+			while (!closed && !exchanges.isEmpty()) {
+				switch (reader.process(bufferIn)) {
+				case DONE -> complete();
+				case REFILL -> {
+					return;
+				}
+				case ERROR -> {
+					fail(new HTTPException("Ill-formed response"));
+					return;
+				}
+				}
+			}
+		}
+
+		private void complete() {
+			var exchange = exchanges.poll();
+			pending--;
+			var response = reader.get();
+			if (!reader.isKeepAlive()) {
+				fail(new HTTPException("Connection closed by the server"));
+			} else if (!exchanges.isEmpty()) {
+				startExchange();
+			}
+			exchange.future().complete(response);
+		}
+
+		/**
+		 * Closes the connection and fails the requests waiting for a response
+		 *
+		 * @param cause
+		 */
+		private void fail(IOException cause) {
+			closed = true;
+			silentlyClose();
+			var failed = new ArrayList<>(exchanges);
+			pending -= exchanges.size();
+			exchanges.clear();
+			for (var exchange : failed) {
+				exchange.future().completeExceptionally(cause);
+			}
+		}
+
+		private void silentlyClose() {
+			try {
+				sc.close();
+			} catch (IOException e) {
+				// ignore exception
+			}
+		}
+	}
+
+	private final Selector selector;
+	private final int maxBodySize;
+	private int pending; // requests of all the connections waiting for a response
+
+	/**
+	 * @param maxBodySize the maximum size of a content, a larger response fails
+	 * @throws IOException
+	 */
+	public HTTPSelectorClient(int maxBodySize) throws IOException {
+		if (maxBodySize < 0) {
+			throw new IllegalArgumentException("maxBodySize must be positive or zero");
+		}
+		this.maxBodySize = maxBodySize;
+		this.selector = Selector.open();
+	}
+
+	/**
+	 * Opens a new connection, established by the loop
+	 *
+	 * @param server
+	 * @return the connection, requests can be queued right away
+	 * @throws IOException
+	 */
+	public Connection connect(InetSocketAddress server) throws IOException {
+		var sc = SocketChannel.open();
+		sc.configureBlocking(false);
+		var key = sc.register(selector, SelectionKey.OP_CONNECT);
+		var host = server.getHostString() + (server.getPort() == 80 ? "" : ":" + server.getPort());
+		var connection = new Connection(key, host);
+		key.attach(connection);
+		if (sc.connect(server)) {
+			connection.connected = true;
+			connection.updateInterestOps();
+		}
+		return connection;
+	}
+
+	/**
+	 * @return the number of requests, on all the connections, waiting for their
+	 *         response
+	 */
+	public int pendingRequests() {
+		return pending;
+	}
+
+	/**
+	 * Runs the selector loop until every request got its response or failed
+	 *
+	 * @param timeoutMillis the maximum time to wait, 0 to wait forever
+	 * @return true if no request is pending, false on timeout
+	 * @throws IOException
+	 */
+	public boolean runUntilIdle(long timeoutMillis) throws IOException {
+		var deadline = System.currentTimeMillis() + timeoutMillis;
+		while (pending > 0) {
+			var delay = 0L;
+			if (timeoutMillis != 0) {
+				delay = deadline - System.currentTimeMillis();
+				if (delay <= 0) {
+					return false;
+				}
+			}
+			try {
+				selector.select(this::treatKey, delay);
+			} catch (UncheckedIOException tunneled) {
+				throw tunneled.getCause();
+			}
+		}
+		return true;
+	}
+
+	private void treatKey(SelectionKey key) {
+		var connection = (Connection) key.attachment();
+		try {
+			if (key.isValid() && key.isConnectable()) {
+				connection.doConnect();
+			}
+			if (key.isValid() && key.isWritable()) {
+				connection.doWrite();
+			}
+			if (key.isValid() && key.isReadable()) {
+				connection.doRead();
+			}
+		} catch (IOException e) {
+			logger.log(Level.FINE, "Connection failed", e);
+			connection.fail(e);
+		}
+	}
+
+	/**
+	 * Closes all the connections, the pending requests fail
+	 */
+	@Override
+	public void close() throws IOException {
+		for (var key : selector.keys()) {
+			((Connection) key.attachment()).fail(new HTTPException("Client closed"));
+		}
+		selector.close();
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 5) {
+			usage();
+			return;
+		}
+		var server = new InetSocketAddress(args[0], Integer.parseInt(args[1]));
+		var path = args[2];
+		var nbConnections = Integer.parseInt(args[3]);
+		var nbRequests = Integer.parseInt(args[4]);
+		try (var client = new HTTPSelectorClient(1 << 20)) {
+			var responses = new long[1];
+			var failures = new long[1];
+			var start = System.nanoTime();
+			for (var i = 0; i < nbConnections; i++) {
+				var connection = client.connect(server);
+				for (var j = 0; j < nbRequests; j++) {
+					connection.get(path).whenComplete((response, e) -> {
+						if (e != null) {
+							failures[0]++;
+						} else {
+							responses[0]++;
+						}
+					});
+				}
+			}
+			client.runUntilIdle(0);
+			var millis = (System.nanoTime() - start) / 1_000_000;
+			System.out.println(responses[0] + " responses, " + failures[0] + " failures in " + millis + " ms on "
+					+ nbConnections + " connections");
+		}
+	}
+
+	private static void usage() {
+		System.out.println("Usage : HTTPSelectorClient host port path nbConnections requestsPerConnection");
+	}
+}
@@ -0,0 +1,133 @@
+package fr.upem.net.tcp.http;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ *
+ * <p>
+ * Tests suit for the class HTTPSelectorClient
+ */
+public class HTTPSelectorClientTest {
+
+    private static final String RESPONSES = "HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nfirst"
+            + "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n3\r\nsec\r\n3\r\nond\r\n0\r\n\r\n"
+            + "HTTP/1.1 200 OK\r\nConnection: close\r\nContent-Length: 5\r\n\r\nthird";
+
+    private static String body(CompletableFuture<HTTPResponse> future) throws InterruptedException, ExecutionException {
+        return StandardCharsets.US_ASCII.decode(future.get().body()).toString();
+    }
+
+    /**
+     * Test for three requests on a keep-alive connection, the responses arriving
+     * in pieces of 7 bytes unrelated to their boundaries. The server closes the
+     * connection after the third one, so the fourth request fails.
+     */
+    @Test
+    public void testKeepAlive() throws Exception {
+        FakeHTTPServer server = new FakeHTTPServer(RESPONSES, 7);
+        try (var client = new HTTPSelectorClient(1_024)) {
+            server.serve();
+            var connection = client.connect(new InetSocketAddress("localhost", server.getPort()));
+            var first = connection.get("/1");
+            var second = connection.get("/2");
+            var third = connection.get("/3");
+            var fourth = connection.get("/4");
+            assertEquals(4, client.pendingRequests());
+            assertTrue(client.runUntilIdle(10_000));
+            assertEquals("first", body(first));
+            assertEquals("second", body(second));
+            assertEquals("third", body(third));
+            var e = assertThrows(ExecutionException.class, () -> fourth.get());
+            assertTrue(e.getCause() instanceof HTTPException);
+            assertFalse(connection.isOpen());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    /**
+     * Test for many servers multiplexed in the thread of the loop
+     */
+    @Test
+    public void testManyServers() throws Exception {
+        var servers = new ArrayList<FakeHTTPServer>();
+        var futures = new ArrayList<CompletableFuture<HTTPResponse>>();
+        try (var client = new HTTPSelectorClient(1_024)) {
+            for (var i = 0; i < 100; i++) {
+                var server = new FakeHTTPServer(RESPONSES, 20);
+                servers.add(server);
+                server.serve();
+                var connection = client.connect(new InetSocketAddress("localhost", server.getPort()));
+                for (var j = 0; j < 3; j++) {
+                    futures.add(connection.get("/" + j));
+                }
+            }
+            var start = System.currentTimeMillis();
+            assertTrue(client.runUntilIdle(10_000));
+            // each server sleeps 100 ms between its writes, they must be waited in parallel
+            assertTrue(System.currentTimeMillis() - start < 5_000);
+            for (var i = 0; i < futures.size(); i += 3) {
+                assertEquals("first", body(futures.get(i)));
+                assertEquals("second", body(futures.get(i + 1)));
+                assertEquals("third", body(futures.get(i + 2)));
+            }
+        } finally {
+            servers.forEach(FakeHTTPServer::shutdown);
+        }
+    }
+
+    /**
+     * Test for a response ended by the connection, a request sent from the
+     * callback of the previous response, and a connection refused
+     */
+    @Test
+    public void testUntilCloseAndRefused() throws Exception {
+        FakeHTTPServer server = new FakeHTTPServer("HTTP/1.0 200 OK\r\n\r\nall of it", 100);
+        try (var client = new HTTPSelectorClient(1_024)) {
+            server.serve();
+            var connection = client.connect(new InetSocketAddress("localhost", server.getPort()));
+            var next = new ArrayList<CompletableFuture<HTTPResponse>>();
+            var first = connection.get("/");
+            first.thenRun(() -> next.add(connection.get("/again")));
+            var refused = client.connect(new InetSocketAddress("localhost", 1)).get("/");
+            assertTrue(client.runUntilIdle(10_000));
+            assertEquals("all of it", body(first));
+            assertThrows(ExecutionException.class, () -> next.get(0).get());
+            assertThrows(ExecutionException.class, () -> refused.get());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    /**
+     * Test for a response whose header is cut by the end of the connection, and
+     * for a server that accepts the connection but never answers
+     */
+    @Test
+    public void testTruncatedAndTimeout() throws IOException {
+        FakeHTTPServer server = new FakeHTTPServer("HTTP/1.1 200 OK\r\n", 100);
+        try (var client = new HTTPSelectorClient(1_024); var silent = ServerSocketChannel.open()) {
+            server.serve();
+            var truncated = client.connect(new InetSocketAddress("localhost", server.getPort())).get("/");
+            assertTrue(client.runUntilIdle(10_000));
+            assertTrue(truncated.isCompletedExceptionally());
+
+            silent.bind(null); // the connection is established by the backlog, never accepted
+            var unanswered = client.connect((InetSocketAddress) silent.getLocalAddress()).get("/");
+            assertFalse(client.runUntilIdle(300));
+            assertFalse(unanswered.isDone());
+            assertEquals(1, client.pendingRequests());
+        } finally {
+            server.shutdown();
+        }
+    }
+}
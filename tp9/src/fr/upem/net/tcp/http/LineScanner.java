@@ -0,0 +1,103 @@
+package fr.upem.net.tcp.http;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Gathers CRLF terminated lines in a reusable byte array.
+ *
+ * The end of line is searched a word at a time (SWAR): 8 bytes are read with
+ * one getLong and the bytes equal to LF are found with a few arithmetic
+ * operations, without a branch per byte. A line is then moved in bulk from the
+ * buffer to the array, which only grows when a line is longer than all the
+ * previous ones, so scanning allocates nothing in the steady state.
+ */
+final class LineScanner {
+	private static final long ONES = 0x0101_0101_0101_0101L;
+	private static final long HIGHS = 0x8080_8080_8080_8080L;
+	private static final long LFS = ONES * '\n';
+
+	private byte[] bytes = new byte[256];
+	private int length;
+
+	void reset() {
+		length = 0;
+	}
+
+	/**
+	 * @return the array holding the lines, valid until the next scan or reset
+	 */
+	byte[] bytes() {
+		return bytes;
+	}
+
+	int length() {
+		return length;
+	}
+
+	/**
+	 * Moves the bytes of buffer up to the first CRLF, included, at the end of the
+	 * lines. A CR moved by a previous call followed by an LF at the start of
+	 * buffer is a CRLF.
+	 *
+	 * The buffer is in read-mode before and after the call.
+	 *
+	 * @param buffer
+	 * @return true if a CRLF was found, false if all the bytes of buffer were
+	 *         moved without finding one
+	 */
+	boolean scanCRLF(ByteBuffer buffer) {
+		var from = buffer.position();
+		var limit = buffer.limit();
+		while (from < limit) {
+			var lf = indexOfLF(buffer, from, limit);
+			var end = lf == -1 ? limit : lf + 1;
+			append(buffer, end - buffer.position());
+			if (lf != -1 && length >= 2 && bytes[length - 2] == '\r') {
+				return true;
+			}
+			from = end;
+		}
+		return false;
+	}
+
+	/**
+	 * @param buffer
+	 * @param from
+	 * @param to
+	 * @return the index of the first LF of buffer between from, included, and to,
+	 *         excluded, or -1
+	 */
+	static int indexOfLF(ByteBuffer buffer, int from, int to) {
+		var bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+		var i = from;
+		for (; i + Long.BYTES <= to; i += Long.BYTES) {
+			var word = buffer.getLong(i);
+			if (bigEndian) {
+				word = Long.reverseBytes(word); // the first byte becomes the least significant one
+			}
+			var x = word ^ LFS; // bytes equal to LF are now 0
+			// the lowest byte flagged is the first 0, false positives can only be above it
+			var found = (x - ONES) & ~x & HIGHS;
+			if (found != 0) {
+				return i + (Long.numberOfTrailingZeros(found) >>> 3);
+			}
+		}
+		for (; i < to; i++) {
+			if (buffer.get(i) == '\n') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void append(ByteBuffer buffer, int size) {
+		if (length + size > bytes.length) {
+			var newBytes = new byte[Math.max(2 * bytes.length, length + size)];
+			System.arraycopy(bytes, 0, newBytes, 0, length);
+			bytes = newBytes;
+		}
+		buffer.get(bytes, length, size);
+		length += size;
+	}
+}